@@ -0,0 +1,252 @@
+/*
+ * Copyright (c) 2016 The Ontario Institute for Cancer Research. All rights reserved.                             
+ *                                                                                                               
+ * This program and the accompanying materials are made available under the terms of the GNU Public License v3.0.
+ * You should have received a copy of the GNU General Public License along with                                  
+ * this program. If not, see <http://www.gnu.org/licenses/>.                                                     
+ *                                                                                                               
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY                           
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES                          
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT                           
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,                                
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED                          
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;                               
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER                              
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN                         
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.icgc.dcc.dev.server.message;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.stream.Collectors.toList;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import lombok.Data;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.SneakyThrows;
+import lombok.val;
+import lombok.experimental.Accessors;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Typed message bus that dispatches each message class to its registered handler.
+ * <p>
+ * Handlers either run inline on the publishing thread or on a named topic. Each topic has a fixed number of lanes, each
+ * a single thread with a bounded queue. Messages are assigned to a lane by key so that messages with equal keys are
+ * handled in publication order. Publishers block while the lane's queue is full.
+ * <p>
+ * Handlers are resolved by the most specific registered superclass of the message class.
+ */
+@Slf4j
+@Component
+public class MessageBus {
+
+  /**
+   * Configuration.
+   */
+  @Value("${message.bus.threads}")
+  int threads;
+  @Value("${message.bus.queueSize}")
+  int queueSize;
+
+  /**
+   * State.
+   */
+  final Map<Class<?>, Route<?>> routes = Maps.newConcurrentMap();
+  final Map<Class<?>, Route<?>> resolvedRoutes = Maps.newConcurrentMap();
+  final Map<String, Topic> topics = Maps.newConcurrentMap();
+
+  /**
+   * Handles messages of {@code type} on the publishing thread.
+   */
+  public <T> void route(@NonNull Class<T> type, @NonNull Consumer<? super T> handler) {
+    register(type, new Route<T>(null, message -> null, handler));
+  }
+
+  /**
+   * Handles messages of {@code type} on {@code topic}, in order for messages with equal {@code key}s.
+   */
+  public <T> void route(@NonNull Class<T> type, @NonNull String topic, @NonNull Function<? super T, ?> key,
+      @NonNull Consumer<? super T> handler) {
+    register(type, new Route<T>(topics.computeIfAbsent(topic, Topic::new), key, handler));
+  }
+
+  /**
+   * Dispatches {@code message} to the handler of its class.
+   * 
+   * @throws IllegalArgumentException if no handler is registered for the message class
+   */
+  public void publish(@NonNull Object message) {
+    resolve(message.getClass()).dispatch(message);
+  }
+
+  /**
+   * Reports the dispatch statistics of each topic.
+   */
+  public List<TopicStats> getStats() {
+    return topics.values().stream().map(Topic::getStats).collect(toList());
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    topics.values().forEach(Topic::shutdown);
+  }
+
+  private void register(Class<?> type, Route<?> route) {
+    routes.put(type, route);
+    resolvedRoutes.clear();
+  }
+
+  private Route<?> resolve(Class<?> type) {
+    return resolvedRoutes.computeIfAbsent(type, key -> {
+      for (Class<?> current = type; current != null; current = current.getSuperclass()) {
+        Route<?> route = routes.get(current);
+        if (route != null) return route;
+      }
+
+      throw new IllegalArgumentException("No route for message type " + type.getName());
+    });
+  }
+
+  /**
+   * Handler of a message class and the topic it runs on, if any.
+   */
+  @RequiredArgsConstructor
+  private static class Route<T> {
+
+    final Topic topic;
+    final Function<? super T, ?> key;
+    final Consumer<? super T> handler;
+
+    @SuppressWarnings("unchecked")
+    void dispatch(Object message) {
+      val typed = (T) message;
+      if (topic == null) {
+        handler.accept(typed);
+      } else {
+        topic.dispatch(key.apply(typed), () -> handler.accept(typed));
+      }
+    }
+
+  }
+
+  /**
+   * Lanes of a topic and their statistics.
+   */
+  private class Topic {
+
+    final String name;
+    final ThreadPoolExecutor[] lanes;
+    final LongAdder dispatched = new LongAdder();
+    final LongAdder failed = new LongAdder();
+    final LongAdder totalLatency = new LongAdder();
+    final AtomicLong maxLatency = new AtomicLong();
+
+    Topic(String name) {
+      this.name = name;
+      this.lanes = new ThreadPoolExecutor[threads];
+      for (int i = 0; i < threads; i++) {
+        val threadFactory = new ThreadFactoryBuilder().setNameFormat("message-" + name + "-" + i).setDaemon(true).build();
+        lanes[i] = new ThreadPoolExecutor(1, 1, 0, MILLISECONDS, new ArrayBlockingQueue<>(queueSize), threadFactory,
+            (task, executor) -> block(task, executor));
+      }
+    }
+
+    void dispatch(Object key, Runnable handler) {
+      val queued = System.nanoTime();
+      val lane = key == null ? 0 : (key.hashCode() & Integer.MAX_VALUE) % lanes.length;
+      lanes[lane].execute(() -> {
+        long latency = System.nanoTime() - queued;
+        totalLatency.add(latency);
+        maxLatency.accumulateAndGet(latency, Math::max);
+
+        try {
+          handler.run();
+        } catch (Exception e) {
+          failed.increment();
+          log.error("Error handling message on topic " + name + ":", e);
+        } finally {
+          dispatched.increment();
+        }
+      });
+    }
+
+    TopicStats getStats() {
+      val count = dispatched.sum();
+      int queued = 0;
+      for (val lane : lanes) {
+        queued += lane.getQueue().size();
+      }
+
+      return new TopicStats()
+          .setTopic(name)
+          .setLanes(lanes.length)
+          .setQueued(queued)
+          .setDispatched(count)
+          .setFailed(failed.sum())
+          .setMeanLatency(count == 0 ? 0 : NANOSECONDS.toMicros(totalLatency.sum() / count))
+          .setMaxLatency(NANOSECONDS.toMicros(maxLatency.get()));
+    }
+
+    void shutdown() {
+      for (val lane : lanes) {
+        lane.shutdownNow();
+      }
+    }
+
+    @SneakyThrows
+    private void block(Runnable task, ThreadPoolExecutor executor) {
+      if (executor.isShutdown()) throw new RejectedExecutionException("Topic " + name + " is shut down");
+
+      log.warn("Topic {} queue is full, blocking publisher...", name);
+      executor.getQueue().put(task);
+    }
+
+  }
+
+  /**
+   * Dispatch statistics of a topic.
+   */
+  @Data
+  @Accessors(chain = true)
+  public static class TopicStats {
+
+    String topic;
+    int lanes;
+
+    /**
+     * Messages waiting to be handled.
+     */
+    int queued;
+
+    long dispatched;
+    long failed;
+
+    /**
+     * Time from publication to the start of handling (μs).
+     */
+    long meanLatency;
+    long maxLatency;
+
+  }
+
+}
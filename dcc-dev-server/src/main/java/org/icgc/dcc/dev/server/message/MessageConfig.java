@@ -17,12 +17,15 @@
  */
 package org.icgc.dcc.dev.server.message;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.simp.config.ChannelRegistration;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
 import org.springframework.web.socket.config.annotation.AbstractWebSocketMessageBrokerConfigurer;
 import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
 import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
+import org.springframework.web.socket.config.annotation.WebSocketTransportRegistration;
 
 /**
  * Message module configuration.
@@ -36,10 +39,43 @@ public class MessageConfig extends AbstractWebSocketMessageBrokerConfigurer {
    */
   @Value("${message.topicPrefix}")
   String topicPrefix;
+  @Value("${message.broker.relay.enabled}")
+  boolean relay;
+  @Value("${message.broker.relay.host}")
+  String relayHost;
+  @Value("${message.broker.relay.port}")
+  int relayPort;
+  @Value("${message.broker.relay.login}")
+  String relayLogin;
+  @Value("${message.broker.relay.passcode}")
+  String relayPasscode;
+
+  /**
+   * Dependencies.
+   */
+  @Autowired
+  MessageNamespace namespace;
+  @Autowired
+  MessageSessionThrottle throttle;
+  @Autowired
+  MessageSubscriptionInterceptor subscriptionInterceptor;
+  @Autowired
+  MessageEncoder encoder;
 
   @Override
   public void configureMessageBroker(MessageBrokerRegistry config) {
-    config.enableSimpleBroker(topicPrefix);
+    if (relay) {
+      // Shared with the other dev servers connected to the broker
+      config.enableStompBrokerRelay(topicPrefix)
+          .setRelayHost(relayHost)
+          .setRelayPort(relayPort)
+          .setClientLogin(relayLogin)
+          .setClientPasscode(relayPasscode)
+          .setSystemLogin(relayLogin)
+          .setSystemPasscode(relayPasscode);
+    } else {
+      config.enableSimpleBroker(topicPrefix);
+    }
     config.setApplicationDestinationPrefixes("/service");
   }
 
@@ -47,6 +83,29 @@ public class MessageConfig extends AbstractWebSocketMessageBrokerConfigurer {
   public void registerStompEndpoints(StompEndpointRegistry registry) {
     // Websocket endpoint: ws://localhost:8080/messages
     registry.addEndpoint("/messages").setAllowedOrigins("*").withSockJS();
+
+    // Raw websocket endpoint for clients that negotiate binary encodings: ws://localhost:8080/messages-binary
+    registry.addEndpoint("/messages-binary").setAllowedOrigins("*").addInterceptors(encoder);
+  }
+
+  @Override
+  public void configureClientInboundChannel(ChannelRegistration registration) {
+    // Subscriptions are moved into the node's namespace before they reach the broker
+    registration.setInterceptors(namespace, subscriptionInterceptor, encoder);
+  }
+
+  @Override
+  public void configureClientOutboundChannel(ChannelRegistration registration) {
+    // Encoded after throttling so that dropped messages are not encoded
+    registration.setInterceptors(throttle, encoder);
+
+    // Keeps the messages of each session in order without serializing the sessions
+    registration.taskExecutor(new MessageSessionExecutor());
+  }
+
+  @Override
+  public void configureWebSocketTransport(WebSocketTransportRegistration registration) {
+    registration.addDecoratorFactory(throttle);
   }
 
 }
@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2016 The Ontario Institute for Cancer Research. All rights reserved.                             
+ *                                                                                                               
+ * This program and the accompanying materials are made available under the terms of the GNU Public License v3.0.
+ * You should have received a copy of the GNU General Public License along with                                  
+ * this program. If not, see <http://www.gnu.org/licenses/>.                                                     
+ *                                                                                                               
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY                           
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES                          
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT                           
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,                                
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED                          
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;                               
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER                              
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN                         
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.icgc.dcc.dev.server.message;
+
+import java.util.List;
+
+import org.icgc.dcc.dev.server.message.MessageBus.TopicStats;
+import org.icgc.dcc.dev.server.message.MessageEncoder.EncodingStats;
+import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import lombok.RequiredArgsConstructor;
+
+/**
+ * HTTP bindings for message diagnostics.
+ */
+@RestController
+@CrossOrigin
+@RequiredArgsConstructor
+public class MessageController {
+
+  /**
+   * Dependencies.
+   */
+  final MessageBus bus;
+  final MessageEncoder encoder;
+
+  /**
+   * Gets the queue depth, throughput and dispatch latency of each message bus topic.
+   */
+  @GetMapping("/api/messages/stats")
+  public List<TopicStats> getStats() {
+    return bus.getStats();
+  }
+
+  /**
+   * Gets the volume and cost of CBOR encoding so far, for comparison with the JSON payloads it replaced.
+   */
+  @GetMapping("/api/messages/encoding")
+  public EncodingStats getEncodingStats() {
+    return encoder.getStats();
+  }
+
+}
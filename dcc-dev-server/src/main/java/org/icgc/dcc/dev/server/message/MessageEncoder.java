@@ -0,0 +1,248 @@
+/*
+ * Copyright (c) 2016 The Ontario Institute for Cancer Research. All rights reserved.                             
+ *                                                                                                               
+ * This program and the accompanying materials are made available under the terms of the GNU Public License v3.0.
+ * You should have received a copy of the GNU General Public License along with                                  
+ * this program. If not, see <http://www.gnu.org/licenses/>.                                                     
+ *                                                                                                               
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY                           
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES                          
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT                           
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,                                
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED                          
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;                               
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER                              
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN                         
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.icgc.dcc.dev.server.message;
+
+import static org.springframework.util.MimeTypeUtils.APPLICATION_JSON;
+import static org.springframework.util.MimeTypeUtils.APPLICATION_OCTET_STREAM;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptorAdapter;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.server.HandshakeInterceptor;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import lombok.Data;
+import lombok.SneakyThrows;
+import lombok.val;
+import lombok.experimental.Accessors;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Re-encodes JSON messages as CBOR for the subscriptions that ask for it.
+ * <p>
+ * A subscription negotiates CBOR with an {@code accept: application/cbor} header. Since SockJS only carries text, this
+ * is honoured only for sessions connected through the raw websocket endpoint, whose handshake this interceptor marks.
+ * CBOR messages are sent as binary frames with an {@code application/octet-stream} content type, which is what
+ * selects binary frames, and an {@code encoding: application/cbor} header.
+ * <p>
+ * The broker sends the same payload to every subscriber, so the last encoding is reused per sending thread.
+ */
+@Slf4j
+@Component
+public class MessageEncoder extends ChannelInterceptorAdapter implements HandshakeInterceptor {
+
+  /**
+   * Constants.
+   */
+  public static final String ACCEPT_HEADER = "accept";
+  public static final String ENCODING_HEADER = "encoding";
+  public static final String CBOR = "application/cbor";
+
+  static final String BINARY_ATTRIBUTE = MessageEncoder.class.getName() + ".binary";
+
+  /**
+   * State.
+   */
+  final JsonFactory jsonFactory = new JsonFactory();
+  final CBORFactory cborFactory = new CBORFactory();
+
+  // CBOR subscription ids by session id
+  final Map<String, Set<String>> cborSubscriptions = Maps.newConcurrentMap();
+
+  // Last encoding per sending thread
+  final ThreadLocal<Encoding> lastEncoding = ThreadLocal.withInitial(Encoding::new);
+
+  final LongAdder messages = new LongAdder();
+  final LongAdder encodings = new LongAdder();
+  final LongAdder jsonBytes = new LongAdder();
+  final LongAdder cborBytes = new LongAdder();
+  final LongAdder encodingTime = new LongAdder();
+
+  @Override
+  public boolean beforeHandshake(ServerHttpRequest request, ServerHttpResponse response, WebSocketHandler handler,
+      Map<String, Object> attributes) {
+    attributes.put(BINARY_ATTRIBUTE, Boolean.TRUE);
+    return true;
+  }
+
+  @Override
+  public void afterHandshake(ServerHttpRequest request, ServerHttpResponse response, WebSocketHandler handler,
+      Exception exception) {
+    // No-op
+  }
+
+  @Override
+  public Message<?> preSend(Message<?> message, MessageChannel channel) {
+    val headers = message.getHeaders();
+    val sessionId = SimpMessageHeaderAccessor.getSessionId(headers);
+    val type = SimpMessageHeaderAccessor.getMessageType(headers);
+    if (sessionId == null || type == null) return message;
+
+    switch (type) {
+    case MESSAGE:
+      return encode(message, sessionId);
+    case SUBSCRIBE:
+      handleSubscribe(message, sessionId);
+      break;
+    case UNSUBSCRIBE:
+      handleUnsubscribe(sessionId, SimpMessageHeaderAccessor.getSubscriptionId(headers));
+      break;
+    case DISCONNECT:
+      cborSubscriptions.remove(sessionId);
+      break;
+    default:
+      break;
+    }
+
+    return message;
+  }
+
+  /**
+   * Reports the volume and cost of CBOR encoding so far.
+   */
+  public EncodingStats getStats() {
+    val count = encodings.sum();
+    return new EncodingStats()
+        .setMessages(messages.sum())
+        .setEncodings(count)
+        .setJsonBytes(jsonBytes.sum())
+        .setCborBytes(cborBytes.sum())
+        .setMeanEncodingTime(count == 0 ? 0 : encodingTime.sum() / count / 1000);
+  }
+
+  private void handleSubscribe(Message<?> message, String sessionId) {
+    val accessor = StompHeaderAccessor.wrap(message);
+    val accept = accessor.getFirstNativeHeader(ACCEPT_HEADER);
+    if (accept == null || !accept.contains(CBOR)) return;
+
+    val attributes = accessor.getSessionAttributes();
+    if (attributes == null || !Boolean.TRUE.equals(attributes.get(BINARY_ATTRIBUTE))) {
+      log.debug("Session {} requested {} over a text transport, keeping JSON", sessionId, CBOR);
+      return;
+    }
+
+    cborSubscriptions.computeIfAbsent(sessionId, id -> Sets.newConcurrentHashSet()).add(accessor.getSubscriptionId());
+  }
+
+  private void handleUnsubscribe(String sessionId, String subscriptionId) {
+    val subscriptionIds = cborSubscriptions.get(sessionId);
+    if (subscriptionIds != null && subscriptionId != null) subscriptionIds.remove(subscriptionId);
+  }
+
+  private Message<?> encode(Message<?> message, String sessionId) {
+    val subscriptionIds = cborSubscriptions.get(sessionId);
+    if (subscriptionIds == null) return message;
+
+    // Not a STOMP accessor, which would reach the protocol handler without a command
+    val accessor = SimpMessageHeaderAccessor.wrap(message);
+    val subscriptionId = accessor.getSubscriptionId();
+    if (subscriptionId == null || !subscriptionIds.contains(subscriptionId)) return message;
+
+    val contentType = accessor.getContentType();
+    val payload = message.getPayload();
+    if (contentType == null || !APPLICATION_JSON.isCompatibleWith(contentType) || !(payload instanceof byte[])) {
+      return message;
+    }
+
+    messages.increment();
+    accessor.setContentType(APPLICATION_OCTET_STREAM);
+    accessor.setNativeHeader(ENCODING_HEADER, CBOR);
+
+    return MessageBuilder.createMessage(encode((byte[]) payload), accessor.getMessageHeaders());
+  }
+
+  @SneakyThrows
+  private byte[] encode(byte[] json) {
+    val encoding = lastEncoding.get();
+    if (encoding.json == json) return encoding.cbor;
+
+    val start = System.nanoTime();
+    val output = new ByteArrayBuilder(json.length);
+    try (
+        JsonParser parser = jsonFactory.createParser(json);
+        JsonGenerator generator = cborFactory.createGenerator(output)) {
+      parser.nextToken();
+      generator.copyCurrentStructure(parser);
+    }
+
+    val cbor = output.toByteArray();
+    encodingTime.add(System.nanoTime() - start);
+    encodings.increment();
+    jsonBytes.add(json.length);
+    cborBytes.add(cbor.length);
+
+    encoding.json = json;
+    encoding.cbor = cbor;
+
+    return cbor;
+  }
+
+  static class Encoding {
+
+    byte[] json;
+    byte[] cbor;
+
+  }
+
+  /**
+   * Volume and cost of CBOR encoding.
+   */
+  @Data
+  @Accessors(chain = true)
+  public static class EncodingStats {
+
+    /**
+     * Messages delivered as CBOR.
+     */
+    long messages;
+
+    /**
+     * Distinct payloads encoded, which may each be delivered to several subscribers.
+     */
+    long encodings;
+
+    long jsonBytes;
+    long cborBytes;
+
+    /**
+     * Time to encode a payload (μs).
+     */
+    long meanEncodingTime;
+
+  }
+
+}
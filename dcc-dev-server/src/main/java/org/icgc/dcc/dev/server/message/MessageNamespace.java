@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2016 The Ontario Institute for Cancer Research. All rights reserved.                             
+ *                                                                                                               
+ * This program and the accompanying materials are made available under the terms of the GNU Public License v3.0.
+ * You should have received a copy of the GNU General Public License along with                                  
+ * this program. If not, see <http://www.gnu.org/licenses/>.                                                     
+ *                                                                                                               
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY                           
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES                          
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT                           
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,                                
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED                          
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;                               
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER                              
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN                         
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.icgc.dcc.dev.server.message;
+
+import static org.springframework.messaging.simp.stomp.StompCommand.SUBSCRIBE;
+
+import java.net.InetAddress;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptorAdapter;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+
+import com.google.common.base.Strings;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.SneakyThrows;
+import lombok.val;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Separates the topics of the dev servers that share a relayed broker.
+ * <p>
+ * Every dev server has its own portals, numbered by its own database, and its own portal delta stream. In relay mode,
+ * topics are therefore published under the node's name, e.g. {@code /topic/node1/logs/1}. Clients keep subscribing to
+ * {@code /topic/logs/1} and their subscriptions are rewritten to the namespace of the node they are connected to on the
+ * way to the broker. Without a relay, topics are left as they are.
+ */
+@Slf4j
+@Component
+public class MessageNamespace extends ChannelInterceptorAdapter {
+
+  /**
+   * Configuration.
+   */
+  @Value("${message.topicPrefix}")
+  String topicPrefix;
+  @Value("${message.broker.relay.enabled}")
+  boolean relay;
+  @Value("${message.broker.relay.node}")
+  String node;
+  @Value("${server.port:8080}")
+  int port;
+
+  /**
+   * State.
+   */
+  @Getter
+  String brokerPrefix;
+
+  @PostConstruct
+  @SneakyThrows
+  public void init() {
+    if (!relay) {
+      brokerPrefix = topicPrefix;
+      return;
+    }
+
+    if (Strings.isNullOrEmpty(node)) node = InetAddress.getLocalHost().getHostName() + "-" + port;
+    brokerPrefix = topicPrefix + "/" + node;
+    log.info("Publishing relayed topics under {}", brokerPrefix);
+  }
+
+  /**
+   * Maps a topic as subscribed to by clients to the topic published to the broker.
+   */
+  public String toBroker(@NonNull String topic) {
+    if (!relay || !topic.startsWith(topicPrefix + "/") || topic.startsWith(brokerPrefix + "/")) return topic;
+
+    return brokerPrefix + topic.substring(topicPrefix.length());
+  }
+
+  /**
+   * Maps a topic published to the broker back to the topic clients subscribed to.
+   */
+  public String toClient(@NonNull String topic) {
+    if (!relay || !topic.startsWith(brokerPrefix + "/")) return topic;
+
+    return topicPrefix + topic.substring(brokerPrefix.length());
+  }
+
+  @Override
+  public Message<?> preSend(Message<?> message, MessageChannel channel) {
+    if (!relay) return message;
+
+    val headers = StompHeaderAccessor.wrap(message);
+    if (headers.getCommand() != SUBSCRIBE || headers.getDestination() == null) return message;
+
+    val destination = toBroker(headers.getDestination());
+    if (destination.equals(headers.getDestination())) return message;
+
+    headers.setDestination(destination);
+    return MessageBuilder.createMessage(message.getPayload(), headers.getMessageHeaders());
+  }
+
+}
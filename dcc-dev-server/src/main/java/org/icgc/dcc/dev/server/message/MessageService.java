@@ -17,16 +17,38 @@
  */
 package org.icgc.dcc.dev.server.message;
 
+import static org.icgc.dcc.dev.server.message.MessageSessionThrottle.LOG_LINES_HEADER;
+import static org.icgc.dcc.dev.server.message.MessageSessionThrottle.LOG_OFFSET_HEADER;
+import static org.springframework.util.MimeTypeUtils.APPLICATION_JSON;
+
+import java.util.Collections;
+import java.util.Map;
+
+import javax.annotation.PostConstruct;
+
 import org.icgc.dcc.dev.server.jenkins.JenkinsBuild;
-import org.icgc.dcc.dev.server.message.Messages.LogLineMessage;
+import org.icgc.dcc.dev.server.message.Messages.FirstSubscriberMessage;
+import org.icgc.dcc.dev.server.message.Messages.GithubPrsMessage;
+import org.icgc.dcc.dev.server.message.Messages.JenkinsBuildsMessage;
+import org.icgc.dcc.dev.server.message.Messages.LastSubscriberMessage;
+import org.icgc.dcc.dev.server.message.Messages.LogLinesFrame;
+import org.icgc.dcc.dev.server.message.Messages.LogRecordsMessage;
 import org.icgc.dcc.dev.server.message.Messages.PortalChangeMessage;
+import org.icgc.dcc.dev.server.message.Messages.PortalDeltaMessage;
 import org.icgc.dcc.dev.server.slack.SlackService;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.MessageBuilder;
 import org.springframework.stereotype.Service;
 
+import com.google.common.collect.ImmutableMap;
+
 import lombok.NonNull;
 import lombok.val;
 
@@ -37,20 +59,55 @@ import lombok.val;
 public class MessageService {
 
   /**
-   * Configuration.
+   * Constants.
    */
-  @Value("${message.topicPrefix}")
-  String topicPrefix;
+  static final String PORTAL_TOPIC = "portal";
+  static final String BUILD_TOPIC = "build";
+  static final String CANDIDATE_TOPIC = "candidate";
+  static final String SUBSCRIBER_TOPIC = "subscriber";
 
   /**
    * Dependencies.
    */
   @Autowired
+  MessageBus bus;
+  @Autowired
+  MessageNamespace namespace;
+  @Autowired
   SimpMessagingTemplate messages;
   @Autowired
   ApplicationEventPublisher publisher;
   @Autowired
   SlackService slack;
+  @Autowired
+  @Qualifier("clientOutboundChannel")
+  MessageChannel clientOutboundChannel;
+
+  @PostConstruct
+  public void init() {
+    // Log messages are throttled per session by the outbound channel, so they are sent on the tailer thread
+    bus.route(LogLinesFrame.class, this::sendLogLines);
+    bus.route(LogRecordsMessage.class, logRecords -> sendWebSocketMessage(logRecords.getDestination(), logRecords));
+
+    // Clients receive portal changes as numbered deltas, which must be sent in order
+    bus.route(PortalChangeMessage.class, PORTAL_TOPIC, PortalChangeMessage::getPortalId, publisher::publishEvent);
+    bus.route(PortalDeltaMessage.class, portalDelta -> sendWebSocketMessage("/portal", portalDelta));
+    bus.route(JenkinsBuild.class, BUILD_TOPIC, JenkinsBuild::getPrNumber, build -> {
+      publisher.publishEvent(build);
+      sendWebSocketMessage("/builds", build);
+    });
+
+    // Candidate listeners redeploy and remove portals, which must not hold up polling or each other
+    bus.route(JenkinsBuildsMessage.class, CANDIDATE_TOPIC, message -> CANDIDATE_TOPIC, publisher::publishEvent);
+    bus.route(GithubPrsMessage.class, CANDIDATE_TOPIC, message -> CANDIDATE_TOPIC, publisher::publishEvent);
+
+    // Subscriber transitions start and stop tailing, which must not hold up the inbound channel. They are announced in
+    // the order they were decided per topic
+    bus.route(FirstSubscriberMessage.class, SUBSCRIBER_TOPIC, FirstSubscriberMessage::getTopic, publisher::publishEvent);
+    bus.route(LastSubscriberMessage.class, SUBSCRIBER_TOPIC, LastSubscriberMessage::getTopic, publisher::publishEvent);
+
+    bus.route(Object.class, publisher::publishEvent);
+  }
 
   /**
    * Routes a message to the appropriate listeners.
@@ -58,23 +115,58 @@ public class MessageService {
    * @param message the message to send
    */
   public void sendMessage(@NonNull Object message) {
-    if (message instanceof PortalChangeMessage) {
-      val portalChange = (PortalChangeMessage) message;
-      sendWebSocketMessage("/portal", portalChange);
-    } else if (message instanceof LogLineMessage) {
-      val logLine = (LogLineMessage) message;
-      sendWebSocketMessage("/logs/" + logLine.getPortalId(), logLine);
-    } else if (message instanceof JenkinsBuild) {
-      val build = (JenkinsBuild) message;
-      publisher.publishEvent(build);
-      sendWebSocketMessage("/builds", build);
+    bus.publish(message);
+  }
+
+  /**
+   * Sends a message to a single subscription of a session, bypassing the broker.
+   * 
+   * @param topic the subscribed topic
+   * @param message the message to send
+   */
+  public void sendSessionMessage(@NonNull String sessionId, @NonNull String subscriptionId, @NonNull String topic,
+      @NonNull Object message) {
+    val headers = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+    headers.setSessionId(sessionId);
+    headers.setSubscriptionId(subscriptionId);
+    headers.setDestination(topic);
+    headers.setLeaveMutable(true);
+
+    clientOutboundChannel.send(createMessage(message, headers));
+  }
+
+  private void sendLogLines(LogLinesFrame logLines) {
+    // Exposed as headers so that lagging sessions can account for dropped lines without parsing the payload
+    val headers = ImmutableMap.<String, Object> of(
+        LOG_OFFSET_HEADER, logLines.getOffset(),
+        LOG_LINES_HEADER, logLines.getLineCount());
+    sendWebSocketMessage("/logs/" + logLines.getPortalId(), logLines, headers);
+  }
+
+  private void sendWebSocketMessage(String destination, Object message) {
+    sendWebSocketMessage(destination, message, Collections.emptyMap());
+  }
+
+  private void sendWebSocketMessage(String destination, Object message, Map<String, Object> nativeHeaders) {
+    if (message instanceof LogLinesFrame) {
+      val headers = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+      nativeHeaders.forEach((name, value) -> headers.setNativeHeader(name, String.valueOf(value)));
+      headers.setLeaveMutable(true);
+
+      messages.send(namespace.getBrokerPrefix() + destination, createMessage(message, headers));
     } else {
-      publisher.publishEvent(message);
+      messages.convertAndSend(namespace.getBrokerPrefix() + destination, message, nativeHeaders);
     }
   }
 
-  private void sendWebSocketMessage(String destination, Object message) {
-    messages.convertAndSend(topicPrefix + destination, message);
+  private Message<?> createMessage(Object message, SimpMessageHeaderAccessor headers) {
+    if (message instanceof LogLinesFrame) {
+      // Already serialized
+      headers.setContentType(APPLICATION_JSON);
+      return MessageBuilder.createMessage(((LogLinesFrame) message).getJson(), headers.getMessageHeaders());
+    }
+
+    return messages.getMessageConverter().toMessage(message, headers.getMessageHeaders());
   }
 
 }
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2016 The Ontario Institute for Cancer Research. All rights reserved.                             
+ *                                                                                                               
+ * This program and the accompanying materials are made available under the terms of the GNU Public License v3.0.
+ * You should have received a copy of the GNU General Public License along with                                  
+ * this program. If not, see <http://www.gnu.org/licenses/>.                                                     
+ *                                                                                                               
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY                           
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES                          
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT                           
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,                                
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED                          
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;                               
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER                              
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN                         
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.icgc.dcc.dev.server.message;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.support.MessageHandlingRunnable;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import com.google.common.collect.Maps;
+
+import lombok.val;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Client outbound channel executor that delivers the messages of each websocket session in the order they were sent.
+ * <p>
+ * Each session has a lane of queued messages that is drained by at most one pool thread at a time, so that numbered
+ * portal deltas and log frames arrive in order while sessions are still written to concurrently. A slow or dead client
+ * only holds up its own lane, where its pending messages are bounded by {@link MessageSessionThrottle}.
+ */
+@Slf4j
+public class MessageSessionExecutor extends ThreadPoolTaskExecutor {
+
+  /**
+   * State - guarded by {@code lanes}. A session has a lane while one of its messages is being delivered.
+   */
+  final Map<String, Queue<Runnable>> lanes = Maps.newHashMap();
+
+  @Override
+  public void execute(Runnable task) {
+    val sessionId = getSessionId(task);
+    if (sessionId == null) {
+      super.execute(task);
+      return;
+    }
+
+    synchronized (lanes) {
+      val lane = lanes.get(sessionId);
+      if (lane != null) {
+        // Delivered by the thread draining the lane
+        lane.add(task);
+        return;
+      }
+
+      lanes.put(sessionId, new ArrayDeque<>());
+    }
+
+    try {
+      super.execute(() -> drain(sessionId, task));
+    } catch (RuntimeException e) {
+      synchronized (lanes) {
+        lanes.remove(sessionId);
+      }
+
+      throw e;
+    }
+  }
+
+  private void drain(String sessionId, Runnable task) {
+    for (Runnable next = task; next != null; next = poll(sessionId)) {
+      try {
+        next.run();
+      } catch (RuntimeException e) {
+        log.error("Error delivering message to session " + sessionId + ":", e);
+      }
+    }
+  }
+
+  private Runnable poll(String sessionId) {
+    synchronized (lanes) {
+      val next = lanes.get(sessionId).poll();
+      if (next == null) lanes.remove(sessionId);
+
+      return next;
+    }
+  }
+
+  private static String getSessionId(Runnable task) {
+    if (!(task instanceof MessageHandlingRunnable)) return null;
+
+    return SimpMessageHeaderAccessor.getSessionId(((MessageHandlingRunnable) task).getMessage().getHeaders());
+  }
+
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2016 The Ontario Institute for Cancer Research. All rights reserved.                             
+ *                                                                                                               
+ * This program and the accompanying materials are made available under the terms of the GNU Public License v3.0.
+ * You should have received a copy of the GNU General Public License along with                                  
+ * this program. If not, see <http://www.gnu.org/licenses/>.                                                     
+ *                                                                                                               
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY                           
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES                          
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT                           
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,                                
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED                          
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;                               
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER                              
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN                         
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.icgc.dcc.dev.server.message;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptorAdapter;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.WebSocketHandlerDecorator;
+import org.springframework.web.socket.handler.WebSocketHandlerDecoratorFactory;
+import org.springframework.web.socket.handler.WebSocketSessionDecorator;
+
+import com.google.common.collect.Maps;
+
+import lombok.RequiredArgsConstructor;
+import lombok.val;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Bounds the number of messages pending delivery to each websocket session.
+ * <p>
+ * Pending messages are counted from the time they enter the client outbound channel until they are written to the
+ * session. When a session falls {@code maxPending} messages behind, log messages to it are dropped rather than
+ * buffered. The next log message delivered on the same subscription carries the number of dropped lines and the offset
+ * they start at, so that the client can fetch the gap from the log endpoint.
+ */
+@Slf4j
+@Component
+public class MessageSessionThrottle extends ChannelInterceptorAdapter implements WebSocketHandlerDecoratorFactory {
+
+  /**
+   * Constants.
+   */
+  public static final String LOG_OFFSET_HEADER = "log-offset";
+  public static final String LOG_LINES_HEADER = "log-lines";
+  public static final String DROPPED_OFFSET_HEADER = "dropped-offset";
+  public static final String DROPPED_LINES_HEADER = "dropped-lines";
+
+  static final byte[] MESSAGE_FRAME_PREFIX = "MESSAGE\n".getBytes(UTF_8);
+
+  /**
+   * Configuration.
+   */
+  @Value("${message.session.maxPending}")
+  int maxPending;
+
+  /**
+   * State.
+   */
+  final Map<String, SessionState> sessions = Maps.newConcurrentMap();
+
+  @Override
+  public WebSocketHandler decorate(WebSocketHandler handler) {
+    return new WebSocketHandlerDecorator(handler) {
+
+      @Override
+      public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+        sessions.put(session.getId(), new SessionState());
+        super.afterConnectionEstablished(new ThrottledSession(session));
+      }
+
+      @Override
+      public void afterConnectionClosed(WebSocketSession session, CloseStatus closeStatus) throws Exception {
+        sessions.remove(session.getId());
+        super.afterConnectionClosed(session, closeStatus);
+      }
+
+    };
+  }
+
+  @Override
+  public Message<?> preSend(Message<?> message, MessageChannel channel) {
+    val headers = message.getHeaders();
+    if (SimpMessageHeaderAccessor.getMessageType(headers) != SimpMessageType.MESSAGE) return message;
+
+    val session = sessions.get(SimpMessageHeaderAccessor.getSessionId(headers));
+    if (session == null) return message;
+
+    val accessor = StompHeaderAccessor.wrap(message);
+    val lines = accessor.getFirstNativeHeader(LOG_LINES_HEADER);
+    if (lines == null) {
+      session.pending.incrementAndGet();
+      return message;
+    }
+
+    val subscriptionId = accessor.getSubscriptionId();
+    val offset = Long.parseLong(accessor.getFirstNativeHeader(LOG_OFFSET_HEADER));
+    if (session.pending.get() >= maxPending) {
+      // Behind: drop and remember the gap
+      session.gaps.merge(subscriptionId, new Gap(offset, Integer.parseInt(lines)), Gap::merge);
+      return null;
+    }
+
+    session.pending.incrementAndGet();
+    val gap = session.gaps.remove(subscriptionId);
+    if (gap == null) return message;
+
+    log.debug("Dropped {} log lines from offset {} for session {}", gap.lines, gap.offset, accessor.getSessionId());
+    accessor.setNativeHeader(DROPPED_OFFSET_HEADER, String.valueOf(gap.offset));
+    accessor.setNativeHeader(DROPPED_LINES_HEADER, String.valueOf(gap.lines));
+
+    return MessageBuilder.createMessage(message.getPayload(), accessor.getMessageHeaders());
+  }
+
+  private static boolean isMessageFrame(WebSocketMessage<?> message) {
+    if (message instanceof TextMessage) {
+      return ((TextMessage) message).getPayload().startsWith("MESSAGE\n");
+    }
+    if (message instanceof BinaryMessage) {
+      val payload = ((BinaryMessage) message).getPayload();
+      if (payload.remaining() < MESSAGE_FRAME_PREFIX.length) return false;
+
+      val prefix = (ByteBuffer) payload.duplicate().limit(payload.position() + MESSAGE_FRAME_PREFIX.length);
+      return prefix.equals(ByteBuffer.wrap(MESSAGE_FRAME_PREFIX));
+    }
+
+    return false;
+  }
+
+  static class SessionState {
+
+    final AtomicInteger pending = new AtomicInteger();
+    final Map<String, Gap> gaps = Maps.newConcurrentMap();
+
+  }
+
+  @RequiredArgsConstructor
+  static class Gap {
+
+    final long offset;
+    final int lines;
+
+    Gap merge(Gap next) {
+      return new Gap(Math.min(offset, next.offset), lines + next.lines);
+    }
+
+  }
+
+  /**
+   * Counts messages as written once the underlying session has sent them.
+   */
+  class ThrottledSession extends WebSocketSessionDecorator {
+
+    ThrottledSession(WebSocketSession session) {
+      super(session);
+    }
+
+    @Override
+    public void sendMessage(WebSocketMessage<?> message) throws IOException {
+      try {
+        super.sendMessage(message);
+      } finally {
+        val session = sessions.get(getId());
+        if (session != null && isMessageFrame(message)) session.pending.decrementAndGet();
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2016 The Ontario Institute for Cancer Research. All rights reserved.                             
+ *                                                                                                               
+ * This program and the accompanying materials are made available under the terms of the GNU Public License v3.0.
+ * You should have received a copy of the GNU General Public License along with                                  
+ * this program. If not, see <http://www.gnu.org/licenses/>.                                                     
+ *                                                                                                               
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY                           
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES                          
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT                           
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,                                
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED                          
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;                               
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER                              
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN                         
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.icgc.dcc.dev.server.message;
+
+import static org.springframework.messaging.simp.stomp.StompCommand.SUBSCRIBE;
+
+import org.icgc.dcc.dev.server.message.Messages.SubscribedMessage;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.simp.broker.AbstractBrokerMessageHandler;
+import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptorAdapter;
+import org.springframework.messaging.support.ExecutorChannelInterceptor;
+import org.springframework.stereotype.Component;
+
+import lombok.val;
+
+/**
+ * Publishes a {@link SubscribedMessage} once the broker has registered a subscription.
+ * <p>
+ * Unlike the subscribe event, which is published when the frame is received, messages sent in response to this one
+ * are guaranteed to reach the subscriber.
+ */
+@Component
+public class MessageSubscriptionInterceptor extends ChannelInterceptorAdapter implements ExecutorChannelInterceptor {
+
+  /**
+   * Dependencies.
+   */
+  @Autowired
+  ApplicationEventPublisher publisher;
+  @Autowired
+  MessageNamespace namespace;
+
+  @Override
+  public Message<?> beforeHandle(Message<?> message, MessageChannel channel, MessageHandler handler) {
+    return message;
+  }
+
+  @Override
+  public void afterMessageHandled(Message<?> message, MessageChannel channel, MessageHandler handler, Exception ex) {
+    if (ex != null || !(handler instanceof AbstractBrokerMessageHandler)) return;
+
+    val headers = StompHeaderAccessor.wrap(message);
+    if (headers.getCommand() != SUBSCRIBE) return;
+
+    publisher.publishEvent(new SubscribedMessage()
+        .setTopic(namespace.toClient(headers.getDestination()))
+        .setSessionId(headers.getSessionId())
+        .setSubscriptionId(headers.getSubscriptionId()));
+  }
+
+}
@@ -17,7 +17,8 @@
  */
 package org.icgc.dcc.dev.server.message;
 
-import static com.google.common.collect.Multimaps.synchronizedSetMultimap;
+import java.util.Map;
+import java.util.Set;
 
 import org.icgc.dcc.dev.server.message.Messages.FirstSubscriberMessage;
 import org.icgc.dcc.dev.server.message.Messages.LastSubscriberMessage;
@@ -26,8 +27,8 @@ import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
 import org.springframework.stereotype.Component;
 import org.springframework.web.socket.messaging.AbstractSubProtocolEvent;
 
-import com.google.common.collect.HashMultimap;
-import com.google.common.collect.SetMultimap;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 
 import lombok.RequiredArgsConstructor;
 import lombok.val;
@@ -36,7 +37,11 @@ import lombok.extern.slf4j.Slf4j;
 /**
  * Listens for topic state transitions.
  * <p>
- * Adds higher level events.
+ * Adds higher level events. Subscriptions are indexed both by topic and by session so that a disconnect only touches
+ * the session's own subscriptions. The first and last subscriber of a topic are detected while holding the topic's
+ * entry. The announcement is only handed to the topic's ordered lane of the message bus from there and handled on it
+ * later, so the announcements for a topic are handled exactly once each and always alternate without running
+ * listeners inside the map operation.
  */
 @Slf4j
 @Component
@@ -51,12 +56,15 @@ class MessageTopicListener {
   /**
    * State.
    */
-  final SetMultimap<String, String> topicSubscriptions = synchronizedSetMultimap(HashMultimap.create());
+  // Subscription keys by topic, only accessed through atomic map operations
+  final Map<String, Set<String>> topicSubscriptions = Maps.newConcurrentMap();
+
+  // Subscribed topics by subscription id by session id. UNSUBSCRIBE frames don't carry the destination
+  final Map<String, Map<String, String>> sessionSubscriptions = Maps.newConcurrentMap();
 
   @EventListener
   void handle(AbstractSubProtocolEvent event) {
     val headers = StompHeaderAccessor.wrap(event.getMessage());
-    val topic = headers.getDestination();
     val sessionId = headers.getSessionId();
 
     val command = headers.getCommand();
@@ -64,10 +72,10 @@ class MessageTopicListener {
 
     switch (command) {
     case SUBSCRIBE:
-      handleSubscribe(topic, sessionId);
+      handleSubscribe(headers.getDestination(), sessionId, headers.getSubscriptionId());
       break;
     case UNSUBSCRIBE:
-      handleUnsubscribe(topic, sessionId);
+      handleUnsubscribe(sessionId, headers.getSubscriptionId());
       break;
     case DISCONNECT:
       handleDisconnect(sessionId);
@@ -77,52 +85,66 @@ class MessageTopicListener {
     }
   }
 
-  private void handleSubscribe(String topic, String sessionId) {
-    log.info("Session {} subscribed to: {}", sessionId, topic);
-    topicSubscriptions.put(topic, sessionId);
+  private void handleSubscribe(String topic, String sessionId, String subscriptionId) {
+    if (topic == null || subscriptionId == null) return;
 
-    if (!isFirst(topic)) return;
+    log.info("Session {} subscribed to: {}", sessionId, topic);
+    val subscriptions = sessionSubscriptions.computeIfAbsent(sessionId, id -> Maps.newConcurrentMap());
+    val previousTopic = subscriptions.put(subscriptionId, topic);
+    if (previousTopic != null) removeSubscription(previousTopic, sessionId, subscriptionId);
 
-    messages.sendMessage(new FirstSubscriberMessage().setTopic(topic));
+    addSubscription(topic, sessionId, subscriptionId);
   }
 
-  private void handleUnsubscribe(String topic, String sessionId) {
-    log.info("Session {} unsubscribed from: {}", sessionId, topic);
-    topicSubscriptions.remove(topic, sessionId);
+  private void handleUnsubscribe(String sessionId, String subscriptionId) {
+    val subscriptions = sessionSubscriptions.get(sessionId);
+    if (subscriptions == null || subscriptionId == null) return;
 
-    if (!isLast(topic)) return;
+    val topic = subscriptions.remove(subscriptionId);
+    if (topic == null) return;
 
-    messages.sendMessage(new LastSubscriberMessage().setTopic(topic));
+    log.info("Session {} unsubscribed from: {}", sessionId, topic);
+    removeSubscription(topic, sessionId, subscriptionId);
   }
 
   private void handleDisconnect(String sessionId) {
-    val iterator = topicSubscriptions.entries().iterator();
-    while (iterator.hasNext()) {
-      val entry = iterator.next();
-      val topic = entry.getKey();
-
-      val targetSessionId = entry.getValue();
-      if (!targetSessionId.equals(sessionId)) continue;
+    val subscriptions = sessionSubscriptions.remove(sessionId);
+    if (subscriptions == null) return;
 
+    subscriptions.forEach((subscriptionId, topic) -> {
       log.info("Session {} disconnected from: {}", sessionId, topic);
-      iterator.remove();
+      removeSubscription(topic, sessionId, subscriptionId);
+    });
+  }
 
-      if (!isLast(topic)) continue;
+  private void addSubscription(String topic, String sessionId, String subscriptionId) {
+    topicSubscriptions.compute(topic, (key, subscriptions) -> {
+      if (subscriptions == null) {
+        subscriptions = Sets.newHashSet();
 
-      messages.sendMessage(new LastSubscriberMessage().setTopic(topic));
-    }
-  }
+        // Queued while deciding so that it cannot overtake the announcement of the previous last subscriber
+        messages.sendMessage(new FirstSubscriberMessage().setTopic(topic));
+      }
 
-  private boolean isFirst(String topic) {
-    return getSessionCount(topic) == 1;
+      subscriptions.add(getSubscriptionKey(sessionId, subscriptionId));
+      return subscriptions;
+    });
   }
 
-  private boolean isLast(String topic) {
-    return getSessionCount(topic) == 0;
+  private void removeSubscription(String topic, String sessionId, String subscriptionId) {
+    topicSubscriptions.computeIfPresent(topic, (key, subscriptions) -> {
+      if (!subscriptions.remove(getSubscriptionKey(sessionId, subscriptionId)) || !subscriptions.isEmpty()) {
+        return subscriptions;
+      }
+
+      // Queued while deciding so that it cannot overtake the announcement of the next first subscriber
+      messages.sendMessage(new LastSubscriberMessage().setTopic(topic));
+      return null;
+    });
   }
 
-  private int getSessionCount(String topic) {
-    return topicSubscriptions.get(topic).size();
+  private static String getSubscriptionKey(String sessionId, String subscriptionId) {
+    return sessionId + "/" + subscriptionId;
   }
 
-}
\ No newline at end of file
+}
@@ -22,6 +22,10 @@ import java.util.List;
 import org.icgc.dcc.dev.server.github.GithubPr;
 import org.icgc.dcc.dev.server.jenkins.JenkinsBuild;
 import org.icgc.dcc.dev.server.portal.io.PortalExecutor.State;
+import org.icgc.dcc.dev.server.portal.io.PortalLogRecord;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 
 import lombok.Data;
 import lombok.experimental.Accessors;
@@ -48,6 +52,27 @@ public class Messages {
 
   }
 
+  /**
+   * The fields of a portal that changed, as numbered in the {@code epoch}.
+   */
+  @Data
+  @Accessors(chain = true)
+  public static class PortalDeltaMessage {
+
+    String epoch;
+    long sequence;
+    Integer portalId;
+    PortalChangeType type;
+
+    /**
+     * Changed fields with their new values, all fields for a new portal or {@code null} for a removed one.
+     */
+    ObjectNode changes;
+
+    long timestamp;
+
+  }
+
   @Data
   @Accessors(chain = true)
   public static class JenkinsBuildsMessage {
@@ -64,13 +89,31 @@ public class Messages {
 
   }
 
+  /**
+   * Log lines already serialized as {@code {portalId, timestamp, offset, nextOffset, lines}} JSON.
+   */
   @Data
   @Accessors(chain = true)
-  public static class LogLineMessage {
+  public static class LogLinesFrame {
 
     Integer portalId;
-    Long timestamp;
-    String line;
+    Long offset;
+    Integer lineCount;
+    byte[] json;
+
+  }
+
+  @Data
+  @Accessors(chain = true)
+  public static class LogRecordsMessage {
+
+    /**
+     * Destination relative to the topic prefix.
+     */
+    @JsonIgnore
+    String destination;
+
+    List<PortalLogRecord> records;
 
   }
 
@@ -82,6 +125,16 @@ public class Messages {
 
   }
 
+  @Data
+  @Accessors(chain = true)
+  public static class SubscribedMessage {
+
+    String topic;
+    String sessionId;
+    String subscriptionId;
+
+  }
+
   @Data
   @Accessors(chain = true)
   public static class LastSubscriberMessage {
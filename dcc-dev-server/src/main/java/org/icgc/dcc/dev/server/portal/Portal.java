@@ -18,18 +18,24 @@
 package org.icgc.dcc.dev.server.portal;
 
 import static com.google.common.collect.Maps.newHashMap;
-import static javax.persistence.FetchType.EAGER;
+import static javax.persistence.EnumType.STRING;
+import static javax.persistence.FetchType.LAZY;
+import static org.icgc.dcc.dev.server.portal.util.Portals.MANAGEMENT_PASSWORD_PROPERTY;
 
 import java.util.Map;
 
 import javax.persistence.CollectionTable;
+import javax.persistence.Column;
 import javax.persistence.ElementCollection;
 import javax.persistence.Embeddable;
 import javax.persistence.Embedded;
 import javax.persistence.Entity;
+import javax.persistence.Enumerated;
 import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
 import javax.persistence.Lob;
+import javax.persistence.NamedAttributeNode;
+import javax.persistence.NamedEntityGraph;
 import javax.persistence.PrePersist;
 import javax.persistence.PreUpdate;
 import javax.persistence.Version;
@@ -38,6 +44,9 @@ import org.hibernate.annotations.ColumnDefault;
 import org.icgc.dcc.dev.server.github.GithubPr;
 import org.icgc.dcc.dev.server.jenkins.JenkinsBuild;
 import org.icgc.dcc.dev.server.jira.JiraTicket;
+import org.icgc.dcc.dev.server.portal.io.PortalExecutor.State;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 
 import lombok.Data;
 import lombok.experimental.Accessors;
@@ -45,13 +54,22 @@ import lombok.experimental.Accessors;
 /**
  * Collection of metadata that represents a portal instance.
  * <p>
- * Main user facing system entity.
+ * Main user facing system entity. The configuration maps are lazy and only fetched through the
+ * {@link #DETAIL_GRAPH} entity graph, which joins them into the query that loads the portal.
  */
 @Entity
+@NamedEntityGraph(name = Portal.DETAIL_GRAPH, attributeNodes = {
+    @NamedAttributeNode("config"),
+    @NamedAttributeNode("systemConfig") })
 @Data
 @Accessors(chain = true)
 public class Portal {
 
+  /**
+   * Constants.
+   */
+  public static final String DETAIL_GRAPH = "Portal.detail";
+
   /**
    * The unique identifier for the portal instance.
    * <p>
@@ -90,14 +108,17 @@ public class Portal {
   /**
    * User supplied configuration.
    */
-  @ElementCollection(fetch = EAGER)
+  @ElementCollection(fetch = LAZY)
   @CollectionTable
   Map<String, String> config = newHashMap();
 
   /**
    * System supplied configuration.
+   * <p>
+   * The management password is not serialized.
    */
-  @ElementCollection(fetch = EAGER)
+  @JsonIgnoreProperties(MANAGEMENT_PASSWORD_PROPERTY)
+  @ElementCollection(fetch = LAZY)
   @CollectionTable
   Map<String, String> systemConfig = newHashMap();
 
@@ -124,6 +145,15 @@ public class Portal {
   @ColumnDefault("true")
   boolean autoRemove;
 
+  /**
+   * The lifecycle state of the portal instance.
+   * <p>
+   * Only changed through {@code PortalStates} transitions, never by saving the entity.
+   */
+  @Enumerated(STRING)
+  @Column(updatable = false)
+  State state;
+
   /**
    * The upstream candidate information about the running portal instance.
    */
@@ -178,6 +208,21 @@ public class Portal {
   @Accessors(chain = true)
   public static class Status {
 
+    /**
+     * The last execution state of the portal instance.
+     */
+    State state;
+
+    /**
+     * Time from the last start until the instance became ready (ms).
+     */
+    Long timeToReady;
+
+    /**
+     * Number of commands queued for execution.
+     */
+    int pendingCommands;
+
     /**
      * Indicates if the portal instance is running.
      */
@@ -90,17 +90,8 @@ public class PortalConfig {
   public void start(ApplicationReadyEvent event) {
     log.info("**** Started!");
 
-    val portals = service.list();
-    if (portals.isEmpty()) return;
-
-    log.info("Restarting portals...");
-    for (val portal : portals) {
-      try {
-        service.restart(portal.getId());
-      } catch (Exception e) {
-        log.error("Could not restart portal {}: {}",portal.getId(), e.getMessage());
-      }
-    }
+    log.info("Recovering portals...");
+    service.recover();
   }
 
 }
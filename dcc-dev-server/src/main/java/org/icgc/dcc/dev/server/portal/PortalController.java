@@ -17,6 +17,7 @@
  */
 package org.icgc.dcc.dev.server.portal;
 
+import static org.springframework.http.HttpHeaders.CONTENT_DISPOSITION;
 import static org.springframework.http.HttpStatus.ACCEPTED;
 import static org.springframework.http.ResponseEntity.ok;
 
@@ -29,6 +30,12 @@ import javax.servlet.http.HttpServletResponse;
 
 import org.icgc.dcc.dev.server.portal.Portal.Candidate;
 import org.icgc.dcc.dev.server.portal.Portal.Status;
+import org.icgc.dcc.dev.server.portal.PortalDeltas.PortalChanges;
+import org.icgc.dcc.dev.server.portal.io.PortalLogErrors.ErrorStatus;
+import org.icgc.dcc.dev.server.portal.io.PortalLogErrors.ErrorSummary;
+import org.icgc.dcc.dev.server.portal.io.PortalLogIndexer.LogMatch;
+import org.icgc.dcc.dev.server.portal.util.PortalJournal.PortalHistory;
+import org.icgc.dcc.dev.server.portal.util.PortalLocks.LockDiagnostics;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.DeleteMapping;
@@ -47,7 +54,8 @@ import lombok.val;
  * HTTP bindings for interaction with portal instances.
  */
 @RestController
-@CrossOrigin(exposedHeaders = "X-Server-Timestamp")
+@CrossOrigin(exposedHeaders = { "X-Server-Timestamp", "X-Log-Offset", "X-Log-Next-Offset", "X-Log-Previous-Offset",
+    "X-Log-Size" })
 @RequiredArgsConstructor
 public class PortalController {
 
@@ -85,11 +93,25 @@ public class PortalController {
   }
 
   /**
-   * Lists the currently deployed portals.
+   * Lists the currently deployed portals, as lightweight summaries if the {@code summary} view is requested.
    */
   @GetMapping("/api/portals")
-  public List<Portal> list() {
-    return service.list();
+  public List<?> list(@RequestParam(value = "view", defaultValue = "detail") String view) {
+    if (view.equals("summary")) return service.listSummaries();
+    if (view.equals("detail")) return service.list();
+
+    throw new PortalValidationException("Unknown view '%s'", view);
+  }
+
+  /**
+   * Gets the portal deltas published after sequence number {@code since} of {@code epoch}, or a snapshot of all
+   * portals when they are no longer available.
+   */
+  @GetMapping("/api/portals/changes")
+  public PortalChanges getChanges(
+      @RequestParam(value = "epoch", required = false) String epoch,
+      @RequestParam(value = "since", required = false) Long since) {
+    return service.getChanges(epoch, since);
   }
 
   /**
@@ -101,14 +123,82 @@ public class PortalController {
   }
 
   /**
-   * Gets the full content of portal log with the supplied {@code portalId}.
+   * Gets the lifecycle history of the portal with the supplied {@code portalId}, including removed portals.
+   */
+  @GetMapping("/api/portals/{portalId}/history")
+  public PortalHistory getHistory(@PathVariable("portalId") Integer portalId) {
+    return service.getHistory(portalId);
+  }
+
+  /**
+   * Gets a range of the portal log with the supplied {@code portalId}.
+   * <p>
+   * Reads {@code length} bytes from {@code offset} when supplied, otherwise the last {@code lines} lines. The offsets
+   * to page forward and backward from are returned in headers. A rotated log is read instead of the current one when
+   * its {@code file} name is supplied.
    */
   @GetMapping("/api/portals/{portalId}/log")
-  public ResponseEntity<String> getLog(@PathVariable("portalId") Integer portalId) {
-    val portalLog = service.getLog(portalId);
+  public ResponseEntity<String> getLog(
+      @PathVariable("portalId") Integer portalId,
+      @RequestParam(value = "file", required = false) String file,
+      @RequestParam(value = "offset", required = false) Long offset,
+      @RequestParam(value = "length", required = false, defaultValue = "65536") int length,
+      @RequestParam(value = "lines", required = false, defaultValue = "1000") int lines) {
+    val chunk = service.getLog(portalId, file, offset, length, lines);
     val serverTimestamp = String.valueOf(System.currentTimeMillis());
 
-    return ok().header("X-Server-Timestamp", serverTimestamp).body(portalLog);
+    return ok()
+        .header("X-Server-Timestamp", serverTimestamp)
+        .header("X-Log-Offset", String.valueOf(chunk.getOffset()))
+        .header("X-Log-Next-Offset", String.valueOf(chunk.getNextOffset()))
+        .header("X-Log-Previous-Offset", String.valueOf(chunk.getPreviousOffset()))
+        .header("X-Log-Size", String.valueOf(chunk.getSize()))
+        .body(chunk.getContent());
+  }
+
+  /**
+   * Searches the current and rotated logs of the portal with the supplied {@code portalId} for lines that contain all
+   * terms of {@code query}, optionally within a time range in epoch millis.
+   */
+  @GetMapping("/api/portals/{portalId}/log/search")
+  public List<LogMatch> searchLog(
+      @PathVariable("portalId") Integer portalId,
+      @RequestParam(value = "query", required = false, defaultValue = "") String query,
+      @RequestParam(value = "from", required = false) Long from,
+      @RequestParam(value = "to", required = false) Long to,
+      @RequestParam(value = "limit", required = false, defaultValue = "100") int limit) {
+    return service.searchLog(portalId, query, from, to, limit);
+  }
+
+  /**
+   * Lists the errors logged by all portals, or by the portal with the supplied {@code portalId}, grouped by fingerprint
+   * with new and regressed errors first.
+   */
+  @GetMapping("/api/errors")
+  public List<ErrorSummary> listErrors(
+      @RequestParam(value = "portalId", required = false) Integer portalId,
+      @RequestParam(value = "status", required = false) ErrorStatus status,
+      @RequestParam(value = "limit", required = false, defaultValue = "50") int limit) {
+    return service.listErrors(portalId, status, limit);
+  }
+
+  /**
+   * Streams the full log of the portal with the supplied {@code portalId} as an attachment.
+   * <p>
+   * The log is gzipped when {@code gzip} is set. When {@code all} is set, the wrapper and rotated logs are included as
+   * a tar.gz archive.
+   */
+  @GetMapping("/api/portals/{portalId}/log/download")
+  public void downloadLog(
+      @PathVariable("portalId") Integer portalId,
+      @RequestParam(value = "gzip", required = false, defaultValue = "false") boolean gzip,
+      @RequestParam(value = "all", required = false, defaultValue = "false") boolean all,
+      HttpServletResponse response) throws IOException {
+    val fileName = "portal-" + portalId + (all ? "-logs.tar.gz" : gzip ? ".log.gz" : ".log");
+    response.setContentType(all || gzip ? "application/gzip" : "text/plain;charset=UTF-8");
+    response.setHeader(CONTENT_DISPOSITION, "attachment; filename=\"" + fileName + "\"");
+
+    service.downloadLog(portalId, gzip, all, response.getOutputStream());
   }
 
   /**
@@ -139,6 +229,8 @@ public class PortalController {
 
   /**
    * Updates the portal with the specified {@code portalId}.
+   * <p>
+   * When {@code live} is set, reloadable configuration changes are applied to the running instance without a restart.
    */
   @PutMapping("/api/portals/{portalId}")
   @ResponseStatus(ACCEPTED)
@@ -153,8 +245,27 @@ public class PortalController {
 
       @RequestParam(value = "autoDeploy", required = false, defaultValue = "true") boolean autoDeploy,
       @RequestParam(value = "autoRefresh", required = false, defaultValue = "true") boolean autoRefresh,
-      @RequestParam(value = "autoRemove", required = false, defaultValue = "true") boolean autoRemove) {
-    return service.update(portalId, slug, title, description, ticket, config, autoDeploy, autoRefresh, autoRemove);
+      @RequestParam(value = "autoRemove", required = false, defaultValue = "true") boolean autoRemove,
+
+      @RequestParam(value = "live", required = false, defaultValue = "true") boolean live) {
+    return service.update(portalId, slug, title, description, ticket, config, autoDeploy, autoRefresh, autoRemove,
+        live);
+  }
+
+  /**
+   * Gets the execution status of all portals, keyed by portal id.
+   */
+  @GetMapping("/api/portals/status")
+  public Map<Integer, Status> statuses() {
+    return service.getStatuses();
+  }
+
+  /**
+   * Lists the current holders, waiters and wait / hold times of the portal locks.
+   */
+  @GetMapping("/api/portals/locks")
+  public List<LockDiagnostics> locks() {
+    return service.getLockDiagnostics();
   }
 
   /**
@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2016 The Ontario Institute for Cancer Research. All rights reserved.                             
+ *                                                                                                               
+ * This program and the accompanying materials are made available under the terms of the GNU Public License v3.0.
+ * You should have received a copy of the GNU General Public License along with                                  
+ * this program. If not, see <http://www.gnu.org/licenses/>.                                                     
+ *                                                                                                               
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY                           
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES                          
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT                           
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,                                
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED                          
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;                               
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER                              
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN                         
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.icgc.dcc.dev.server.portal;
+
+import static java.util.stream.Collectors.toList;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import javax.annotation.PostConstruct;
+
+import org.icgc.dcc.dev.server.message.MessageService;
+import org.icgc.dcc.dev.server.message.Messages.PortalChangeMessage;
+import org.icgc.dcc.dev.server.message.Messages.PortalChangeType;
+import org.icgc.dcc.dev.server.message.Messages.PortalDeltaMessage;
+import org.icgc.dcc.dev.server.portal.util.PortalRegistry;
+import org.icgc.dcc.dev.server.portal.util.PortalStates;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.Maps;
+
+import lombok.Data;
+import lombok.val;
+import lombok.experimental.Accessors;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Versioned state of all portals as serialized to clients, maintained as a sequence of deltas.
+ * <p>
+ * Each change is published with the next sequence number and only the fields that changed. Sequence numbers restart
+ * with the server, so they are qualified by an {@code epoch}. Recent deltas are kept so that a client can catch up
+ * from its last sequence number, falling back to a snapshot when it is too far behind.
+ */
+@Slf4j
+@Component
+public class PortalDeltas {
+
+  /**
+   * Configuration.
+   */
+  @Value("${portal.deltas.history}")
+  int history;
+
+  /**
+   * Dependencies.
+   */
+  @Autowired
+  PortalRegistry registry;
+  @Autowired
+  PortalStates states;
+  @Autowired
+  MessageService messages;
+  @Autowired
+  ObjectMapper mapper;
+
+  /**
+   * State.
+   */
+  final String epoch = UUID.randomUUID().toString();
+  final Map<Integer, ObjectNode> portals = Maps.newTreeMap();
+  final Deque<PortalDeltaMessage> deltas = new ArrayDeque<>();
+  long sequence;
+
+  @PostConstruct
+  public synchronized void init() {
+    for (val portal : registry.list()) {
+      portals.put(portal.getId(), toNode(portal));
+    }
+  }
+
+  /**
+   * Gets the deltas that follow {@code since}, or a snapshot if they are no longer available.
+   * 
+   * @param epoch the epoch of {@code since}, if any
+   * @param since the last sequence number applied by the client, if any
+   */
+  public synchronized PortalChanges getChanges(String epoch, Long since) {
+    val changes = new PortalChanges().setEpoch(this.epoch).setSequence(sequence);
+
+    val oldest = deltas.peekFirst();
+    val resumable = this.epoch.equals(epoch) && since != null && since <= sequence
+        && (oldest == null ? since == sequence : since >= oldest.getSequence() - 1);
+    if (resumable) {
+      return changes.setDeltas(deltas.stream().filter(delta -> delta.getSequence() > since).collect(toList()));
+    }
+
+    return changes.setPortals(portals.values().stream().map(ObjectNode::deepCopy).collect(toList()));
+  }
+
+  @EventListener
+  synchronized void handle(PortalChangeMessage message) {
+    val portalId = message.getPortalId();
+    val type = message.getType();
+
+    ObjectNode changes;
+    if (type == PortalChangeType.REMOVED) {
+      if (portals.remove(portalId) == null) return;
+      changes = null;
+    } else if (type == PortalChangeType.EXECUTION) {
+      val current = portals.get(portalId);
+      if (current == null) return;
+
+      changes = mapper.createObjectNode();
+      changes.set("state", mapper.valueToTree(message.getState()));
+      current.setAll(changes);
+    } else {
+      val portal = registry.get(portalId);
+      if (!portal.isPresent()) return;
+
+      val current = toNode(portal.get());
+      changes = diff(portals.put(portalId, current), current);
+      if (changes.size() == 0) return;
+    }
+
+    val delta = new PortalDeltaMessage()
+        .setEpoch(epoch)
+        .setSequence(++sequence)
+        .setPortalId(portalId)
+        .setType(type)
+        .setChanges(changes)
+        .setTimestamp(System.currentTimeMillis());
+
+    deltas.addLast(delta);
+    while (deltas.size() > history) {
+      deltas.removeFirst();
+    }
+
+    log.debug("Publishing portal delta {}: {}", sequence, changes);
+    messages.sendMessage(delta);
+  }
+
+  private ObjectNode toNode(Portal portal) {
+    // The registry is authoritative as saving the entity never writes the state
+    val state = states.get(portal.getId());
+    if (state != null) portal.setState(state);
+
+    return mapper.valueToTree(portal);
+  }
+
+  private ObjectNode diff(ObjectNode previous, ObjectNode current) {
+    if (previous == null) return current.deepCopy();
+
+    val changes = mapper.createObjectNode();
+    current.fields().forEachRemaining(field -> {
+      JsonNode value = field.getValue();
+      if (!value.equals(previous.get(field.getKey()))) changes.set(field.getKey(), value);
+    });
+    previous.fieldNames().forEachRemaining(name -> {
+      if (!current.has(name)) changes.putNull(name);
+    });
+
+    return changes;
+  }
+
+  /**
+   * Deltas to apply after a sequence number, or a snapshot to replace the client state with.
+   */
+  @Data
+  @Accessors(chain = true)
+  public static class PortalChanges {
+
+    String epoch;
+
+    /**
+     * Sequence number of the last delta included.
+     */
+    long sequence;
+
+    /**
+     * In sequence order, or {@code null} when a snapshot is returned.
+     */
+    List<PortalDeltaMessage> deltas;
+
+    /**
+     * All portals, or {@code null} when deltas are returned.
+     */
+    List<ObjectNode> portals;
+
+  }
+
+}
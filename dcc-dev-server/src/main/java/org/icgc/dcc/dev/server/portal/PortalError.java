@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2016 The Ontario Institute for Cancer Research. All rights reserved.                             
+ *                                                                                                               
+ * This program and the accompanying materials are made available under the terms of the GNU Public License v3.0.
+ * You should have received a copy of the GNU General Public License along with                                  
+ * this program. If not, see <http://www.gnu.org/licenses/>.                                                     
+ *                                                                                                               
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY                           
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES                          
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT                           
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,                                
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED                          
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;                               
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER                              
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN                         
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.icgc.dcc.dev.server.portal;
+
+import static javax.persistence.FetchType.EAGER;
+
+import java.util.Map;
+
+import javax.persistence.CollectionTable;
+import javax.persistence.ElementCollection;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Lob;
+
+import lombok.Data;
+import lombok.experimental.Accessors;
+
+/**
+ * The aggregated occurrences of an error logged by portals, identified by its fingerprint.
+ * <p>
+ * Written periodically so that errors keep their history across restarts.
+ */
+@Entity
+@Data
+@Accessors(chain = true)
+public class PortalError {
+
+  /**
+   * Hash of the fingerprint.
+   * <p>
+   * Primary key.
+   */
+  @Id
+  String id;
+
+  /**
+   * Exception class and top frames, or logger and masked message.
+   */
+  @Lob
+  String fingerprint;
+
+  String logger;
+  @Lob
+  String message;
+
+  /**
+   * Stack trace lines of the first occurrence, separated by newlines.
+   */
+  @Lob
+  String sample;
+
+  long count;
+  long firstSeen;
+  long lastSeen;
+  Long regressed;
+
+  /**
+   * Occurrences by portal id and by build.
+   */
+  @ElementCollection(fetch = EAGER)
+  @CollectionTable
+  Map<Integer, Long> portals;
+  @ElementCollection(fetch = EAGER)
+  @CollectionTable
+  Map<String, Long> builds;
+
+}
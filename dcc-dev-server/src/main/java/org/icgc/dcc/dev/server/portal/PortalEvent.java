@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2016 The Ontario Institute for Cancer Research. All rights reserved.                             
+ *                                                                                                               
+ * This program and the accompanying materials are made available under the terms of the GNU Public License v3.0.
+ * You should have received a copy of the GNU General Public License along with                                  
+ * this program. If not, see <http://www.gnu.org/licenses/>.                                                     
+ *                                                                                                               
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY                           
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES                          
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT                           
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,                                
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED                          
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;                               
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER                              
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN                         
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.icgc.dcc.dev.server.portal;
+
+import static javax.persistence.EnumType.STRING;
+
+import javax.persistence.Entity;
+import javax.persistence.Enumerated;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+
+import org.icgc.dcc.dev.server.portal.io.PortalExecutor.State;
+
+import lombok.Data;
+import lombok.experimental.Accessors;
+
+/**
+ * An entry of the append-only portal lifecycle journal.
+ * <p>
+ * Never updated once written, only pruned once it is no longer needed to recover the lifecycle.
+ */
+@Entity
+@Data
+@Accessors(chain = true)
+public class PortalEvent {
+
+  /**
+   * Journal sequence number, increasing in the order events were appended.
+   * <p>
+   * Primary key.
+   */
+  @Id
+  @GeneratedValue
+  Long id;
+
+  /**
+   * The portal instance the event applies to.
+   */
+  Integer portalId;
+
+  @Enumerated(STRING)
+  PortalEventType type;
+
+  /**
+   * The lifecycle state before and after the event, if it changed it.
+   */
+  @Enumerated(STRING)
+  State previous;
+  @Enumerated(STRING)
+  State state;
+
+  /**
+   * The deployed build, for {@code DEPLOYED} events.
+   */
+  Integer buildNumber;
+  String artifact;
+
+  /**
+   * Why the event happened, when known.
+   */
+  String reason;
+
+  /**
+   * Timestamp.
+   */
+  long created;
+
+  /**
+   * Kinds of lifecycle events.
+   */
+  public static enum PortalEventType {
+
+    CREATED, TRANSITION, DEPLOYED, INTERRUPTED, REMOVED;
+
+  }
+
+}
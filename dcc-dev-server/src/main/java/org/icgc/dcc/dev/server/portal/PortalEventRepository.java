@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2016 The Ontario Institute for Cancer Research. All rights reserved.                             
+ *                                                                                                               
+ * This program and the accompanying materials are made available under the terms of the GNU Public License v3.0.
+ * You should have received a copy of the GNU General Public License along with                                  
+ * this program. If not, see <http://www.gnu.org/licenses/>.                                                     
+ *                                                                                                               
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY                           
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES                          
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT                           
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,                                
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED                          
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;                               
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER                              
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN                         
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.icgc.dcc.dev.server.portal;
+
+import java.util.List;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.Repository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * {@link Repository} implementation for the portal lifecycle journal.
+ */
+public interface PortalEventRepository extends CrudRepository<PortalEvent, Long> {
+
+  /**
+   * Lists the events appended after a journal sequence number, in journal order.
+   * 
+   * @param sequence the exclusive lower bound
+   * @return the events
+   */
+  List<PortalEvent> findByIdGreaterThanOrderByIdAsc(long sequence);
+
+  /**
+   * Lists the events of a portal instance, in journal order.
+   * 
+   * @param portalId the portal instance id
+   * @return the events
+   */
+  List<PortalEvent> findByPortalIdOrderByIdAsc(Integer portalId);
+
+  /**
+   * Lists the portal instances that have events.
+   * 
+   * @return the portal instance ids
+   */
+  @Query("select distinct e.portalId from PortalEvent e")
+  List<Integer> findPortalIds();
+
+  /**
+   * Lists the journal sequence numbers of the events of a portal instance, newest first.
+   * 
+   * @param portalId the portal instance id
+   * @param pageable the page to list
+   * @return the journal sequence numbers
+   */
+  @Query("select e.id from PortalEvent e where e.portalId = :portalId order by e.id desc")
+  List<Long> findIdsByPortalId(@Param("portalId") Integer portalId, Pageable pageable);
+
+  /**
+   * Deletes the events up to a journal sequence number that were appended before a time.
+   * 
+   * @param sequence the inclusive upper bound
+   * @param created the exclusive upper bound of the append time
+   * @return the number of deleted events
+   */
+  @Modifying
+  @Transactional
+  @Query("delete from PortalEvent e where e.id <= :sequence and e.created < :created")
+  int deleteBefore(@Param("sequence") long sequence, @Param("created") long created);
+
+  /**
+   * Deletes the events of a portal instance up to a journal sequence number.
+   * 
+   * @param portalId the portal instance id
+   * @param sequence the inclusive upper bound
+   * @return the number of deleted events
+   */
+  @Modifying
+  @Transactional
+  @Query("delete from PortalEvent e where e.portalId = :portalId and e.id <= :sequence")
+  int deleteByPortalIdBefore(@Param("portalId") Integer portalId, @Param("sequence") long sequence);
+
+}
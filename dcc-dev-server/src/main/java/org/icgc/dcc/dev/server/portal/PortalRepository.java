@@ -17,16 +17,32 @@
  */
 package org.icgc.dcc.dev.server.portal;
 
+import java.util.List;
 import java.util.Optional;
 
+import org.icgc.dcc.dev.server.portal.io.PortalExecutor.State;
+import org.springframework.data.jpa.repository.EntityGraph;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
 import org.springframework.data.repository.Repository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
 /**
  * {@link Repository} implementation for portal instance metadata.
  */
 public interface PortalRepository extends CrudRepository<Portal, Integer> {
 
+  /**
+   * Loads all portal instances together with their configuration in a single joined query.
+   * 
+   * @return the portal instances
+   */
+  @EntityGraph(Portal.DETAIL_GRAPH)
+  @Query("select distinct p from Portal p")
+  List<Portal> findAllDetails();
+
   /**
    * Looks up a portal instance by {@literal slug} value.
    * 
@@ -34,5 +50,17 @@ public interface PortalRepository extends CrudRepository<Portal, Integer> {
    * @return the portal instance
    */
   Optional<Portal> findBySlug(String slug);
-  
+
+  /**
+   * Updates the lifecycle state of a portal instance without touching its other fields.
+   * 
+   * @param portalId the portal instance id
+   * @param state the new state
+   * @return the number of updated rows
+   */
+  @Modifying
+  @Transactional
+  @Query("update Portal p set p.state = :state where p.id = :portalId")
+  int updateState(@Param("portalId") Integer portalId, @Param("state") State state);
+
 }
\ No newline at end of file
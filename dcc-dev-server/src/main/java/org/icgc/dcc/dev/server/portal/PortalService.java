@@ -18,6 +18,7 @@
 package org.icgc.dcc.dev.server.portal;
 
 import static com.google.api.client.repackaged.com.google.common.base.Strings.repeat;
+import static com.google.common.collect.Iterables.transform;
 import static org.icgc.dcc.dev.server.portal.PortalUpdates.newConfig;
 import static org.icgc.dcc.dev.server.portal.PortalUpdates.newDescription;
 import static org.icgc.dcc.dev.server.portal.PortalUpdates.newSlug;
@@ -26,9 +27,13 @@ import static org.icgc.dcc.dev.server.portal.PortalUpdates.newTitle;
 import static org.icgc.dcc.dev.server.portal.util.Portals.WEB_BASE_URL_PROPERTY;
 import static org.icgc.dcc.dev.server.portal.util.Portals.getServerPort;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URL;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.function.Consumer;
 
 import org.icgc.dcc.dev.server.github.GithubService;
@@ -36,12 +41,27 @@ import org.icgc.dcc.dev.server.jira.JiraService;
 import org.icgc.dcc.dev.server.message.MessageService;
 import org.icgc.dcc.dev.server.message.Messages.PortalChangeMessage;
 import org.icgc.dcc.dev.server.message.Messages.PortalChangeType;
+import org.icgc.dcc.dev.server.portal.PortalDeltas.PortalChanges;
 import org.icgc.dcc.dev.server.portal.candidate.PortalCandidates;
+import org.icgc.dcc.dev.server.portal.io.PortalConfigurer;
 import org.icgc.dcc.dev.server.portal.io.PortalDeployer;
 import org.icgc.dcc.dev.server.portal.io.PortalExecutor;
+import org.icgc.dcc.dev.server.portal.io.PortalExecutor.State;
 import org.icgc.dcc.dev.server.portal.io.PortalFileSystem;
+import org.icgc.dcc.dev.server.portal.io.PortalLogErrors;
+import org.icgc.dcc.dev.server.portal.io.PortalLogErrors.ErrorStatus;
+import org.icgc.dcc.dev.server.portal.io.PortalLogErrors.ErrorSummary;
+import org.icgc.dcc.dev.server.portal.io.PortalLogIndexer;
+import org.icgc.dcc.dev.server.portal.io.PortalLogIndexer.LogMatch;
+import org.icgc.dcc.dev.server.portal.io.PortalLogRotator;
 import org.icgc.dcc.dev.server.portal.io.PortalLogs;
+import org.icgc.dcc.dev.server.portal.io.PortalLogs.LogChunk;
+import org.icgc.dcc.dev.server.portal.util.PortalJournal;
+import org.icgc.dcc.dev.server.portal.util.PortalJournal.PortalHistory;
 import org.icgc.dcc.dev.server.portal.util.PortalLocks;
+import org.icgc.dcc.dev.server.portal.util.PortalLocks.LockDiagnostics;
+import org.icgc.dcc.dev.server.portal.util.PortalRegistry;
+import org.icgc.dcc.dev.server.portal.util.PortalStates;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
@@ -49,6 +69,7 @@ import org.springframework.web.util.UriComponentsBuilder;
 
 import com.github.slugify.Slugify;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
 
 import lombok.Cleanup;
 import lombok.NonNull;
@@ -59,12 +80,18 @@ import lombok.extern.slf4j.Slf4j;
 /**
  * Main service responsible for coordinating the life cycle management of portal instances.
  * <p>
- * One of the main aspects this service provides is locking semantics.
+ * One of the main aspects this service provides is admission of conflicting operations through lifecycle state
+ * transitions.
  */
 @Slf4j
 @Service
 public class PortalService {
 
+  /**
+   * Constants.
+   */
+  static final Set<State> RUNNING_STATES = EnumSet.of(State.STARTING, State.RESTARTING, State.READY, State.DEGRADED);
+
   /**
    * Configuration.
    */
@@ -77,18 +104,32 @@ public class PortalService {
   @Autowired
   PortalCandidates candidates;
   @Autowired
-  PortalRepository repository;
+  PortalRegistry registry;
   @Autowired
   PortalFileSystem fileSystem;
   @Autowired
   PortalLogs logs;
   @Autowired
+  PortalLogIndexer indexer;
+  @Autowired
+  PortalLogRotator rotator;
+  @Autowired
+  PortalLogErrors errors;
+  @Autowired
   PortalDeployer deployer;
   @Autowired
   PortalExecutor executor;
   @Autowired
+  PortalConfigurer configurer;
+  @Autowired
   PortalLocks locks;
   @Autowired
+  PortalStates states;
+  @Autowired
+  PortalJournal journal;
+  @Autowired
+  PortalDeltas deltas;
+  @Autowired
   MessageService messages;
 
   @Autowired
@@ -101,26 +142,41 @@ public class PortalService {
   }
 
   public Portal get(@NonNull Integer portalId) {
-    val portal = repository.findOne(portalId);
-    if (portal == null) throw new PortalNotFoundException(portalId);
-
-    return portal;
+    return registry.get(portalId).map(this::withState).orElseThrow(() -> new PortalNotFoundException(portalId));
   }
 
   public Portal getBySlug(@NonNull String slug) {
-    return repository.findBySlug(slug).orElseThrow(() -> new PortalNotFoundException(slug));
+    return registry.getBySlug(slug).map(this::withState).orElseThrow(() -> new PortalNotFoundException(slug));
   }
 
   public Portal.Status getStatus(@NonNull Integer portalId) {
-    @Cleanup
-    val lock = locks.lockReading(portalId);
-    if (!repository.exists(portalId)) throw new PortalNotFoundException(portalId);
+    if (!states.exists(portalId)) throw new PortalNotFoundException(portalId);
 
     return executor.getStatus(portalId);
   }
 
+  public Map<Integer, Portal.Status> getStatuses() {
+    return executor.getStatuses(states.getPortalIds());
+  }
+
+  public PortalChanges getChanges(String epoch, Long since) {
+    return deltas.getChanges(epoch, since);
+  }
+
+  public List<LockDiagnostics> getLockDiagnostics() {
+    return locks.getDiagnostics();
+  }
+
   public List<Portal> list() {
-    return ImmutableList.copyOf(repository.findAll());
+    return ImmutableList.copyOf(transform(registry.list(), this::withState));
+  }
+
+  public List<PortalSummary> listSummaries() {
+    return ImmutableList.copyOf(transform(registry.summarize(), this::withSummaryState));
+  }
+
+  public List<Portal> listByPr(@NonNull Integer prNumber) {
+    return ImmutableList.copyOf(transform(registry.getByPrNumber(prNumber), this::withState));
   }
 
   public Portal create(@NonNull Integer prNumber, String slug, String title, String description, String ticket,
@@ -147,26 +203,36 @@ public class PortalService {
         .setAutoRefresh(autoRefresh)
         .setAutoRemove(autoRemove)
         .setUsername(username)
-        .setTarget(candidate);
+        .setTarget(candidate)
+        .setState(State.PROVISIONING);
 
     // Save instance
-    portal = repository.save(portal);
-
-    // Lock
-    @Cleanup
-    val lock = locks.lockWriting(portal);
-
-    // Create directory
-    deployer.init(portal);
+    portal = registry.save(portal);
+    states.register(portal.getId(), State.PROVISIONING);
 
-    // Install jar
-    deployer.deploy(portal);
+    try {
+      // Lock
+      @Cleanup
+      val lock = locks.lockWriting(portal, "create");
+
+      // Create directory
+      deployer.init(portal);
+
+      // Install jar
+      deployer.deploy(portal);
+      journal.deployed(portal);
+
+      // Assign URL
+      val url = resolveUrl(publicUrl, portal);
+      portal.setUrl(url);
+      portal.getSystemConfig().put(WEB_BASE_URL_PROPERTY, url);
+      portal = registry.save(portal);
+    } catch (RuntimeException e) {
+      states.end(portal.getId(), State.PROVISIONING, State.FAILED);
+      throw e;
+    }
 
-    // Assign URL
-    val url = resolveUrl(publicUrl, portal);
-    portal.setUrl(url);
-    portal.getSystemConfig().put(WEB_BASE_URL_PROPERTY, url);
-    portal = repository.save(portal);
+    states.end(portal.getId(), State.PROVISIONING, State.STOPPED);
 
     if (start) {
       // Start the portal
@@ -183,66 +249,114 @@ public class PortalService {
   }
 
   public void update(Portal portal) {
-    @Cleanup
-    val lock = locks.lockWriting(portal);
+    states.begin(portal.getId(), State.UPDATING);
 
-    val status = getStatus(portal.getId());
-    if (status.isRunning()) {
+    try {
+      // Queued behind pending commands and outside the write lock that the stop needs to read
       try {
-        executor.stop(portal);
+        executor.stopAndWait(portal);
       } catch (Exception e) {
         log.warn("Problem stopping portal: {}", e.getMessage());
       }
-    }
 
-    deployer.deploy(portal);
+      @Cleanup
+      val lock = locks.lockWriting(portal, "refresh");
+
+      deployer.deploy(portal);
+      journal.deployed(portal);
 
-    val url = resolveUrl(publicUrl, portal);
-    portal.setUrl(url);
-    portal.getSystemConfig().put(WEB_BASE_URL_PROPERTY, url);
-    portal = repository.save(portal);
+      val url = resolveUrl(publicUrl, portal);
+      portal.setUrl(url);
+      portal.getSystemConfig().put(WEB_BASE_URL_PROPERTY, url);
+      portal = registry.save(portal);
+    } catch (RuntimeException e) {
+      states.end(portal.getId(), State.UPDATING, State.FAILED);
+      throw e;
+    }
 
+    states.end(portal.getId(), State.UPDATING, State.STOPPED);
     executor.startAsync(portal);
 
     notifyChange(portal, PortalChangeType.UPDATED);
   }
 
   public Portal update(@NonNull Integer portalId, String slug, String title, String description, String ticket,
-      Map<String, String> config, boolean autoDeploy, boolean autoRefresh, boolean autoRemove) {
+      Map<String, String> config, boolean autoDeploy, boolean autoRefresh, boolean autoRemove, boolean live) {
     log.info("Updating portal {}...", portalId);
 
     // Validate
     validateSlug(slug, portalId);
 
-    @Cleanup
-    val lock = locks.lockWriting(portalId);
-    Portal portal = get(portalId);
-
-    val candidate = portal.getTarget();
-    portal
-        .setTitle(newTitle(title, portal.getTitle(), candidate.getPr().getTitle()))
-        .setSlug(newSlug(slug, portal.getSlug(), title, portal.getTitle(), candidate.getPr().getTitle()))
-        .setDescription(newDescription(description, portal.getDescription(), candidate.getPr().getDescription()))
-        .setTicketKey(newTicketKey(ticket, portal.getTicketKey(), candidate.getTicket()))
-        .setConfig(newConfig(config, portal.getConfig()))
-        .setAutoDeploy(autoDeploy)
-        .setAutoRefresh(autoRefresh)
-        .setAutoRemove(autoRemove);
+    val previousState = states.begin(portalId, State.UPDATING);
+
+    Portal portal;
+    try {
+      portal = get(portalId);
+
+      val currentConfig = portal.getConfig() == null ? null : Maps.newHashMap(portal.getConfig());
+      val candidate = portal.getTarget();
+      portal
+          .setTitle(newTitle(title, portal.getTitle(), candidate.getPr().getTitle()))
+          .setSlug(newSlug(slug, portal.getSlug(), title, portal.getTitle(), candidate.getPr().getTitle()))
+          .setDescription(newDescription(description, portal.getDescription(), candidate.getPr().getDescription()))
+          .setTicketKey(newTicketKey(ticket, portal.getTicketKey(), candidate.getTicket()))
+          .setConfig(newConfig(config, portal.getConfig()))
+          .setAutoDeploy(autoDeploy)
+          .setAutoRefresh(autoRefresh)
+          .setAutoRemove(autoRemove);
+
+      if (live && applyConfig(portal, currentConfig)) {
+        portal = registry.save(portal);
+        states.end(portalId, State.UPDATING, previousState);
+
+        notifyChange(portal, PortalChangeType.UPDATED);
+
+        return withState(portal);
+      }
 
-    executor.stop(portal);
+      // Queued behind pending commands and outside the write lock that the stop needs to read
+      executor.stopAndWait(portal);
 
-    deployer.deploy(portal);
+      @Cleanup
+      val lock = locks.lockWriting(portalId, "update");
 
-    val url = resolveUrl(publicUrl, portal);
-    portal.setUrl(url);
-    portal.getSystemConfig().put(WEB_BASE_URL_PROPERTY, url);
-    portal = repository.save(portal);
+      deployer.deploy(portal);
+      journal.deployed(portal);
 
+      val url = resolveUrl(publicUrl, portal);
+      portal.setUrl(url);
+      portal.getSystemConfig().put(WEB_BASE_URL_PROPERTY, url);
+      portal = registry.save(portal);
+    } catch (RuntimeException e) {
+      states.end(portalId, State.UPDATING, State.FAILED);
+      throw e;
+    }
+
+    states.end(portalId, State.UPDATING, State.STOPPED);
     executor.startAsync(portal);
 
     notifyChange(portal, PortalChangeType.UPDATED);
 
-    return portal;
+    return withState(portal);
+  }
+
+  /**
+   * Brings the portals back to where they were before the server went down, as recorded in the journal.
+   * <p>
+   * Interrupted updates and removals are resumed, instances that were meant to be running are restarted and
+   * interrupted stops are completed. Stopped and failed instances are left alone.
+   */
+  public void recover() {
+    for (val portal : list()) {
+      try {
+        // Instances deployed before their management endpoints were secured pick it up when next started
+        if (deployer.secureManagement(portal)) registry.save(portal);
+
+        recover(portal, journal.get(portal.getId()).orElse(null));
+      } catch (Exception e) {
+        log.error("Could not recover portal {}: {}", portal.getId(), e.getMessage());
+      }
+    }
   }
 
   public void remove() {
@@ -253,58 +367,169 @@ public class PortalService {
   }
 
   public void remove(@NonNull Integer portalId) {
-    log.info("Removing portal {}...", portalId);
+    remove(portalId, "Requested");
+  }
 
-    @Cleanup
-    val lock = locks.lockWriting(portalId);
-    val portal = get(portalId);
+  public void remove(@NonNull Integer portalId, String reason) {
+    log.info("Removing portal {}: {}...", portalId, reason);
 
-    // Wait for the instance to stop (synchronous)
+    states.begin(portalId, State.REMOVING);
+
+    Portal portal;
     try {
-      executor.stop(portal);
-    } catch (Exception e) {
-      log.warn("Problem stopping portal: {}", e.getMessage());
-    }
+      portal = get(portalId);
+
+      // Wait for the instance to stop behind pending commands, then drop the mailbox
+      try {
+        executor.stopAndWait(portal);
+      } catch (Exception e) {
+        log.warn("Problem stopping portal: {}", e.getMessage());
+      }
+      executor.release(portalId);
+
+      @Cleanup
+      val lock = locks.lockWriting(portalId, "remove");
 
-    // Remove physical directory
-    deployer.undeploy(portalId);
+      // Keep the logs, compressed, after the directory is gone
+      try {
+        rotator.archive(portalId);
+      } catch (Exception e) {
+        log.warn("Problem archiving portal logs: {}", e.getMessage());
+      }
+
+      // Remove physical directory
+      deployer.undeploy(portalId);
+
+      // Remove metadata
+      registry.delete(portalId);
+    } catch (RuntimeException e) {
+      states.end(portalId, State.REMOVING, State.FAILED);
+      throw e;
+    }
 
-    // Remove metadata
-    repository.delete(portalId);
+    states.unregister(portalId);
+    locks.release(portalId);
+    journal.removed(portalId, reason);
 
     notifyChange(portal, PortalChangeType.REMOVED);
   }
 
   public void start(@NonNull Integer portalId) {
-    execute("Starting", portalId, executor::startAsync);
+    execute("Starting", portalId, State.STARTING, executor::startAsync);
   }
 
   public void restart(@NonNull Integer portalId) {
-    execute("Restarting", portalId, executor::restartAsync);
+    execute("Restarting", portalId, State.RESTARTING, executor::restartAsync);
   }
 
   public void stop(@NonNull Integer portalId) {
-    execute("Stopping", portalId, executor::stopAsync);
+    execute("Stopping", portalId, State.STOPPING, executor::stopAsync);
   }
 
-  public String getLog(Integer portalId) {
+  public LogChunk getLog(@NonNull Integer portalId, String file, Long offset, int length, int lines) {
     log.info("Getting log of portal {}...", portalId);
-    if (!repository.exists(portalId)) throw new PortalNotFoundException(portalId);
+    if (!states.exists(portalId)) throw new PortalNotFoundException(portalId);
+    if (length <= 0 || lines <= 0) throw new PortalValidationException("Log length and lines must be positive");
 
-    @Cleanup
-    val lock = locks.lockReading(portalId);
+    // Rotated logs are read from the start unless an offset is given
+    if (file != null) return logs.read(portalId, file, offset == null ? 0 : offset, length);
+    return offset == null ? logs.tail(portalId, lines) : logs.read(portalId, null, offset, length);
+  }
+
+  public List<LogMatch> searchLog(@NonNull Integer portalId, @NonNull String query, Long from, Long to, int limit) {
+    log.info("Searching log of portal {} for '{}'...", portalId, query);
+    if (!states.exists(portalId)) throw new PortalNotFoundException(portalId);
+    if (limit <= 0) throw new PortalValidationException("Search limit must be positive");
+    if (from != null && to != null && from >= to) throw new PortalValidationException("Search range is empty");
+
+    return indexer.search(portalId, query, from, to, limit);
+  }
+
+  public List<ErrorSummary> listErrors(Integer portalId, ErrorStatus status, int limit) {
+    if (portalId != null && !states.exists(portalId)) throw new PortalNotFoundException(portalId);
+    if (limit <= 0) throw new PortalValidationException("Error limit must be positive");
 
-    return logs.cat(portalId);
+    return errors.list(portalId, status, limit);
   }
 
-  private void execute(String message, @NonNull Integer portalId, Consumer<Portal> action) {
+  public PortalHistory getHistory(@NonNull Integer portalId) {
+    return journal.getHistory(portalId).orElseThrow(() -> new PortalNotFoundException(portalId));
+  }
+
+  public void downloadLog(@NonNull Integer portalId, boolean gzip, boolean all, @NonNull OutputStream output)
+      throws IOException {
+    log.info("Downloading {} of portal {}...", all ? "logs" : "log", portalId);
+    if (!states.exists(portalId)) throw new PortalNotFoundException(portalId);
+
+    if (all) {
+      logs.downloadAll(portalId, output);
+    } else {
+      logs.download(portalId, gzip, output);
+    }
+  }
+
+  private void recover(Portal portal, PortalSnapshot lifecycle) {
+    // Portals that predate the journal are restarted as before
+    if (lifecycle == null) {
+      restart(portal.getId());
+      return;
+    }
+
+    val interrupted = lifecycle.getInterrupted();
+    if (interrupted == State.REMOVING) {
+      remove(portal.getId(), "Resumed after interruption");
+    } else if (interrupted == State.UPDATING) {
+      log.info("Resuming update of portal {}...", portal.getId());
+      update(portal);
+    } else if (interrupted != null) {
+      // A partially provisioned instance is left failed to be updated or removed
+      log.warn("Portal {} cannot be recovered from {}", portal.getId(), interrupted);
+    } else if (RUNNING_STATES.contains(lifecycle.getState())) {
+      restart(portal.getId());
+    } else if (lifecycle.getState() == State.STOPPING) {
+      stop(portal.getId());
+    }
+  }
+
+  private void execute(String message, @NonNull Integer portalId, State state, Consumer<Portal> action) {
     log.info("{} portal {}...", message, portalId);
 
-    @Cleanup
-    val lock = locks.lockWriting(portalId);
-    val portal = get(portalId);
+    // Queued behind any running command of the portal, admitted atomically unless an operation owns it
+    val previousState = states.begin(portalId, state);
+    try {
+      action.accept(get(portalId));
+    } catch (RuntimeException e) {
+      states.end(portalId, state, previousState);
+      throw e;
+    }
+  }
+
+  private Portal withState(Portal portal) {
+    // The registry is authoritative as saving the entity never writes the state
+    val state = states.get(portal.getId());
+    return state == null ? portal : portal.setState(state);
+  }
+
+  private PortalSummary withSummaryState(PortalSummary summary) {
+    val state = states.get(summary.getId());
+    return state == null ? summary : summary.setState(state);
+  }
+
+  private boolean applyConfig(Portal portal, Map<String, String> currentConfig) {
+    val changes = configurer.getReloadableChanges(currentConfig, portal.getConfig());
+    if (changes == null) return false;
 
-    action.accept(portal);
+    // A stopped instance needs a start anyway
+    val status = getStatus(portal.getId());
+    if (!status.isRunning()) return false;
+
+    try {
+      configurer.apply(portal, changes);
+      return true;
+    } catch (Exception e) {
+      log.warn("Could not apply configuration to portal {}, restarting instead: {}", portal.getId(), e.getMessage());
+      return false;
+    }
   }
 
   @SneakyThrows
@@ -319,7 +544,7 @@ public class PortalService {
     if (!slugified) throw new PortalValidationException("Portal slug '%s' is not slugified. Should be '%s'",
         slug, slugifiedSlug);
 
-    val existingPortal = repository.findBySlug(slug);
+    val existingPortal = registry.getBySlug(slug);
     val duplicate = existingPortal.isPresent() && !existingPortal.get().getId().equals(portalId);
     if (duplicate) throw new PortalValidationException("Portal %s already exists with slug '%s'",
         existingPortal.get().getId(), slug);
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2016 The Ontario Institute for Cancer Research. All rights reserved.                             
+ *                                                                                                               
+ * This program and the accompanying materials are made available under the terms of the GNU Public License v3.0.
+ * You should have received a copy of the GNU General Public License along with                                  
+ * this program. If not, see <http://www.gnu.org/licenses/>.                                                     
+ *                                                                                                               
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY                           
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES                          
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT                           
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,                                
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED                          
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;                               
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER                              
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN                         
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.icgc.dcc.dev.server.portal;
+
+import static javax.persistence.EnumType.STRING;
+
+import javax.persistence.Entity;
+import javax.persistence.Enumerated;
+import javax.persistence.Id;
+
+import org.icgc.dcc.dev.server.portal.io.PortalExecutor.State;
+
+import lombok.Data;
+import lombok.experimental.Accessors;
+
+/**
+ * The lifecycle of a portal instance folded from its journal events up to {@link #sequence}.
+ * <p>
+ * Written periodically so that recovery only replays the events appended after it.
+ */
+@Entity
+@Data
+@Accessors(chain = true)
+public class PortalSnapshot {
+
+  /**
+   * The portal instance.
+   * <p>
+   * Primary key.
+   */
+  @Id
+  Integer portalId;
+
+  /**
+   * The journal sequence number of the last event included.
+   */
+  long sequence;
+
+  /**
+   * The lifecycle state and when it was entered.
+   */
+  @Enumerated(STRING)
+  State state;
+  long since;
+
+  /**
+   * The operation that was in flight when the server went down and has not been resumed yet.
+   */
+  @Enumerated(STRING)
+  State interrupted;
+
+  /**
+   * The last deployed build.
+   */
+  Integer buildNumber;
+  String artifact;
+
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2016 The Ontario Institute for Cancer Research. All rights reserved.                             
+ *                                                                                                               
+ * This program and the accompanying materials are made available under the terms of the GNU Public License v3.0.
+ * You should have received a copy of the GNU General Public License along with                                  
+ * this program. If not, see <http://www.gnu.org/licenses/>.                                                     
+ *                                                                                                               
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY                           
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES                          
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT                           
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,                                
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED                          
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;                               
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER                              
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN                         
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.icgc.dcc.dev.server.portal;
+
+import org.icgc.dcc.dev.server.portal.io.PortalExecutor.State;
+
+import lombok.Data;
+import lombok.NonNull;
+import lombok.val;
+import lombok.experimental.Accessors;
+
+/**
+ * Summary view of a portal instance for list views.
+ * <p>
+ * Leaves out the descriptions and configuration maps that make up most of a {@link Portal} payload.
+ */
+@Data
+@Accessors(chain = true)
+public class PortalSummary {
+
+  Integer id;
+  String slug;
+  String title;
+  String ticketKey;
+  String username;
+  String url;
+  State state;
+
+  boolean autoDeploy;
+  boolean autoRefresh;
+  boolean autoRemove;
+
+  /**
+   * Target candidate.
+   */
+  Integer prNumber;
+  String prTitle;
+  String prUser;
+  String prBranch;
+  String prUrl;
+  String prAvatarUrl;
+  Integer buildNumber;
+  String artifact;
+
+  /**
+   * Timestamps.
+   */
+  long created;
+  long updated;
+
+  public static PortalSummary of(@NonNull Portal portal) {
+    val summary = new PortalSummary()
+        .setId(portal.getId())
+        .setSlug(portal.getSlug())
+        .setTitle(portal.getTitle())
+        .setTicketKey(portal.getTicketKey())
+        .setUsername(portal.getUsername())
+        .setUrl(portal.getUrl())
+        .setState(portal.getState())
+        .setAutoDeploy(portal.isAutoDeploy())
+        .setAutoRefresh(portal.isAutoRefresh())
+        .setAutoRemove(portal.isAutoRemove())
+        .setCreated(portal.getCreated())
+        .setUpdated(portal.getUpdated());
+
+    val target = portal.getTarget();
+    if (target == null) return summary;
+
+    val pr = target.getPr();
+    if (pr != null) {
+      summary
+          .setPrNumber(pr.getNumber())
+          .setPrTitle(pr.getTitle())
+          .setPrUser(pr.getUser())
+          .setPrBranch(pr.getBranch())
+          .setPrUrl(pr.getUrl())
+          .setPrAvatarUrl(pr.getAvatarUrl());
+    }
+
+    val build = target.getBuild();
+    if (build != null) summary.setBuildNumber(build.getNumber());
+
+    return summary.setArtifact(target.getArtifact());
+  }
+
+}
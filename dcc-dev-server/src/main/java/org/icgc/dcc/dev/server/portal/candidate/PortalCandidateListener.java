@@ -27,6 +27,7 @@ import org.icgc.dcc.dev.server.jenkins.JenkinsBuild;
 import org.icgc.dcc.dev.server.message.Messages.GithubPrsMessage;
 import org.icgc.dcc.dev.server.message.Messages.JenkinsBuildsMessage;
 import org.icgc.dcc.dev.server.portal.Portal;
+import org.icgc.dcc.dev.server.portal.PortalConflictException;
 import org.icgc.dcc.dev.server.portal.PortalService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.event.EventListener;
@@ -74,7 +75,11 @@ public class PortalCandidateListener {
 
       // We know it needs to die
       log.info("Auto removing portal {}", portal.getId());
-      portals.remove(portal.getId());
+      try {
+        portals.remove(portal.getId(), "PR " + prNumber + " closed");
+      } catch (PortalConflictException e) {
+        log.info("Skipping auto removal: {}", e.getMessage());
+      }
     }
   }
 
@@ -87,8 +92,10 @@ public class PortalCandidateListener {
   public void handle(@NonNull JenkinsBuildsMessage message) {
     val prBuilds = uniqueIndex(message.getBuilds(), JenkinsBuild::getPrNumber);
 
-    for (val portal : portals.list()) {
-      handle(prBuilds, portal);
+    for (val prNumber : prBuilds.keySet()) {
+      for (val portal : portals.listByPr(prNumber)) {
+        handle(prBuilds, portal);
+      }
     }
   }
 
@@ -141,7 +148,12 @@ public class PortalCandidateListener {
     portal.getTarget().setBuild(latestBuild);
     portal.getTarget().setArtifact(artifact);
 
-    portals.update(portal);
+    try {
+      portals.update(portal);
+    } catch (PortalConflictException e) {
+      // Retried on the next poll
+      log.info("Skipping auto refresh: {}", e.getMessage());
+    }
   }
 
   private static boolean isBuildSuccess(JenkinsBuild latestBuild) {
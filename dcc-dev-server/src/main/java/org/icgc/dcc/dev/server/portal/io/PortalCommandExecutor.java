@@ -0,0 +1,217 @@
+/*
+ * Copyright (c) 2016 The Ontario Institute for Cancer Research. All rights reserved.                             
+ *                                                                                                               
+ * This program and the accompanying materials are made available under the terms of the GNU Public License v3.0.
+ * You should have received a copy of the GNU General Public License along with                                  
+ * this program. If not, see <http://www.gnu.org/licenses/>.                                                     
+ *                                                                                                               
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY                           
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES                          
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT                           
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,                                
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED                          
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;                               
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER                              
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN                         
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.icgc.dcc.dev.server.portal.io;
+
+import static java.util.concurrent.Executors.newFixedThreadPool;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.icgc.dcc.dev.server.portal.Portal;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.val;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Executes asynchronous commands against portal instances.
+ * <p>
+ * Each portal has an ordered mailbox of pending commands which is drained by a shared bounded pool, so commands for
+ * the same portal never run concurrently while different portals progress in parallel. Redundant queued commands are
+ * merged. Callers that need the outcome can wait on the returned future.
+ */
+@Slf4j
+@Component
+public class PortalCommandExecutor {
+
+  /**
+   * Configuration.
+   */
+  @Value("${portal.commands.threads}")
+  int threads;
+
+  /**
+   * State.
+   */
+  final Map<Integer, Mailbox> mailboxes = Maps.newConcurrentMap();
+  ExecutorService pool;
+
+  @PostConstruct
+  public void init() {
+    this.pool = newFixedThreadPool(threads, new ThreadFactoryBuilder().setNameFormat("portal-command-%d").build());
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    pool.shutdownNow();
+  }
+
+  /**
+   * Queues {@code action} for execution after all previously queued commands of the same portal.
+   * 
+   * @param portal the target portal
+   * @param command the command type, used to merge redundant commands
+   * @param action the command implementation
+   * @return completes when the command (or the queued command it was merged with) has run
+   */
+  public CompletableFuture<Void> submit(@NonNull Portal portal, @NonNull Command command,
+      @NonNull Consumer<Portal> action) {
+    return mailboxes.computeIfAbsent(portal.getId(), Mailbox::new).enqueue(new Entry(portal, command, action));
+  }
+
+  /**
+   * Discards the mailbox of a removed portal, cancelling any commands still queued.
+   */
+  public void remove(@NonNull Integer portalId) {
+    val mailbox = mailboxes.remove(portalId);
+    if (mailbox != null) mailbox.discard();
+  }
+
+  public int getQueueDepth(@NonNull Integer portalId) {
+    val mailbox = mailboxes.get(portalId);
+    return mailbox == null ? 0 : mailbox.size();
+  }
+
+  /**
+   * Commands that can be queued for a portal.
+   */
+  public static enum Command {
+
+    START, RESTART, STOP;
+
+  }
+
+  /**
+   * A queued command.
+   */
+  @RequiredArgsConstructor
+  private static class Entry {
+
+    @NonNull
+    Portal portal;
+    final Command command;
+    final Consumer<Portal> action;
+    final CompletableFuture<Void> completion = new CompletableFuture<>();
+
+  }
+
+  /**
+   * Ordered commands of a single portal.
+   */
+  @RequiredArgsConstructor
+  private class Mailbox {
+
+    final Integer portalId;
+    final Deque<Entry> queue = new ArrayDeque<>();
+    boolean scheduled;
+
+    synchronized CompletableFuture<Void> enqueue(Entry entry) {
+      val last = queue.peekLast();
+      if (last != null && last.command == entry.command) {
+        // Running the same command twice in a row is redundant, but use the latest portal metadata
+        log.info("Merging {} of portal {} with queued {}", entry.command, portalId, last.command);
+        last.portal = entry.portal;
+        return last.completion;
+      }
+
+      queue.addLast(entry);
+      schedule();
+
+      return entry.completion;
+    }
+
+    synchronized void discard() {
+      for (val entry : queue) {
+        log.info("Discarding {} of removed portal {}", entry.command, portalId);
+        entry.completion.cancel(false);
+      }
+
+      queue.clear();
+    }
+
+    synchronized int size() {
+      return queue.size();
+    }
+
+    void drain() {
+      Entry entry;
+      synchronized (this) {
+        entry = queue.pollFirst();
+        if (entry == null) {
+          scheduled = false;
+          return;
+        }
+      }
+
+      try {
+        log.info("Executing {} of portal {}...", entry.command, portalId);
+        entry.action.accept(entry.portal);
+        entry.completion.complete(null);
+      } catch (Exception e) {
+        log.error("Error executing " + entry.command + " of portal " + portalId + ":", e);
+        entry.completion.completeExceptionally(e);
+      }
+
+      synchronized (this) {
+        // Yield to other portals between commands
+        if (queue.isEmpty()) {
+          scheduled = false;
+        } else {
+          execute();
+        }
+      }
+    }
+
+    private void schedule() {
+      if (scheduled) return;
+
+      scheduled = true;
+      execute();
+    }
+
+    private void execute() {
+      try {
+        pool.execute(this::drain);
+      } catch (RejectedExecutionException e) {
+        // Shutting down, so nothing will drain the queue
+        scheduled = false;
+        for (val entry : queue) {
+          entry.completion.completeExceptionally(e);
+        }
+
+        queue.clear();
+      }
+    }
+
+  }
+
+}
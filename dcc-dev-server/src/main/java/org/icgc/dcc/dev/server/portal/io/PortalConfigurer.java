@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2016 The Ontario Institute for Cancer Research. All rights reserved.                             
+ *                                                                                                               
+ * This program and the accompanying materials are made available under the terms of the GNU Public License v3.0.
+ * You should have received a copy of the GNU General Public License along with                                  
+ * this program. If not, see <http://www.gnu.org/licenses/>.                                                     
+ *                                                                                                               
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY                           
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES                          
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT                           
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,                                
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED                          
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;                               
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER                              
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN                         
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.icgc.dcc.dev.server.portal.io;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.icgc.dcc.dev.server.portal.util.Portals.MANAGEMENT_ADDRESS;
+import static org.icgc.dcc.dev.server.portal.util.Portals.getManagementPassword;
+import static org.icgc.dcc.dev.server.portal.util.Portals.getManagementPort;
+import static org.icgc.dcc.dev.server.portal.util.Portals.getManagementUser;
+import static org.springframework.http.HttpMethod.POST;
+
+import java.util.Base64;
+import java.util.Map;
+
+import org.icgc.dcc.dev.server.portal.Portal;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.web.client.RestTemplate;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+import lombok.NonNull;
+import lombok.val;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Responsible for applying configuration changes to running portal instances without a restart.
+ * <p>
+ * Uses the Spring Boot actuator {@code env} and {@code refresh} endpoints exposed on the portal's management port,
+ * which only listens locally and is authenticated with the portal's management credentials.
+ */
+@Slf4j
+@Component
+public class PortalConfigurer {
+
+  /**
+   * Configuration.
+   */
+  @Value("${portal.nonReloadable}")
+  String[] nonReloadable;
+
+  /**
+   * State.
+   */
+  final RestTemplate rest = new RestTemplate();
+
+  /**
+   * Determines the configuration changes that can be applied to a running instance.
+   * 
+   * @param currentConfig the configuration the instance was started with
+   * @param newConfig the desired configuration
+   * @return the changed properties or {@code null} if a restart is required to apply them
+   */
+  public Map<String, String> getReloadableChanges(Map<String, String> currentConfig, Map<String, String> newConfig) {
+    val difference = Maps.difference(nullToEmpty(currentConfig), nullToEmpty(newConfig));
+
+    // Removals cannot be reverted to the defaults the instance was started with
+    if (!difference.entriesOnlyOnLeft().isEmpty()) return null;
+
+    val changes = Maps.<String, String> newHashMap(difference.entriesOnlyOnRight());
+    difference.entriesDiffering().forEach((name, value) -> changes.put(name, value.rightValue()));
+
+    for (val name : changes.keySet()) {
+      if (!isReloadable(name)) {
+        log.info("Property '{}' is not reloadable", name);
+        return null;
+      }
+    }
+
+    return changes;
+  }
+
+  /**
+   * Pushes the supplied {@code changes} into the environment of the running instance and refreshes it.
+   */
+  public void apply(@NonNull Portal portal, @NonNull Map<String, String> changes) {
+    if (changes.isEmpty()) return;
+
+    val baseUrl = "http://" + MANAGEMENT_ADDRESS + ":" + getManagementPort(portal);
+    log.info("Applying configuration {} to portal {} at {}...", changes, portal.getId(), baseUrl);
+
+    val headers = createHeaders(portal);
+    val form = new LinkedMultiValueMap<String, String>();
+    changes.forEach(form::add);
+    rest.exchange(baseUrl + "/env", POST, new HttpEntity<>(form, headers), String.class);
+
+    val refreshed = rest.exchange(baseUrl + "/refresh", POST, new HttpEntity<>(headers), String.class);
+    log.info("Refreshed portal {}: {}", portal.getId(), refreshed.getBody());
+  }
+
+  private static HttpHeaders createHeaders(Portal portal) {
+    val headers = new HttpHeaders();
+    val user = getManagementUser(portal);
+    val password = getManagementPassword(portal);
+    if (user != null && password != null) {
+      val token = Base64.getEncoder().encodeToString((user + ":" + password).getBytes(UTF_8));
+      headers.set(HttpHeaders.AUTHORIZATION, "Basic " + token);
+    }
+
+    return headers;
+  }
+
+  private boolean isReloadable(String name) {
+    for (val pattern : nonReloadable) {
+      val wildcard = pattern.endsWith("*");
+      val matches = wildcard ? name.startsWith(pattern.substring(0, pattern.length() - 1)) : name.equals(pattern);
+      if (matches) return false;
+    }
+
+    return true;
+  }
+
+  private static Map<String, String> nullToEmpty(Map<String, String> config) {
+    return config == null ? ImmutableMap.of() : config;
+  }
+
+}
@@ -24,7 +24,12 @@ import static java.nio.file.attribute.PosixFilePermission.OWNER_EXECUTE;
 import static java.nio.file.attribute.PosixFilePermission.OWNER_READ;
 import static org.apache.commons.io.FileUtils.copyDirectory;
 import static org.apache.commons.io.FileUtils.deleteDirectory;
+import static org.icgc.dcc.dev.server.portal.util.Portals.MANAGEMENT_ADDRESS;
+import static org.icgc.dcc.dev.server.portal.util.Portals.MANAGEMENT_ADDRESS_PROPERTY;
+import static org.icgc.dcc.dev.server.portal.util.Portals.MANAGEMENT_PASSWORD_PROPERTY;
 import static org.icgc.dcc.dev.server.portal.util.Portals.MANAGEMENT_PORT_PROPERTY;
+import static org.icgc.dcc.dev.server.portal.util.Portals.MANAGEMENT_SECURITY_PROPERTY;
+import static org.icgc.dcc.dev.server.portal.util.Portals.MANAGEMENT_USER_PROPERTY;
 import static org.icgc.dcc.dev.server.portal.util.Portals.SERVER_PORT_PROPERTY;
 import static org.springframework.util.SocketUtils.findAvailableTcpPort;
 
@@ -33,6 +38,7 @@ import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Map;
+import java.util.UUID;
 
 import org.icgc.dcc.dev.server.portal.Portal;
 import org.icgc.dcc.dev.server.portal.util.PortalArchive;
@@ -40,6 +46,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 
 import lombok.NonNull;
@@ -54,6 +61,11 @@ import lombok.extern.slf4j.Slf4j;
 @Component
 public class PortalDeployer {
 
+  /**
+   * Constants.
+   */
+  static final String MANAGEMENT_USER = "dcc-dev";
+
   /**
    * Configuration.
    */
@@ -94,6 +106,35 @@ public class PortalDeployer {
   public void deploy(@NonNull Portal portal) {
     downloadJar(portal);
     assignPorts(portal);
+    secureManagement(portal);
+  }
+
+  /**
+   * Restricts the management endpoints of the portal to authenticated local access.
+   * <p>
+   * Applied on every deploy and to existing portals at startup, so that instances deployed before this was in place
+   * are brought in line when they are next started.
+   * 
+   * @return whether the system configuration changed
+   */
+  public boolean secureManagement(@NonNull Portal portal) {
+    val systemConfig = portal.getSystemConfig();
+    val before = ImmutableMap.copyOf(systemConfig);
+
+    systemConfig.remove(MANAGEMENT_SECURITY_PROPERTY);
+    systemConfig.put(MANAGEMENT_ADDRESS_PROPERTY, MANAGEMENT_ADDRESS);
+
+    val config = portal.getConfig();
+    val userCredentials = config != null && config.containsKey(MANAGEMENT_PASSWORD_PROPERTY);
+    if (userCredentials) {
+      systemConfig.remove(MANAGEMENT_USER_PROPERTY);
+      systemConfig.remove(MANAGEMENT_PASSWORD_PROPERTY);
+    } else if (!systemConfig.containsKey(MANAGEMENT_PASSWORD_PROPERTY)) {
+      systemConfig.put(MANAGEMENT_USER_PROPERTY, MANAGEMENT_USER);
+      systemConfig.put(MANAGEMENT_PASSWORD_PROPERTY, UUID.randomUUID().toString());
+    }
+
+    return !before.equals(systemConfig);
   }
 
   @SneakyThrows
@@ -131,7 +172,9 @@ public class PortalDeployer {
     val systemConfig = portal.getSystemConfig();
     assignPort(systemConfig, SERVER_PORT_PROPERTY);
     assignPort(systemConfig, MANAGEMENT_PORT_PROPERTY);
-    log.info("Ports: {}", systemConfig);
+    log.info("Ports: {}", ImmutableMap.of(
+        SERVER_PORT_PROPERTY, systemConfig.get(SERVER_PORT_PROPERTY),
+        MANAGEMENT_PORT_PROPERTY, systemConfig.get(MANAGEMENT_PORT_PROPERTY)));
   }
 
   private static void assignPort(Map<String, String> systemConfig, String portProperty) {
@@ -17,26 +17,26 @@
  */
 package org.icgc.dcc.dev.server.portal.io;
 
-import static com.google.common.base.Preconditions.checkState;
 import static java.util.Collections.emptyList;
 import static java.util.Collections.emptyMap;
 import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toMap;
 
 import java.io.File;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
-import java.util.regex.Pattern;
 
 import org.icgc.dcc.dev.server.message.MessageService;
 import org.icgc.dcc.dev.server.message.Messages.PortalChangeMessage;
 import org.icgc.dcc.dev.server.message.Messages.PortalChangeType;
 import org.icgc.dcc.dev.server.portal.Portal;
 import org.icgc.dcc.dev.server.portal.Portal.Status;
+import org.icgc.dcc.dev.server.portal.io.PortalCommandExecutor.Command;
 import org.icgc.dcc.dev.server.portal.util.PortalLocks;
+import org.icgc.dcc.dev.server.portal.util.PortalStates;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Component;
 import org.zeroturnaround.exec.ProcessExecutor;
 
@@ -58,13 +58,6 @@ import lombok.extern.slf4j.Slf4j;
 @Component
 public class PortalExecutor {
 
-  /**
-   * Constants.
-   */
-  static final String STATUS_RUNNING_VALUE = "running";
-  static final Pattern STATUS_PATTERN =
-      Pattern.compile("DCC Portal Server is ([^:.]+)[:.](?: PID:(\\d+), Wrapper:(\\w+), Java:(\\w+))?\n");
-
   /**
    * Configuration.
    */
@@ -80,64 +73,135 @@ public class PortalExecutor {
   @Autowired
   PortalLocks locks;
   @Autowired
+  PortalStates states;
+  @Autowired
+  PortalSupervisor supervisor;
+  @Autowired
+  PortalReadiness readiness;
+  @Autowired
+  PortalCommandExecutor commands;
+  @Autowired
   MessageService messages;
 
   public Status getStatus(@NonNull Integer portalId) {
-    val statusOutput = executeScript(portalId, ScriptCommand.STATUS, null);
-    return parseStatus(statusOutput);
+    return supervisor.getStatus(portalId)
+        .setState(states.get(portalId))
+        .setTimeToReady(readiness.getTimeToReady(portalId))
+        .setPendingCommands(commands.getQueueDepth(portalId));
+  }
+
+  public Map<Integer, Status> getStatuses(@NonNull Iterable<Integer> portalIds) {
+    val statuses = supervisor.getStatuses(portalIds);
+    statuses.forEach((portalId, status) -> status
+        .setState(states.get(portalId))
+        .setTimeToReady(readiness.getTimeToReady(portalId))
+        .setPendingCommands(commands.getQueueDepth(portalId)));
+
+    return statuses;
   }
 
   public void start(@NonNull Portal portal) {
-    notifyChange(portal, State.STARTING);
-    executeScript(portal.getId(), ScriptCommand.START, resolveArguments(portal));
-    notifyChange(portal, State.RUNNING);
+    run(portal, State.STARTING, () -> {
+      executeScript(portal.getId(), ScriptCommand.START, resolveArguments(portal));
+      supervise(portal);
+    });
   }
 
-  @Async
   public void startAsync(@NonNull Portal portal) {
-    start(portal);
+    commands.submit(portal, Command.START, this::start);
   }
 
   public void restart(@NonNull Portal portal) {
-    notifyChange(portal, State.RESTARTING);
-    executeScript(portal.getId(), ScriptCommand.RESTART, resolveArguments(portal));
-    notifyChange(portal, State.RUNNING);
+    run(portal, State.RESTARTING, () -> {
+      readiness.unmonitor(portal.getId());
+      supervisor.detach(portal.getId());
+      executeScript(portal.getId(), ScriptCommand.RESTART, resolveArguments(portal));
+      notifyChange(portal, State.STARTING);
+      supervise(portal);
+    });
   }
 
-  @Async
   public void restartAsync(@NonNull Portal portal) {
-    restart(portal);
+    commands.submit(portal, Command.RESTART, this::restart);
   }
 
   public void stop(@NonNull Portal portal) {
-    notifyChange(portal, State.STOPPING);
-    executeScript(portal.getId(), ScriptCommand.STOP, null);
-    notifyChange(portal, State.STOPPED);
+    run(portal, State.STOPPING, () -> {
+      readiness.unmonitor(portal.getId());
+      supervisor.detach(portal.getId());
+      executeScript(portal.getId(), ScriptCommand.STOP, null);
+      notifyChange(portal, State.STOPPED);
+    });
   }
 
-  @Async
   public void stopAsync(@NonNull Portal portal) {
-    stop(portal);
+    commands.submit(portal, Command.STOP, this::stop);
+  }
+
+  /**
+   * Stops the instance after the commands already queued for it and waits for the stop to complete.
+   * <p>
+   * Must not be called while holding the portal's write lock, which the stop needs to read.
+   */
+  public void stopAndWait(@NonNull Portal portal) {
+    commands.submit(portal, Command.STOP, this::stop).join();
+  }
+
+  /**
+   * Discards the queued commands of a removed portal.
+   */
+  public void release(@NonNull Integer portalId) {
+    commands.remove(portalId);
+  }
+
+  /**
+   * Runs {@code command} in {@code state}, failing the portal if it throws so that it is not left in {@code state}
+   * without a script or supervisor to move it on.
+   */
+  private void run(Portal portal, State state, Runnable command) {
+    notifyChange(portal, state);
+    try {
+      command.run();
+    } catch (Exception e) {
+      log.error("Error executing command while portal {} was {}:", portal.getId(), state, e);
+      notifyChange(portal, State.FAILED);
+      throw e;
+    }
+  }
+
+  private void supervise(Portal portal) {
+    supervisor.attach(portal.getId(), () -> {
+      readiness.unmonitor(portal.getId());
+      notifyChange(portal, State.FAILED);
+    });
+
+    // Ready once the instance reports healthy, not when the wrapper script returns
+    readiness.monitor(portal, state -> notifyChange(portal, state));
   }
 
   private void notifyChange(Portal portal, State state) {
+    states.update(portal.getId(), state);
+
     // Notify
     messages.sendMessage(new PortalChangeMessage()
         .setPortalId(portal.getId())
-        .setType(PortalChangeType.EXECUTION));
+        .setType(PortalChangeType.EXECUTION)
+        .setState(state));
   }
 
   @SneakyThrows
   private String executeScript(Integer portalId, ScriptCommand scriptCommand, Map<String, String> arguments) {
     @Cleanup
-    val lock = locks.lockReading(portalId);
+    val lock = locks.lockReading(portalId, scriptCommand.getId());
 
     val scriptFile = fileSystem.getScriptFile(portalId);
     val command = createCommand(scriptFile, scriptCommand, arguments);
+    val environment = createEnvironment(arguments);
 
-    log.info("Executing command: {}", command);
+    log.info("Executing command: {} with secrets in {}", command, environment.keySet());
     val output = new ProcessExecutor()
         .command(command)
+        .environment(environment)
         .readOutput(true)
         .execute()
         .outputUTF8();
@@ -168,26 +232,31 @@ public class PortalExecutor {
     if (arguments == null) return emptyList();
 
     return arguments.entrySet().stream()
+        .filter(e -> !isSecret(e.getKey()))
         .map(e -> "--" + e.getKey() + "=" + e.getValue()) // Format Spring Boot argument
         .collect(toList());
   }
 
-  private static Status parseStatus(String statusOutput) {
-    val matcher = STATUS_PATTERN.matcher(statusOutput);
-    checkState(matcher.matches(), "Expected '%s' to match pattern: %s", statusOutput, STATUS_PATTERN);
+  /**
+   * Passes secrets such as the management password through the environment, which the wrapper hands down to the JVM,
+   * rather than the command line, which any local user can read with {@code ps}.
+   */
+  private static Map<String, String> createEnvironment(Map<String, String> arguments) {
+    if (arguments == null) return emptyMap();
+
+    return arguments.entrySet().stream()
+        .filter(e -> isSecret(e.getKey()))
+        .collect(toMap(e -> toEnvironmentVariable(e.getKey()), e -> e.getValue()));
+  }
 
-    // Parse
-    int i = 1;
-    val state = matcher.group(i++);
-    val pid = matcher.group(i++);
-    val wrapper = matcher.group(i++);
-    val java = matcher.group(i++);
+  private static boolean isSecret(String name) {
+    // Includes the generated management password
+    return name.toLowerCase().contains("password");
+  }
 
-    return new Status()
-        .setRunning(state.equals(STATUS_RUNNING_VALUE))
-        .setPid(pid == null ? null : Integer.valueOf(pid))
-        .setWrapper(wrapper)
-        .setJava(java);
+  private static String toEnvironmentVariable(String name) {
+    // Spring Boot relaxed binding maps SECURITY_USER_PASSWORD to security.user.password
+    return name.replaceAll("[.\\-]", "_").toUpperCase();
   }
 
   /**
@@ -196,7 +265,7 @@ public class PortalExecutor {
   @RequiredArgsConstructor
   private enum ScriptCommand {
 
-    START("start"), RESTART("restart"), STOP("stop"), STATUS("status");
+    START("start"), RESTART("restart"), STOP("stop");
 
     @Getter
     private final String id;
@@ -204,11 +273,11 @@ public class PortalExecutor {
   }
 
   /**
-   * Represents the runtime state of a portal instance.
+   * Represents the lifecycle / runtime state of a portal instance.
    */
   public static enum State {
 
-    STARTING, RUNNING, STOPPING, STOPPED, RESTARTING, FAILED;
+    PROVISIONING, UPDATING, REMOVING, STARTING, READY, DEGRADED, STOPPING, STOPPED, RESTARTING, FAILED;
 
   }
 
@@ -17,12 +17,21 @@
  */
 package org.icgc.dcc.dev.server.portal.io;
 
+import static org.icgc.dcc.common.core.util.stream.Collectors.toImmutableList;
+
 import java.io.File;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Stream;
 
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.primitives.Ints;
+
 import lombok.NonNull;
+import lombok.val;
 
 /**
  * Abstraction that encapsulates the file layout of a portal instance.
@@ -42,6 +51,30 @@ public class PortalFileSystem {
     return new File(workspaceDir, "portals");
   }
 
+  /**
+   * Directory of the compressed logs of removed portals.
+   */
+  public File getArchiveDir() {
+    return new File(workspaceDir, "archive");
+  }
+
+  public String getBaseName() {
+    return baseName;
+  }
+
+  /**
+   * Lists the ids of the portals that have a directory in the workspace.
+   */
+  public List<Integer> getPortalIds() {
+    val portalDirs = getDir().listFiles(File::isDirectory);
+    if (portalDirs == null) return ImmutableList.of();
+
+    return Stream.of(portalDirs)
+        .map(portalDir -> Ints.tryParse(portalDir.getName()))
+        .filter(Objects::nonNull)
+        .collect(toImmutableList());
+  }
+
   public File getRootDir(@NonNull Integer portalId) {
     return new File(getDir(), String.valueOf(portalId));
   }
@@ -74,6 +107,14 @@ public class PortalFileSystem {
     return new File(getLibDir(portalId), baseName + ".jar");
   }
 
+  public File getPidFile(@NonNull Integer portalId) {
+    return new File(getBinDir(portalId), baseName + ".pid");
+  }
+
+  public File getJavaPidFile(@NonNull Integer portalId) {
+    return new File(getBinDir(portalId), baseName + ".java.pid");
+  }
+
   public File getLogFile(@NonNull Integer portalId) {
     return new File(getLogsDir(portalId), baseName + ".log");
   }
@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2016 The Ontario Institute for Cancer Research. All rights reserved.                             
+ *                                                                                                               
+ * This program and the accompanying materials are made available under the terms of the GNU Public License v3.0.
+ * You should have received a copy of the GNU General Public License along with                                  
+ * this program. If not, see <http://www.gnu.org/licenses/>.                                                     
+ *                                                                                                               
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY                           
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES                          
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT                           
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,                                
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED                          
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;                               
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER                              
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN                         
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.icgc.dcc.dev.server.portal.io;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.val;
+
+/**
+ * Consecutive lines of a portal log held as UTF-8 bytes, without their line terminators.
+ * <p>
+ * Batches passed to listeners by the {@link PortalLogTailer} are reused and only valid for the duration of the call.
+ * Lines are only decoded when requested.
+ */
+@RequiredArgsConstructor
+public class PortalLogBatch {
+
+  /**
+   * Metadata.
+   */
+  @Getter
+  @NonNull
+  final Integer portalId;
+
+  /**
+   * Byte offset of the start of the first line.
+   */
+  @Getter
+  long offset;
+
+  /**
+   * Byte offset following the last line.
+   */
+  @Getter
+  long nextOffset;
+
+  /**
+   * Whether the batch was cut at the batch size while more lines were already available, so that the last record
+   * may continue in the next batch.
+   */
+  @Getter
+  boolean continued;
+
+  /**
+   * State.
+   */
+  // Complete lines followed by the current incomplete line, if any
+  byte[] bytes = new byte[4 * 1024];
+  int length;
+
+  int[] ends = new int[64];
+  int size;
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Backing array of the lines, only valid between {@link #getStart(int)} and {@link #getEnd(int)}.
+   */
+  public byte[] getBytes() {
+    return bytes;
+  }
+
+  public int getStart(int index) {
+    return index == 0 ? 0 : ends[index - 1];
+  }
+
+  public int getEnd(int index) {
+    return ends[index];
+  }
+
+  public String getLine(int index) {
+    val start = getStart(index);
+    return new String(bytes, start, getEnd(index) - start, UTF_8);
+  }
+
+  /**
+   * Decodes the lines into a list that outlives the batch.
+   */
+  public List<String> getLines() {
+    val lines = new String[size];
+    for (int i = 0; i < size; i++) {
+      lines[i] = getLine(i);
+    }
+
+    return Arrays.asList(lines);
+  }
+
+  int getPendingLength() {
+    return length - (size == 0 ? 0 : ends[size - 1]);
+  }
+
+  void setOffset(long offset) {
+    this.offset = offset;
+  }
+
+  void setNextOffset(long nextOffset) {
+    this.nextOffset = nextOffset;
+  }
+
+  void setContinued(boolean continued) {
+    this.continued = continued;
+  }
+
+  void append(ByteBuffer source, int index, int count) {
+    ensureCapacity(length + count);
+    val from = source.duplicate();
+    from.limit(index + count);
+    from.position(index);
+    from.get(bytes, length, count);
+    length += count;
+  }
+
+  void append(byte[] source, int index, int count) {
+    ensureCapacity(length + count);
+    System.arraycopy(source, index, bytes, length, count);
+    length += count;
+  }
+
+  /**
+   * Completes the pending line.
+   */
+  void commit() {
+    if (getPendingLength() > 0 && bytes[length - 1] == '\r') length--;
+
+    if (size == ends.length) ends = Arrays.copyOf(ends, size * 2);
+    ends[size++] = length;
+  }
+
+  /**
+   * Removes the complete lines, keeping the pending line.
+   */
+  void clear() {
+    val pending = getPendingLength();
+    System.arraycopy(bytes, length - pending, bytes, 0, pending);
+    length = pending;
+    size = 0;
+  }
+
+  /**
+   * Removes all lines, including the pending line.
+   */
+  void reset() {
+    length = 0;
+    size = 0;
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (capacity > bytes.length) bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, capacity));
+  }
+
+}
@@ -0,0 +1,457 @@
+/*
+ * Copyright (c) 2016 The Ontario Institute for Cancer Research. All rights reserved.                             
+ *                                                                                                               
+ * This program and the accompanying materials are made available under the terms of the GNU Public License v3.0.
+ * You should have received a copy of the GNU General Public License along with                                  
+ * this program. If not, see <http://www.gnu.org/licenses/>.                                                     
+ *                                                                                                               
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY                           
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES                          
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT                           
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,                                
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED                          
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;                               
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER                              
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN                         
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.icgc.dcc.dev.server.portal.io;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Comparator.comparing;
+import static java.util.Comparator.comparingLong;
+import static java.util.stream.Collectors.toList;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.icgc.dcc.dev.server.message.Messages.PortalChangeMessage;
+import org.icgc.dcc.dev.server.portal.Portal;
+import org.icgc.dcc.dev.server.portal.Portal.Candidate;
+import org.icgc.dcc.dev.server.portal.PortalError;
+import org.icgc.dcc.dev.server.portal.PortalErrorRepository;
+import org.icgc.dcc.dev.server.portal.util.PortalRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.hash.Hashing;
+
+import lombok.Data;
+import lombok.NonNull;
+import lombok.val;
+import lombok.experimental.Accessors;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Aggregates the errors logged by all portals by fingerprint so that the same failure can be recognized across
+ * portals, restarts and builds.
+ * <p>
+ * A fingerprint is derived from the exception class, the top stack frames including line numbers and the root cause
+ * class. Errors logged without a stack trace are fingerprinted by logger and message with numbers masked.
+ * <p>
+ * Fingerprints changed since the last flush are written periodically and loaded on startup, so that known errors are
+ * not reported as new again after a restart.
+ */
+@Slf4j
+@Component
+public class PortalLogErrors {
+
+  /**
+   * Constants.
+   */
+  static final String ERROR_LEVEL = "ERROR";
+  static final String UNKNOWN_BUILD = "unknown";
+  static final int MAX_SAMPLE_LINES = 50;
+  static final Pattern EXCEPTION_LINE = Pattern.compile("^(?:Caused by: )?([A-Za-z_$][\\w$]*(?:\\.[\\w$]+)+)(?::.*)?$");
+  static final Pattern FRAME_LINE = Pattern.compile("^\\s*at ([^(\\s]+)\\(([^)]*)\\)");
+  static final Pattern GENERATED_NAME = Pattern.compile(
+      "\\$\\$[A-Za-z]+\\$\\$[0-9a-fA-F]+|\\$Lambda\\$[\\d/x]+[0-9a-fA-F]*|(GeneratedMethodAccessor|\\$Proxy)\\d+");
+  static final Pattern NUMBER = Pattern.compile("\\b(0x)?[0-9a-fA-F-]*\\d[0-9a-fA-F-]*\\b");
+
+  /**
+   * Configuration.
+   */
+  @Value("${portal.errors.maxFingerprints}")
+  int maxFingerprints;
+  @Value("${portal.errors.frames}")
+  int frames;
+  @Value("${portal.errors.window}")
+  long window;
+  @Value("${portal.errors.quietPeriod}")
+  long quietPeriod;
+
+  /**
+   * Dependencies.
+   */
+  @Autowired
+  PortalLogs logs;
+  @Autowired
+  PortalRegistry registry;
+  @Autowired
+  PortalErrorRepository repository;
+  @Autowired
+  PlatformTransactionManager transactionManager;
+
+  /**
+   * State.
+   */
+  // Least recently seen first
+  final Map<String, Fingerprint> fingerprints = new LinkedHashMap<>(16, 0.75f, true);
+
+  // Ids of the fingerprints to write and to delete on the next flush, guarded by fingerprints
+  final Set<String> dirty = Sets.newHashSet();
+  final Set<String> evicted = Sets.newHashSet();
+
+  // Build of each portal, resolved when it first logs an error
+  final Map<Integer, String> builds = Maps.newConcurrentMap();
+
+  @PostConstruct
+  public void init() {
+    val errors = Lists.newArrayList(repository.findAll());
+    errors.sort(comparingLong(PortalError::getLastSeen));
+
+    synchronized (fingerprints) {
+      for (val error : errors) {
+        fingerprints.put(error.getId(), new Fingerprint(error));
+      }
+
+      evict();
+    }
+
+    log.info("Loaded {} error fingerprints", errors.size());
+    logs.addRecordListener(this::handle);
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    flush();
+  }
+
+  /**
+   * Lists the errors ranked by status, then by the number of portals and occurrences affected.
+   * 
+   * @param portalId restricts the list to errors logged by the portal, if any
+   */
+  public List<ErrorSummary> list(Integer portalId, ErrorStatus status, int limit) {
+    val now = System.currentTimeMillis();
+    List<ErrorSummary> summaries;
+    synchronized (fingerprints) {
+      summaries = fingerprints.values().stream()
+          .filter(fingerprint -> portalId == null || fingerprint.portals.containsKey(portalId))
+          .map(fingerprint -> fingerprint.summarize(now))
+          .collect(toList());
+    }
+
+    return summaries.stream()
+        .filter(summary -> status == null || summary.getStatus() == status)
+        .sorted(comparing(ErrorSummary::getStatus)
+            .thenComparing(comparingLong((ErrorSummary summary) -> summary.getPortals().size()).reversed())
+            .thenComparing(comparingLong(ErrorSummary::getCount).reversed())
+            .thenComparing(comparingLong(ErrorSummary::getLastSeen).reversed()))
+        .limit(limit)
+        .collect(toList());
+  }
+
+  /**
+   * Writes the fingerprints changed since the last flush in a single transaction.
+   * <p>
+   * On failure they are kept for the next flush. Their number is bounded by {@code maxFingerprints}.
+   */
+  @Scheduled(fixedDelayString = "${portal.errors.flushInterval}")
+  public void flush() {
+    List<PortalError> changed;
+    List<String> removed;
+    synchronized (fingerprints) {
+      if (dirty.isEmpty() && evicted.isEmpty()) return;
+
+      changed = dirty.stream().map(fingerprints::get).map(Fingerprint::toError).collect(toList());
+      removed = ImmutableList.copyOf(evicted);
+      dirty.clear();
+      evicted.clear();
+    }
+
+    log.debug("Writing {} and deleting {} error fingerprints...", changed.size(), removed.size());
+    try {
+      new TransactionTemplate(transactionManager).execute(status -> {
+        for (String id : removed) {
+          if (repository.exists(id)) repository.delete(id);
+        }
+
+        repository.save(changed);
+        return null;
+      });
+    } catch (RuntimeException e) {
+      log.error("Error writing error fingerprints, retrying:", e);
+
+      synchronized (fingerprints) {
+        for (val error : changed) {
+          if (fingerprints.containsKey(error.getId())) dirty.add(error.getId());
+        }
+        for (val id : removed) {
+          if (!fingerprints.containsKey(id)) evicted.add(id);
+        }
+      }
+    }
+  }
+
+  @EventListener
+  void handle(PortalChangeMessage message) {
+    // The build may have changed
+    builds.remove(message.getPortalId());
+  }
+
+  private void handle(List<PortalLogRecord> records) {
+    List<PortalLogRecord> errors = null;
+    for (val record : records) {
+      if (!ERROR_LEVEL.equals(record.getLevel())) continue;
+
+      if (errors == null) errors = Lists.newArrayList();
+      errors.add(record);
+    }
+
+    if (errors == null) return;
+
+    val build = getBuild(records.get(0).getPortalId());
+    for (val record : errors) {
+      add(record, build);
+    }
+  }
+
+  private void add(PortalLogRecord record, String build) {
+    val key = createKey(record);
+    val id = Hashing.murmur3_128().hashString(key, UTF_8).toString().substring(0, 16);
+    val time = record.getTimestamp() != null ? record.getTimestamp() : System.currentTimeMillis();
+
+    synchronized (fingerprints) {
+      Fingerprint fingerprint = fingerprints.get(id);
+      if (fingerprint == null) {
+        fingerprint = new Fingerprint(id, key, record, time);
+        fingerprints.put(id, fingerprint);
+        evicted.remove(id);
+        evict();
+      } else if (time - fingerprint.lastSeen >= quietPeriod) {
+        fingerprint.regressed = time;
+      }
+
+      fingerprint.count++;
+      fingerprint.lastSeen = Math.max(fingerprint.lastSeen, time);
+      fingerprint.portals.merge(record.getPortalId(), 1L, Long::sum);
+      fingerprint.builds.merge(build, 1L, Long::sum);
+      dirty.add(id);
+    }
+  }
+
+  private void evict() {
+    val iterator = fingerprints.entrySet().iterator();
+    while (fingerprints.size() > maxFingerprints && iterator.hasNext()) {
+      val id = iterator.next().getKey();
+      log.debug("Evicting error fingerprint {}", id);
+      iterator.remove();
+      dirty.remove(id);
+      evicted.add(id);
+    }
+  }
+
+  private String createKey(PortalLogRecord record) {
+    val stackTrace = record.getStackTrace();
+    if (stackTrace.isEmpty()) {
+      return record.getLogger() + "|" + NUMBER.matcher(String.valueOf(record.getMessage())).replaceAll("#");
+    }
+
+    val key = new StringBuilder();
+    String rootCause = null;
+    int frameCount = 0;
+    boolean cause = false;
+    for (val line : stackTrace) {
+      val exception = EXCEPTION_LINE.matcher(line);
+      if (exception.matches()) {
+        if (key.length() == 0) {
+          key.append(exception.group(1));
+        } else {
+          rootCause = exception.group(1);
+          cause = true;
+        }
+
+        continue;
+      }
+
+      val frame = FRAME_LINE.matcher(line);
+      if (!cause && frame.find() && frameCount < frames) {
+        key.append('|').append(normalize(frame.group(1))).append('(').append(frame.group(2)).append(')');
+        frameCount++;
+      }
+    }
+
+    if (key.length() == 0) key.append(record.getLogger());
+    if (rootCause != null) key.append("|caused by ").append(rootCause);
+
+    return key.toString();
+  }
+
+  private String getBuild(Integer portalId) {
+    return builds.computeIfAbsent(portalId, id -> {
+      Candidate target = registry.get(id).map(Portal::getTarget).orElse(null);
+      if (target == null) return UNKNOWN_BUILD;
+
+      if (target.getBuild() != null) return String.valueOf(target.getBuild().getNumber());
+      return target.getArtifact() != null ? target.getArtifact() : UNKNOWN_BUILD;
+    });
+  }
+
+  private static String normalize(String name) {
+    return GENERATED_NAME.matcher(name).replaceAll("\\$\\$");
+  }
+
+  /**
+   * How an error relates to its history.
+   * <p>
+   * Declared in ranking order.
+   */
+  public enum ErrorStatus {
+
+    /**
+     * First seen recently.
+     */
+    NEW,
+
+    /**
+     * Seen again recently after a quiet period.
+     */
+    REGRESSED,
+
+    ONGOING;
+
+  }
+
+  /**
+   * Aggregated occurrences of an error.
+   */
+  @Data
+  @Accessors(chain = true)
+  public static class ErrorSummary {
+
+    String id;
+    ErrorStatus status;
+
+    /**
+     * Exception class and top frames, or logger and masked message.
+     */
+    String fingerprint;
+
+    String logger;
+    String message;
+
+    /**
+     * Stack trace of the first occurrence.
+     */
+    List<String> sample;
+
+    long count;
+    long firstSeen;
+    long lastSeen;
+    Long regressed;
+
+    /**
+     * Occurrences by portal id and by build.
+     */
+    Map<Integer, Long> portals;
+    Map<String, Long> builds;
+
+  }
+
+  private class Fingerprint {
+
+    final String id;
+    final String key;
+    final String logger;
+    final String message;
+    final List<String> sample;
+    final long firstSeen;
+    final Map<Integer, Long> portals = Maps.newHashMap();
+    final Map<String, Long> builds = Maps.newHashMap();
+
+    long count;
+    long lastSeen;
+    Long regressed;
+
+    Fingerprint(String id, String key, PortalLogRecord record, long time) {
+      val stackTrace = record.getStackTrace();
+      this.id = id;
+      this.key = key;
+      this.logger = record.getLogger();
+      this.message = record.getMessage();
+      this.sample = ImmutableList.copyOf(stackTrace.subList(0, Math.min(stackTrace.size(), MAX_SAMPLE_LINES)));
+      this.firstSeen = this.lastSeen = time;
+    }
+
+    Fingerprint(PortalError error) {
+      val sample = error.getSample();
+      this.id = error.getId();
+      this.key = error.getFingerprint();
+      this.logger = error.getLogger();
+      this.message = error.getMessage();
+      this.sample = sample == null || sample.isEmpty() ? ImmutableList.of() : Splitter.on('\n').splitToList(sample);
+      this.firstSeen = error.getFirstSeen();
+      this.portals.putAll(error.getPortals());
+      this.builds.putAll(error.getBuilds());
+      this.count = error.getCount();
+      this.lastSeen = error.getLastSeen();
+      this.regressed = error.getRegressed();
+    }
+
+    PortalError toError() {
+      return new PortalError()
+          .setId(id)
+          .setFingerprint(key)
+          .setLogger(logger)
+          .setMessage(message)
+          .setSample(Joiner.on('\n').join(sample))
+          .setCount(count)
+          .setFirstSeen(firstSeen)
+          .setLastSeen(lastSeen)
+          .setRegressed(regressed)
+          .setPortals(Maps.newHashMap(portals))
+          .setBuilds(Maps.newHashMap(builds));
+    }
+
+    ErrorSummary summarize(long now) {
+      val status = now - firstSeen < window ? ErrorStatus.NEW
+          : regressed != null && now - regressed < window ? ErrorStatus.REGRESSED
+          : ErrorStatus.ONGOING;
+
+      return new ErrorSummary()
+          .setId(id)
+          .setStatus(status)
+          .setFingerprint(key)
+          .setLogger(logger)
+          .setMessage(message)
+          .setSample(sample)
+          .setCount(count)
+          .setFirstSeen(firstSeen)
+          .setLastSeen(lastSeen)
+          .setRegressed(regressed)
+          .setPortals(ImmutableMap.copyOf(portals))
+          .setBuilds(ImmutableMap.copyOf(builds));
+    }
+
+  }
+
+}
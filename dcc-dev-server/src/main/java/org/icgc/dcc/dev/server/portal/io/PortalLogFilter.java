@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2016 The Ontario Institute for Cancer Research. All rights reserved.                             
+ *                                                                                                               
+ * This program and the accompanying materials are made available under the terms of the GNU Public License v3.0.
+ * You should have received a copy of the GNU General Public License along with                                  
+ * this program. If not, see <http://www.gnu.org/licenses/>.                                                     
+ *                                                                                                               
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY                           
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES                          
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT                           
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,                                
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED                          
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;                               
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER                              
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN                         
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.icgc.dcc.dev.server.portal.io;
+
+import static com.google.common.base.Strings.isNullOrEmpty;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.net.URLDecoder;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.icgc.dcc.dev.server.portal.PortalValidationException;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import com.google.common.collect.ImmutableList;
+
+import lombok.SneakyThrows;
+import lombok.Value;
+import lombok.val;
+
+/**
+ * Criteria applied to {@link PortalLogRecord}s before they are sent to a subscriber.
+ */
+@Value
+public class PortalLogFilter {
+
+  /**
+   * Constants.
+   */
+  static final List<String> LEVELS = ImmutableList.of("TRACE", "DEBUG", "INFO", "WARN", "ERROR");
+
+  /**
+   * Minimum level, if any. Unstructured records only pass without one.
+   */
+  String level;
+
+  /**
+   * Logger name prefix, if any.
+   */
+  String logger;
+
+  /**
+   * Regular expression to find in the message or stack trace, if any.
+   */
+  Pattern pattern;
+
+  /**
+   * Parses a filter from the query of a subscription destination, e.g. {@code ?level=WARN&logger=org.icgc&pattern=foo}.
+   */
+  public static PortalLogFilter parse(String destination) {
+    return parse(destination, null);
+  }
+
+  public static PortalLogFilter parse(String destination, String defaultLevel) {
+    val params = UriComponentsBuilder.fromUriString(destination).build().getQueryParams();
+    val level = params.containsKey("level") ? decode(params.getFirst("level")) : defaultLevel;
+    val logger = decode(params.getFirst("logger"));
+    val pattern = decode(params.getFirst("pattern"));
+
+    if (level != null && !LEVELS.contains(level.toUpperCase())) {
+      throw new PortalValidationException("Unknown log level '%s'", level);
+    }
+
+    try {
+      return new PortalLogFilter(
+          level == null ? null : level.toUpperCase(),
+          logger,
+          pattern == null ? null : Pattern.compile(pattern));
+    } catch (PatternSyntaxException e) {
+      throw new PortalValidationException("Invalid log pattern '%s': %s", pattern, e.getDescription());
+    }
+  }
+
+  public boolean test(PortalLogRecord record) {
+    if (level != null && (record.getLevel() == null || LEVELS.indexOf(record.getLevel()) < LEVELS.indexOf(level))) {
+      return false;
+    }
+    if (logger != null && (record.getLogger() == null || !record.getLogger().startsWith(logger))) {
+      return false;
+    }
+    if (pattern != null && !find(record)) {
+      return false;
+    }
+
+    return true;
+  }
+
+  private boolean find(PortalLogRecord record) {
+    if (record.getMessage() != null && pattern.matcher(record.getMessage()).find()) return true;
+
+    return record.getStackTrace().stream().anyMatch(line -> pattern.matcher(line).find());
+  }
+
+  @SneakyThrows
+  private static String decode(String value) {
+    return isNullOrEmpty(value) ? null : URLDecoder.decode(value, UTF_8.name());
+  }
+
+}
@@ -0,0 +1,329 @@
+/*
+ * Copyright (c) 2016 The Ontario Institute for Cancer Research. All rights reserved.                             
+ *                                                                                                               
+ * This program and the accompanying materials are made available under the terms of the GNU Public License v3.0.
+ * You should have received a copy of the GNU General Public License along with                                  
+ * this program. If not, see <http://www.gnu.org/licenses/>.                                                     
+ *                                                                                                               
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY                           
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES                          
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT                           
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,                                
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED                          
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;                               
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER                              
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN                         
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.icgc.dcc.dev.server.portal.io;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.File;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.function.LongConsumer;
+
+import com.google.common.collect.Lists;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.Value;
+import lombok.val;
+
+/**
+ * Sparse index of a single log file.
+ * <p>
+ * The file is divided into line aligned blocks of about {@link #BLOCK_SIZE} bytes. Each block records its offset, the
+ * range of timestamps of its lines and the terms they contain. The block being appended to keeps its exact set of
+ * terms. Once complete, the set is replaced by a bloom filter sized to the number of distinct terms, with a false
+ * positive rate of about 1%. Searches only read the blocks that may contain matches, so their cost depends on the
+ * number of candidate blocks rather than the size of the file.
+ */
+@RequiredArgsConstructor
+class PortalLogIndex {
+
+  /**
+   * Constants.
+   */
+  static final int BLOCK_SIZE = 64 * 1024;
+  static final int BLOOM_BITS_PER_TERM = 10;
+  static final int BLOOM_HASHES = 7;
+  static final int MIN_TERM_LENGTH = 2;
+  static final int TIMESTAMP_LENGTH = "yyyy-MM-dd HH:mm:ss,SSS".length();
+
+  /**
+   * Metadata.
+   */
+  @Getter
+  final File file;
+  @Getter
+  final Object fileKey;
+
+  /**
+   * State.
+   */
+  final List<Block> blocks = Lists.newArrayList();
+  Block current;
+  Long lastTimestamp;
+
+  /**
+   * Offset following the last indexed line.
+   */
+  long end;
+
+  synchronized long getEnd() {
+    return end;
+  }
+
+  /**
+   * Indexes the line of {@code length} bytes starting at {@code start} of {@code bytes}, which was read from
+   * {@code offset} and is followed by a single terminator byte.
+   */
+  synchronized void addLine(byte[] bytes, int start, int length, long offset) {
+    if (current == null || offset - current.offset >= BLOCK_SIZE) {
+      if (current != null) current.complete();
+      current = new Block(offset, lastTimestamp);
+      blocks.add(current);
+    }
+
+    val timestamp = parseTimestamp(bytes, start, length);
+    if (timestamp != null) lastTimestamp = timestamp;
+    if (lastTimestamp != null) current.addTimestamp(lastTimestamp);
+
+    val block = current;
+    forEachTerm(bytes, start, length, block::addTerm);
+    end = offset + length + 1;
+  }
+
+  /**
+   * Finds the byte ranges of the blocks that may contain lines with all of {@code terms} within the time range.
+   * <p>
+   * Each check only reads the time range and a few words of the block's filter, so blocks are walked in order.
+   * 
+   * @param terms term hashes from {@link #forEachTerm}
+   * @param from inclusive lower bound in epoch millis, if any
+   * @param to exclusive upper bound in epoch millis, if any
+   */
+  synchronized List<BlockRange> findRanges(long[] terms, Long from, Long to) {
+    val ranges = Lists.<BlockRange> newArrayList();
+    for (int i = 0; i < blocks.size(); i++) {
+      val block = blocks.get(i);
+      if (!block.overlaps(from, to) || !block.containsAll(terms)) continue;
+
+      val blockEnd = i + 1 < blocks.size() ? blocks.get(i + 1).offset : end;
+      ranges.add(new BlockRange(block.offset, blockEnd, block.startTimestamp));
+    }
+
+    return ranges;
+  }
+
+  /**
+   * Passes the hash of each term of at least {@link #MIN_TERM_LENGTH} ASCII letters, digits or underscores, ignoring
+   * case.
+   */
+  static void forEachTerm(byte[] bytes, int start, int length, LongConsumer consumer) {
+    long hash = 0;
+    int termLength = 0;
+    for (int i = start; i <= start + length; i++) {
+      val b = i < start + length ? bytes[i] : 0;
+      if (isTermByte(b)) {
+        if (termLength++ == 0) hash = 0xcbf29ce484222325L;
+        hash = (hash ^ Character.toLowerCase(b)) * 0x100000001b3L;
+      } else {
+        if (termLength >= MIN_TERM_LENGTH) consumer.accept(hash);
+        termLength = 0;
+      }
+    }
+  }
+
+  static long[] getTerms(String query) {
+    val bytes = query.getBytes(UTF_8);
+    val terms = Lists.<Long> newArrayList();
+    forEachTerm(bytes, 0, bytes.length, terms::add);
+
+    return terms.stream().mapToLong(Long::longValue).toArray();
+  }
+
+  /**
+   * Parses the leading logback {@code ISO8601} date of a line, if any.
+   */
+  static Long parseTimestamp(byte[] bytes, int start, int length) {
+    if (length < TIMESTAMP_LENGTH || bytes[start + 4] != '-' || bytes[start + 10] != ' ') return null;
+
+    try {
+      return LocalDateTime.of(
+          digits(bytes, start, 4),
+          digits(bytes, start + 5, 2),
+          digits(bytes, start + 8, 2),
+          digits(bytes, start + 11, 2),
+          digits(bytes, start + 14, 2),
+          digits(bytes, start + 17, 2),
+          digits(bytes, start + 20, 3) * 1_000_000)
+          .atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    } catch (DateTimeException | NumberFormatException e) {
+      return null;
+    }
+  }
+
+  private static int digits(byte[] bytes, int start, int count) {
+    int value = 0;
+    for (int i = start; i < start + count; i++) {
+      val digit = bytes[i] - '0';
+      if (digit < 0 || digit > 9) throw new NumberFormatException();
+
+      value = value * 10 + digit;
+    }
+
+    return value;
+  }
+
+  private static boolean isTermByte(int b) {
+    return b >= 'a' && b <= 'z' || b >= 'A' && b <= 'Z' || b >= '0' && b <= '9' || b == '_';
+  }
+
+  /**
+   * Byte range of a candidate block.
+   */
+  @Value
+  static class BlockRange {
+
+    long start;
+    long end;
+
+    /**
+     * Timestamp of the last timestamped line before the block, which applies to the continuation lines it starts with.
+     */
+    Long timestamp;
+
+  }
+
+  /**
+   * A line aligned range of the file.
+   */
+  @RequiredArgsConstructor
+  static class Block {
+
+    final long offset;
+    final Long startTimestamp;
+
+    // Exact terms while appended to, then a bloom filter
+    TermSet terms = new TermSet();
+    long[] bloom;
+
+    long minTimestamp = Long.MAX_VALUE;
+    long maxTimestamp = Long.MIN_VALUE;
+
+    void addTimestamp(long timestamp) {
+      minTimestamp = Math.min(minTimestamp, timestamp);
+      maxTimestamp = Math.max(maxTimestamp, timestamp);
+    }
+
+    void addTerm(long hash) {
+      terms.add(hash);
+    }
+
+    /**
+     * Replaces the terms with a bloom filter of {@link #BLOOM_BITS_PER_TERM} bits per distinct term.
+     */
+    void complete() {
+      val words = Math.max(1, (terms.size() * BLOOM_BITS_PER_TERM + 63) / 64);
+      bloom = new long[words];
+      terms.forEach(hash -> {
+        for (int i = 0; i < BLOOM_HASHES; i++) {
+          int bit = getBit(hash, i);
+          bloom[bit >>> 6] |= 1L << bit;
+        }
+      });
+
+      terms = null;
+    }
+
+    boolean containsAll(long[] hashes) {
+      for (val hash : hashes) {
+        if (bloom == null) {
+          if (!terms.contains(hash)) return false;
+          continue;
+        }
+
+        for (int i = 0; i < BLOOM_HASHES; i++) {
+          val bit = getBit(hash, i);
+          if ((bloom[bit >>> 6] & 1L << bit) == 0) return false;
+        }
+      }
+
+      return true;
+    }
+
+    boolean overlaps(Long from, Long to) {
+      // Blocks without timestamps can't be excluded
+      if (minTimestamp > maxTimestamp) return true;
+
+      return (from == null || maxTimestamp >= from) && (to == null || minTimestamp < to);
+    }
+
+    private int getBit(long hash, int i) {
+      val combined = (int) hash + i * (int) (hash >>> 32);
+      return (combined & Integer.MAX_VALUE) % (bloom.length * 64);
+    }
+
+  }
+
+  /**
+   * Open addressing set of term hashes that does not box them.
+   */
+  static class TermSet {
+
+    // 0 marks an empty slot, so a hash of 0 is stored as 1
+    long[] slots = new long[256];
+    int size;
+
+    int size() {
+      return size;
+    }
+
+    void add(long hash) {
+      if (hash == 0) hash = 1;
+      if ((size + 1) * 2 > slots.length) resize();
+
+      int slot = find(slots, hash);
+      if (slots[slot] == 0) {
+        slots[slot] = hash;
+        size++;
+      }
+    }
+
+    boolean contains(long hash) {
+      if (hash == 0) hash = 1;
+      return slots[find(slots, hash)] != 0;
+    }
+
+    void forEach(LongConsumer consumer) {
+      for (val hash : slots) {
+        if (hash != 0) consumer.accept(hash);
+      }
+    }
+
+    private void resize() {
+      val previous = slots;
+      slots = new long[previous.length * 2];
+      for (val hash : previous) {
+        if (hash != 0) slots[find(slots, hash)] = hash;
+      }
+    }
+
+    private static int find(long[] slots, long hash) {
+      val mask = slots.length - 1;
+      int slot = (int) (hash ^ hash >>> 32) & mask;
+      while (slots[slot] != 0 && slots[slot] != hash) {
+        slot = slot + 1 & mask;
+      }
+
+      return slot;
+    }
+
+  }
+
+}
@@ -0,0 +1,366 @@
+/*
+ * Copyright (c) 2016 The Ontario Institute for Cancer Research. All rights reserved.                             
+ *                                                                                                               
+ * This program and the accompanying materials are made available under the terms of the GNU Public License v3.0.
+ * You should have received a copy of the GNU General Public License along with                                  
+ * this program. If not, see <http://www.gnu.org/licenses/>.                                                     
+ *                                                                                                               
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY                           
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES                          
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT                           
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,                                
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED                          
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;                               
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER                              
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN                         
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.icgc.dcc.dev.server.portal.io;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.Executors.newSingleThreadExecutor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.icgc.dcc.dev.server.portal.io.PortalLogIndex.BlockRange;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import lombok.Data;
+import lombok.NonNull;
+import lombok.SneakyThrows;
+import lombok.Value;
+import lombok.val;
+import lombok.experimental.Accessors;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Maintains a {@link PortalLogIndex} of the current and rotated logs of every portal for searching.
+ * <p>
+ * All portal logs are tailed continuously and the index of the current log is extended on a background thread
+ * whenever the tailer reads new lines. Rotated logs, plain or compressed into {@link PortalLogSegment}s, are indexed on
+ * first search.
+ */
+@Slf4j
+@Component
+public class PortalLogIndexer {
+
+  /**
+   * Constants.
+   */
+  static final String CONSUMER = "indexer";
+  static final int READ_SIZE = 64 * 1024;
+  static final Pattern TERM_SEPARATOR = Pattern.compile("[^A-Za-z0-9_]+");
+
+  /**
+   * Dependencies.
+   */
+  @Autowired
+  PortalFileSystem fileSystem;
+  @Autowired
+  PortalLogs logs;
+
+  /**
+   * State.
+   */
+  final Set<Integer> tailed = Sets.newConcurrentHashSet();
+  final Map<Integer, PortalLogIndex> indexes = Maps.newConcurrentMap();
+  final Map<File, RotatedIndex> rotatedIndexes = Maps.newConcurrentMap();
+  final Set<Integer> pending = Sets.newConcurrentHashSet();
+  final ExecutorService executor =
+      newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat("portal-log-indexer").setDaemon(true).build());
+
+  @PostConstruct
+  public void init() {
+    logs.addBatchListener(batch -> update(batch.getPortalId()));
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+
+  /**
+   * Follows the logs of new portals and forgets those of removed ones.
+   */
+  @Scheduled(fixedDelayString = "${portal.logs.indexInterval}")
+  public void sync() {
+    val portalIds = fileSystem.getPortalIds();
+    for (val portalId : portalIds) {
+      if (!tailed.add(portalId)) continue;
+
+      logs.startTailing(portalId, CONSUMER);
+      update(portalId);
+    }
+
+    for (val portalId : tailed) {
+      if (portalIds.contains(portalId)) continue;
+
+      logs.stopTailing(portalId, CONSUMER);
+      tailed.remove(portalId);
+      indexes.remove(portalId);
+    }
+
+    // Rotated logs of removed portals
+    rotatedIndexes.keySet().removeIf(file -> !file.exists());
+  }
+
+  /**
+   * Discards the index of the current log of {@code portalId} after it was truncated and indexes it again.
+   */
+  public void reset(@NonNull Integer portalId) {
+    // Ordered with indexing so that a running update cannot extend the discarded index afterwards
+    executor.execute(() -> {
+      indexes.remove(portalId);
+      tryIndex(portalId);
+    });
+  }
+
+  /**
+   * Schedules indexing of the lines appended to the log of {@code portalId} since the last update.
+   */
+  public void update(@NonNull Integer portalId) {
+    if (!pending.add(portalId)) return;
+
+    executor.execute(() -> {
+      pending.remove(portalId);
+      tryIndex(portalId);
+    });
+  }
+
+  /**
+   * Finds up to {@code limit} lines that contain all terms of {@code query} within the time range.
+   * 
+   * @param from inclusive lower bound in epoch millis, if any
+   * @param to exclusive upper bound in epoch millis, if any
+   */
+  @SneakyThrows
+  public List<LogMatch> search(@NonNull Integer portalId, @NonNull String query, Long from, Long to, int limit) {
+    val terms = PortalLogIndex.getTerms(query);
+    val words = Arrays.stream(TERM_SEPARATOR.split(query.toLowerCase()))
+        .filter(word -> word.length() >= PortalLogIndex.MIN_TERM_LENGTH)
+        .collect(Collectors.toList());
+
+    val matches = Lists.<LogMatch> newArrayList();
+    for (val index : getIndexes(portalId)) {
+      try (PortalLogSource source = PortalLogSource.open(index.getFile())) {
+        for (val range : index.findRanges(terms, from, to)) {
+          scan(index.getFile(), source, range, words, from, to, limit, matches);
+          if (matches.size() >= limit) return matches;
+        }
+      } catch (NoSuchFileException e) {
+        // Rotated or removed since indexed
+      }
+    }
+
+    return matches;
+  }
+
+  private List<PortalLogIndex> getIndexes(Integer portalId) throws IOException {
+    val result = Lists.<PortalLogIndex> newArrayList();
+
+    val logFile = fileSystem.getLogFile(portalId);
+    val files = fileSystem.getLogsDir(portalId).listFiles(file -> file.isFile() && !file.equals(logFile)
+        && isSearchable(file));
+    if (files != null) {
+      Arrays.sort(files);
+      for (val file : files) {
+        result.add(getRotatedIndex(file));
+      }
+    }
+
+    val current = indexes.get(portalId);
+    if (current != null) result.add(current);
+
+    return result;
+  }
+
+  private PortalLogIndex getRotatedIndex(File file) throws IOException {
+    val rotatedIndex = rotatedIndexes.get(file);
+    if (rotatedIndex != null && rotatedIndex.isCurrent()) return rotatedIndex.index;
+
+    log.info("Indexing rotated log {}...", file);
+    val index = new PortalLogIndex(file, getFileKey(file));
+    try (PortalLogSource source = PortalLogSource.open(file)) {
+      extend(index, source, true);
+    }
+
+    rotatedIndexes.put(file, new RotatedIndex(index, file.length(), file.lastModified()));
+    return index;
+  }
+
+  private void tryIndex(Integer portalId) {
+    try {
+      index(portalId);
+    } catch (Exception e) {
+      log.error("Error indexing log of portal " + portalId + ":", e);
+    }
+  }
+
+  private void index(Integer portalId) throws IOException {
+    val logFile = fileSystem.getLogFile(portalId);
+    val fileKey = getFileKey(logFile);
+    if (fileKey == null) return;
+
+    PortalLogIndex index = indexes.get(portalId);
+    if (index == null || !fileKey.equals(index.getFileKey()) || logFile.length() < index.getEnd()) {
+      // New, rotated or truncated
+      index = new PortalLogIndex(logFile, fileKey);
+      indexes.put(portalId, index);
+    }
+
+    try (PortalLogSource source = PortalLogSource.open(logFile)) {
+      extend(index, source, false);
+    }
+  }
+
+  /**
+   * Indexes the complete lines following the end of {@code index}, including a trailing partial line when
+   * {@code complete}.
+   */
+  private static void extend(PortalLogIndex index, PortalLogSource source, boolean complete) throws IOException {
+    val buffer = ByteBuffer.allocate(READ_SIZE);
+    val bytes = buffer.array();
+
+    long position = index.getEnd();
+    for (int count; (count = source.read(buffer, position)) > 0; buffer.clear()) {
+      int start = 0;
+      for (int i = 0; i < count; i++) {
+        if (bytes[i] != '\n') continue;
+
+        index.addLine(bytes, start, i - start, position + start);
+        start = i + 1;
+      }
+
+      if (start == 0 && count == bytes.length) {
+        // Overly long line
+        index.addLine(bytes, 0, count - 1, position);
+        start = count;
+      }
+
+      position += start;
+      if (start < count && count < bytes.length) break;
+    }
+
+    val remaining = source.size() - position;
+    if (complete && remaining > 0 && remaining <= READ_SIZE) {
+      buffer.clear();
+      val count = source.read(buffer, position);
+      if (count > 0) index.addLine(bytes, 0, count, position);
+    }
+  }
+
+  private static void scan(File file, PortalLogSource source, BlockRange range, List<String> words, Long from,
+      Long to, int limit, List<LogMatch> matches) throws IOException {
+    val start = range.getStart();
+    val buffer = ByteBuffer.allocate((int) (range.getEnd() - start));
+    while (buffer.hasRemaining()) {
+      if (source.read(buffer, start + buffer.position()) < 0) break;
+    }
+
+    val bytes = buffer.array();
+    val length = buffer.position();
+
+    // Continuation lines at the start of the block belong to the last record before it
+    Long timestamp = range.getTimestamp();
+    for (int lineStart = 0, i = 0; i <= length; i++) {
+      if (i < length && bytes[i] != '\n') continue;
+
+      val lineTimestamp = PortalLogIndex.parseTimestamp(bytes, lineStart, i - lineStart);
+      if (lineTimestamp != null) timestamp = lineTimestamp;
+
+      val line = new String(bytes, lineStart, i - lineStart, UTF_8);
+      if (isMatch(line, words, timestamp, from, to)) {
+        matches.add(new LogMatch()
+            .setFile(file.getName())
+            .setOffset(start + lineStart)
+            .setTimestamp(timestamp)
+            .setLine(line));
+        if (matches.size() >= limit) return;
+      }
+
+      lineStart = i + 1;
+    }
+  }
+
+  private static boolean isMatch(String line, List<String> words, Long timestamp, Long from, Long to) {
+    if (line.isEmpty()) return false;
+    if (timestamp != null && (from != null && timestamp < from || to != null && timestamp >= to)) return false;
+
+    val lowerCaseLine = line.toLowerCase();
+    return words.stream().allMatch(lowerCaseLine::contains);
+  }
+
+  private static boolean isSearchable(File file) {
+    // Other compressed files and segment block indexes are not searchable as text
+    val name = file.getName();
+    if (name.endsWith(".gz")) return PortalLogSegment.isSegment(file);
+
+    return !name.endsWith(PortalLogSegment.INDEX_EXTENSION);
+  }
+
+  private static Object getFileKey(File file) throws IOException {
+    try {
+      return Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey();
+    } catch (NoSuchFileException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Index of a rotated log that is valid as long as the file is unchanged.
+   */
+  @Value
+  static class RotatedIndex {
+
+    PortalLogIndex index;
+    long length;
+    long lastModified;
+
+    boolean isCurrent() {
+      val file = index.getFile();
+      return file.length() == length && file.lastModified() == lastModified;
+    }
+
+  }
+
+  /**
+   * A line found by a search.
+   */
+  @Data
+  @Accessors(chain = true)
+  public static class LogMatch {
+
+    /**
+     * Name of the log file within the logs directory.
+     */
+    String file;
+
+    long offset;
+    Long timestamp;
+    String line;
+
+  }
+
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2016 The Ontario Institute for Cancer Research. All rights reserved.                             
+ *                                                                                                               
+ * This program and the accompanying materials are made available under the terms of the GNU Public License v3.0.
+ * You should have received a copy of the GNU General Public License along with                                  
+ * this program. If not, see <http://www.gnu.org/licenses/>.                                                     
+ *                                                                                                               
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY                           
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES                          
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT                           
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,                                
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED                          
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;                               
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER                              
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN                         
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.icgc.dcc.dev.server.portal.io;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+import com.google.common.collect.Lists;
+
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.val;
+
+/**
+ * Parses the consecutive batches of lines of a portal log into {@link PortalLogRecord}s.
+ * <p>
+ * Lines are expected to follow the logback pattern {@code %date{ISO8601} [%thread] %-5level %logger - %msg}. Lines that
+ * don't are treated as continuations of the preceding record, such as stack trace lines. Since the tailer delivers
+ * everything written so far, the last record of a batch is complete unless the batch was cut short, in which case it
+ * is kept open and completed by the lines of the next batch.
+ * <p>
+ * Not thread safe, batches of a portal are parsed in order on the tailer thread.
+ */
+@RequiredArgsConstructor
+public class PortalLogParser {
+
+  /**
+   * Constants.
+   */
+  static final Pattern LINE_PATTERN = Pattern.compile(
+      "^(\\d{4}-\\d{2}-\\d{2} \\d{2}:\\d{2}:\\d{2},\\d{3}) \\[([^\\]]*)\\] (TRACE|DEBUG|INFO|WARN|ERROR)\\s+(\\S+) - (.*)$");
+  static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss,SSS");
+
+  /**
+   * Metadata.
+   */
+  @NonNull
+  final Integer portalId;
+
+  /**
+   * State.
+   */
+  PortalLogRecord open;
+
+  /**
+   * @return the records completed by the batch, in order
+   */
+  public List<PortalLogRecord> parse(@NonNull PortalLogBatch batch) {
+    val records = Lists.<PortalLogRecord> newArrayList();
+
+    PortalLogRecord record = open;
+    long offset = batch.getOffset();
+    for (int i = 0; i < batch.size(); i++) {
+      val line = batch.getLine(i);
+      val matcher = LINE_PATTERN.matcher(line);
+      if (matcher.matches()) {
+        if (record != null) records.add(record);
+        record = new PortalLogRecord()
+            .setPortalId(portalId)
+            .setOffset(offset)
+            .setTimestamp(parseTimestamp(matcher.group(1)))
+            .setThread(matcher.group(2))
+            .setLevel(matcher.group(3))
+            .setLogger(matcher.group(4))
+            .setMessage(matcher.group(5));
+      } else if (record != null) {
+        record.getStackTrace().add(line);
+      } else {
+        // Unstructured output
+        record = new PortalLogRecord().setPortalId(portalId).setOffset(offset).setMessage(line);
+      }
+
+      // Terminators were stripped, so this assumes '\n' which only matters after '\r\n' lines
+      offset += batch.getEnd(i) - batch.getStart(i) + 1;
+    }
+
+    open = null;
+    if (batch.isContinued()) {
+      open = record;
+    } else if (record != null) {
+      records.add(record);
+    }
+
+    return records;
+  }
+
+  /**
+   * Completes the record kept open by the last batch, if any.
+   */
+  public Optional<PortalLogRecord> close() {
+    val record = Optional.ofNullable(open);
+    open = null;
+
+    return record;
+  }
+
+  private static Long parseTimestamp(String text) {
+    try {
+      return LocalDateTime.parse(text, DATE_FORMAT).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    } catch (DateTimeParseException e) {
+      return null;
+    }
+  }
+
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2016 The Ontario Institute for Cancer Research. All rights reserved.                             
+ *                                                                                                               
+ * This program and the accompanying materials are made available under the terms of the GNU Public License v3.0.
+ * You should have received a copy of the GNU General Public License along with                                  
+ * this program. If not, see <http://www.gnu.org/licenses/>.                                                     
+ *                                                                                                               
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY                           
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES                          
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT                           
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,                                
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED                          
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;                               
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER                              
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN                         
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.icgc.dcc.dev.server.portal.io;
+
+import java.nio.ByteBuffer;
+
+import lombok.val;
+
+/**
+ * Bounded buffer of the most recent bytes of a log, held in direct memory and addressed by file offset.
+ * <p>
+ * Not thread safe.
+ */
+class PortalLogRing {
+
+  /**
+   * State.
+   */
+  final ByteBuffer bytes;
+  final int capacity;
+
+  /**
+   * Offset of the oldest retained byte.
+   */
+  long start;
+
+  /**
+   * Offset following the newest retained byte.
+   */
+  long end;
+
+  PortalLogRing(int capacity) {
+    this.bytes = ByteBuffer.allocateDirect(capacity);
+    this.capacity = capacity;
+  }
+
+  void reset(long offset) {
+    start = offset;
+    end = offset;
+  }
+
+  /**
+   * Appends the first {@code count} bytes of {@code source}, which were read from {@code offset}.
+   */
+  void write(ByteBuffer source, int count, long offset) {
+    // Discontinuous after truncation or rotation
+    if (offset != end) reset(offset);
+
+    for (int index = Math.max(0, count - capacity); index < count;) {
+      val at = (int) ((offset + index) % capacity);
+      val length = Math.min(count - index, capacity - at);
+
+      val from = source.duplicate();
+      from.limit(index + length);
+      from.position(index);
+      val to = bytes.duplicate();
+      to.position(at);
+      to.put(from);
+
+      index += length;
+    }
+
+    end = offset + count;
+    start = Math.max(start, end - capacity);
+  }
+
+  /**
+   * Copies the retained bytes between {@code from} and {@code to} to the heap.
+   */
+  byte[] read(long from, long to) {
+    from = Math.max(from, start);
+    to = Math.min(to, end);
+    if (from >= to) return new byte[0];
+
+    val result = new byte[(int) (to - from)];
+    for (int index = 0; index < result.length;) {
+      val at = (int) ((from + index) % capacity);
+      val length = Math.min(result.length - index, capacity - at);
+
+      val source = bytes.duplicate();
+      source.position(at);
+      source.get(result, index, length);
+
+      index += length;
+    }
+
+    return result;
+  }
+
+}
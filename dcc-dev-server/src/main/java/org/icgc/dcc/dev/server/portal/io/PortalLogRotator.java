@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) 2016 The Ontario Institute for Cancer Research. All rights reserved.                             
+ *                                                                                                               
+ * This program and the accompanying materials are made available under the terms of the GNU Public License v3.0.
+ * You should have received a copy of the GNU General Public License along with                                  
+ * this program. If not, see <http://www.gnu.org/licenses/>.                                                     
+ *                                                                                                               
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY                           
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES                          
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT                           
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,                                
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED                          
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;                               
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER                              
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN                         
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.icgc.dcc.dev.server.portal.io;
+
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.concurrent.Executors.newSingleThreadExecutor;
+import static org.apache.commons.io.FileUtils.deleteDirectory;
+import static org.apache.commons.io.FileUtils.sizeOfDirectory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import lombok.NonNull;
+import lombok.val;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Rotates portal logs into compressed {@link PortalLogSegment}s and archives the logs of removed portals.
+ * <p>
+ * Logs are rotated by copying and truncating them in place since the portal keeps them open for appending. Lines
+ * appended between the final copy and the truncation are lost.
+ */
+@Slf4j
+@Component
+public class PortalLogRotator {
+
+  /**
+   * Constants.
+   */
+  static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmssSSS");
+
+  /**
+   * Configuration.
+   */
+  @Value("${portal.logs.rotation.maxSize}")
+  long maxSize;
+  @Value("${portal.logs.rotation.maxAge}")
+  long maxAge;
+  @Value("${portal.logs.archive.maxSize}")
+  long maxArchiveSize;
+
+  /**
+   * Dependencies.
+   */
+  @Autowired
+  PortalFileSystem fileSystem;
+  @Autowired
+  PortalLogIndexer indexer;
+
+  /**
+   * State.
+   */
+  // Time each portal log was last rotated or first seen
+  final Map<Integer, Long> rotationTimes = Maps.newConcurrentMap();
+  final AtomicBoolean checking = new AtomicBoolean();
+  // Compression can take a while for large logs and must not hold up the shared scheduler threads
+  final ExecutorService executor =
+      newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat("portal-log-rotator").setDaemon(true).build());
+
+  @PreDestroy
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+
+  /**
+   * Rotates the logs that are over size or age and trims the archive to its budget.
+   */
+  @Scheduled(fixedDelayString = "${portal.logs.rotation.interval}")
+  public void check() {
+    // Skipped while the previous check is still running
+    if (!checking.compareAndSet(false, true)) return;
+
+    executor.execute(() -> {
+      try {
+        rotateAll();
+      } finally {
+        checking.set(false);
+      }
+    });
+  }
+
+  private void rotateAll() {
+    val now = System.currentTimeMillis();
+    val portalIds = fileSystem.getPortalIds();
+    for (val portalId : portalIds) {
+      val rotationTime = rotationTimes.computeIfAbsent(portalId, id -> now);
+      val size = fileSystem.getLogFile(portalId).length();
+      if (size == 0 || size < maxSize && now - rotationTime < maxAge) continue;
+
+      try {
+        rotate(portalId);
+      } catch (Exception e) {
+        log.error("Error rotating log of portal " + portalId + ":", e);
+      }
+    }
+
+    rotationTimes.keySet().retainAll(portalIds);
+    trimArchive();
+  }
+
+  /**
+   * Moves the contents of the current log of {@code portalId} into a new segment.
+   */
+  public synchronized void rotate(@NonNull Integer portalId) throws IOException {
+    rotationTimes.put(portalId, System.currentTimeMillis());
+
+    val logFile = fileSystem.getLogFile(portalId);
+    if (!logFile.isFile() || logFile.length() == 0) return;
+
+    val segmentFile = new File(logFile.getParentFile(), fileSystem.getBaseName() + "." + createTimestamp()
+        + PortalLogSegment.EXTENSION);
+    log.info("Rotating log of portal {} to {}...", portalId, segmentFile);
+
+    try (FileChannel channel = FileChannel.open(logFile.toPath(), READ, WRITE)) {
+      long copied;
+      try (PortalLogSegment.Writer writer = PortalLogSegment.create(segmentFile)) {
+        // Catch up with what was appended while compressing to keep the truncated window small
+        val size = channel.size();
+        writer.write(channel, 0, size);
+        copied = channel.size();
+        writer.write(channel, size, copied);
+      }
+
+      // Copy-truncate keeps the file so that the portal can keep appending to it, which loses anything appended
+      // after the final copy
+      val lost = channel.size() - copied;
+      channel.truncate(0);
+      if (lost > 0) log.warn("Lost at least {} bytes appended to the log of portal {} while rotating", lost, portalId);
+    }
+
+    // The file keeps its identity, so the index of its previous contents must be dropped explicitly
+    indexer.reset(portalId);
+  }
+
+  /**
+   * Moves the logs of {@code portalId} into the archive, compressing those that are not already segments.
+   */
+  public synchronized void archive(@NonNull Integer portalId) throws IOException {
+    val files = fileSystem.getLogsDir(portalId).listFiles(file -> file.isFile() && file.length() > 0);
+    if (files == null || files.length == 0) return;
+
+    val archiveDir = new File(fileSystem.getArchiveDir(), portalId + "-" + createTimestamp());
+    log.info("Archiving logs of portal {} to {}...", portalId, archiveDir);
+    Files.createDirectories(archiveDir.toPath());
+
+    for (val file : files) {
+      val name = file.getName();
+      if (name.endsWith(".gz") || name.endsWith(PortalLogSegment.INDEX_EXTENSION)) {
+        Files.move(file.toPath(), new File(archiveDir, name).toPath());
+      } else {
+        val segmentName = name.endsWith(".log") ? name + ".gz" : name + PortalLogSegment.EXTENSION;
+        try (
+            FileChannel channel = FileChannel.open(file.toPath(), READ);
+            PortalLogSegment.Writer writer = PortalLogSegment.create(new File(archiveDir, segmentName))) {
+          writer.write(channel, 0, channel.size());
+        }
+      }
+    }
+
+    trimArchive();
+  }
+
+  /**
+   * Removes the oldest archives until the archive is within its budget.
+   */
+  synchronized void trimArchive() {
+    val archives = fileSystem.getArchiveDir().listFiles(File::isDirectory);
+    if (archives == null) return;
+
+    Arrays.sort(archives, Comparator.comparingLong(File::lastModified));
+    long total = Arrays.stream(archives).mapToLong(archive -> sizeOfDirectory(archive)).sum();
+    for (val archive : archives) {
+      if (total <= maxArchiveSize) break;
+
+      log.info("Removing archive {} to stay within {} bytes...", archive, maxArchiveSize);
+      total -= sizeOfDirectory(archive);
+      try {
+        deleteDirectory(archive);
+      } catch (IOException e) {
+        log.warn("Problem removing archive {}: {}", archive, e.getMessage());
+      }
+    }
+  }
+
+  private static String createTimestamp() {
+    return LocalDateTime.now().format(TIMESTAMP_FORMAT);
+  }
+
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright (c) 2016 The Ontario Institute for Cancer Research. All rights reserved.                             
+ *                                                                                                               
+ * This program and the accompanying materials are made available under the terms of the GNU Public License v3.0.
+ * You should have received a copy of the GNU General Public License along with                                  
+ * this program. If not, see <http://www.gnu.org/licenses/>.                                                     
+ *                                                                                                               
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY                           
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES                          
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT                           
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,                                
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED                          
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;                               
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER                              
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN                         
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.icgc.dcc.dev.server.portal.io;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.output.CloseShieldOutputStream;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
+
+import lombok.Cleanup;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.val;
+
+/**
+ * A rotated log stored as a sequence of independently compressed gzip members, with a block index alongside.
+ * <p>
+ * The file is a valid gzip file as a whole. The {@code .idx} file records the uncompressed and compressed offsets of
+ * each member so that a range can be read by inflating only the members that cover it.
+ */
+public class PortalLogSegment implements PortalLogSource {
+
+  /**
+   * Constants.
+   */
+  public static final String EXTENSION = ".log.gz";
+  static final String INDEX_EXTENSION = ".idx";
+  static final int BLOCK_SIZE = 1024 * 1024;
+  static final int INDEX_VERSION = 1;
+
+  /**
+   * Metadata.
+   */
+  @Getter
+  final File file;
+
+  /**
+   * State.
+   */
+  final FileChannel channel;
+  final long[] offsets;
+  final long[] positions;
+  final long size;
+
+  // Last inflated block
+  int cachedBlock = -1;
+  byte[] cached;
+
+  private PortalLogSegment(File file, long[] offsets, long[] positions, long size) throws IOException {
+    this.file = file;
+    this.channel = FileChannel.open(file.toPath(), READ);
+    this.offsets = offsets;
+    this.positions = positions;
+    this.size = size;
+  }
+
+  public static boolean isSegment(@NonNull File file) {
+    return file.getName().endsWith(EXTENSION) && getIndexFile(file).exists();
+  }
+
+  public static File getIndexFile(@NonNull File file) {
+    return new File(file.getPath() + INDEX_EXTENSION);
+  }
+
+  public static PortalLogSegment open(@NonNull File file) throws IOException {
+    @Cleanup
+    val input = new DataInputStream(new FileInputStream(getIndexFile(file)));
+    val version = input.readInt();
+    if (version != INDEX_VERSION) throw new IOException("Unsupported segment index version " + version);
+
+    val count = input.readInt();
+    val offsets = new long[count];
+    val positions = new long[count];
+    for (int i = 0; i < count; i++) {
+      offsets[i] = input.readLong();
+      positions[i] = input.readLong();
+    }
+
+    return new PortalLogSegment(file, offsets, positions, input.readLong());
+  }
+
+  /**
+   * Starts writing a segment to {@code file}.
+   */
+  public static Writer create(@NonNull File file) throws IOException {
+    return new Writer(file);
+  }
+
+  @Override
+  public long size() {
+    return size;
+  }
+
+  @Override
+  public int read(ByteBuffer buffer, long position) throws IOException {
+    if (position >= size) return -1;
+
+    int total = 0;
+    while (buffer.hasRemaining() && position < size) {
+      val block = findBlock(position);
+      val bytes = inflate(block);
+      val start = (int) (position - offsets[block]);
+      val count = Math.min(buffer.remaining(), bytes.length - start);
+
+      buffer.put(bytes, start, count);
+      position += count;
+      total += count;
+    }
+
+    return total;
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  private int findBlock(long position) {
+    val index = Arrays.binarySearch(offsets, position);
+    return index >= 0 ? index : -index - 2;
+  }
+
+  private byte[] inflate(int block) throws IOException {
+    if (block == cachedBlock) return cached;
+
+    val start = positions[block];
+    val end = block + 1 < positions.length ? positions[block + 1] : channel.size();
+    val compressed = ByteBuffer.allocate((int) (end - start));
+    while (compressed.hasRemaining()) {
+      if (channel.read(compressed, start + compressed.position()) < 0) break;
+    }
+
+    val length = (int) ((block + 1 < offsets.length ? offsets[block + 1] : size) - offsets[block]);
+    val bytes = new byte[length];
+    @Cleanup
+    val input = new GZIPInputStream(new ByteArrayInputStream(compressed.array(), 0, compressed.position()));
+    ByteStreams.readFully(input, bytes);
+
+    cachedBlock = block;
+    cached = bytes;
+
+    return bytes;
+  }
+
+  /**
+   * Appends blocks to a new segment and writes its index on close.
+   */
+  public static class Writer implements AutoCloseable {
+
+    final File file;
+    final CountingOutputStream output;
+    final byte[] block = new byte[BLOCK_SIZE];
+
+    long[] offsets = new long[16];
+    long[] positions = new long[16];
+    int count;
+    long size;
+
+    Writer(File file) throws IOException {
+      this.file = file;
+      this.output = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+    }
+
+    /**
+     * Compresses the bytes of {@code source} between {@code from} and {@code to} as one or more blocks.
+     */
+    public void write(FileChannel source, long from, long to) throws IOException {
+      for (long position = from; position < to;) {
+        val buffer = ByteBuffer.wrap(block, 0, (int) Math.min(BLOCK_SIZE, to - position));
+        while (buffer.hasRemaining()) {
+          if (source.read(buffer, position + buffer.position()) < 0) break;
+        }
+
+        val length = buffer.position();
+        if (length == 0) break;
+
+        writeBlock(length);
+        position += length;
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      output.close();
+
+      @Cleanup
+      val index = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(getIndexFile(file))));
+      index.writeInt(INDEX_VERSION);
+      index.writeInt(count);
+      for (int i = 0; i < count; i++) {
+        index.writeLong(offsets[i]);
+        index.writeLong(positions[i]);
+      }
+      index.writeLong(size);
+    }
+
+    private void writeBlock(int length) throws IOException {
+      if (count == offsets.length) {
+        offsets = Arrays.copyOf(offsets, count * 2);
+        positions = Arrays.copyOf(positions, count * 2);
+      }
+
+      offsets[count] = size;
+      positions[count] = output.getCount();
+      count++;
+
+      // Each block is a complete gzip member
+      try (GZIPOutputStream member = new GZIPOutputStream(new CloseShieldOutputStream(output))) {
+        member.write(block, 0, length);
+      }
+
+      size += length;
+    }
+
+  }
+
+}
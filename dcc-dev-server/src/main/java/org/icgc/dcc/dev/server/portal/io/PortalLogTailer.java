@@ -0,0 +1,448 @@
+/*
+ * Copyright (c) 2016 The Ontario Institute for Cancer Research. All rights reserved.                             
+ *                                                                                                               
+ * This program and the accompanying materials are made available under the terms of the GNU Public License v3.0.
+ * You should have received a copy of the GNU General Public License along with                                  
+ * this program. If not, see <http://www.gnu.org/licenses/>.                                                     
+ *                                                                                                               
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY                           
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES                          
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT                           
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,                                
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED                          
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;                               
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER                              
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN                         
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.icgc.dcc.dev.server.portal.io;
+
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.util.concurrent.Executors.newSingleThreadExecutor;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.icgc.dcc.dev.server.portal.io.PortalLogs.characterEnd;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ExecutorService;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Queues;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import lombok.NonNull;
+import lombok.val;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Tails the logs of all subscribed portals from a single thread.
+ * <p>
+ * The logs directories are watched for changes and polled with a backoff between {@code minPollInterval} and
+ * {@code maxPollInterval} in case events are missed or unsupported. New bytes are read through one shared buffer and
+ * split into lines that are delivered in batches of up to {@code maxBatchLines} per read. Rotated logs are drained
+ * before the new file is followed and truncated logs are re-read from the start.
+ * <p>
+ * The last {@code replaySize} bytes of each tailed log are kept in a {@link PortalLogRing} so that new subscribers can
+ * be brought up to date without reading the file.
+ */
+@Slf4j
+@Component
+public class PortalLogTailer {
+
+  /**
+   * Constants.
+   */
+  static final int READ_BUFFER_SIZE = 64 * 1024;
+  static final int MAX_LINE_LENGTH = 64 * 1024;
+
+  /**
+   * Configuration.
+   */
+  @Value("${portal.logs.minPollInterval}")
+  long minPollInterval;
+  @Value("${portal.logs.maxPollInterval}")
+  long maxPollInterval;
+  @Value("${portal.logs.maxBatchLines}")
+  int maxBatchLines;
+  @Value("${portal.logs.replaySize}")
+  int replaySize;
+
+  /**
+   * State.
+   */
+  final Queue<Runnable> commands = Queues.newConcurrentLinkedQueue();
+  final ExecutorService executor =
+      newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat("portal-log-tailer").setDaemon(true).build());
+
+  // Only accessed by the tailer thread
+  final Map<Integer, TailedFile> files = Maps.newHashMap();
+  final ByteBuffer buffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+  WatchService watcher;
+
+  volatile boolean running;
+
+  @PostConstruct
+  public void init() throws IOException {
+    watcher = FileSystems.getDefault().newWatchService();
+    running = true;
+    executor.execute(this::run);
+  }
+
+  @PreDestroy
+  public void shutdown() throws IOException {
+    running = false;
+    watcher.close();
+    executor.shutdown();
+  }
+
+  /**
+   * Starts following {@code file} from its current end, passing batches of complete lines to {@code listener}.
+   */
+  public void tail(@NonNull Integer portalId, @NonNull File file, @NonNull LineListener listener) {
+    commands.add(() -> {
+      if (files.containsKey(portalId)) return;
+
+      TailedFile tailedFile = new TailedFile(portalId, file.toPath(), listener);
+      files.put(portalId, tailedFile);
+      tailedFile.open(true);
+    });
+  }
+
+  /**
+   * Passes the buffered lines that precede the next batch to be delivered for {@code portalId} to {@code listener}.
+   * <p>
+   * Runs between reads on the tailer thread, so that the lines passed are contiguous with the lines delivered
+   * afterwards: batches delivered before end at or before the replay's {@code nextOffset} and batches delivered after
+   * start at it. The replay is passed even when empty so that it always marks that boundary.
+   */
+  public void replay(@NonNull Integer portalId, @NonNull LineListener listener) {
+    commands.add(() -> {
+      TailedFile tailedFile = files.get(portalId);
+      if (tailedFile == null) {
+        listener.handle(new PortalLogBatch(portalId));
+      } else {
+        tailedFile.replay(listener);
+      }
+    });
+  }
+
+  public void untail(@NonNull Integer portalId) {
+    commands.add(() -> {
+      TailedFile tailedFile = files.remove(portalId);
+      if (tailedFile != null) tailedFile.close();
+    });
+  }
+
+  private void run() {
+    long interval = minPollInterval;
+    while (running) {
+      try {
+        for (Runnable command; (command = commands.poll()) != null;) {
+          command.run();
+        }
+
+        boolean read = false;
+        for (val tailedFile : files.values()) {
+          read |= tailedFile.read();
+        }
+
+        interval = read ? minPollInterval : Math.min(interval * 2, maxPollInterval);
+        await(interval);
+      } catch (ClosedWatchServiceException e) {
+        break;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      } catch (Exception e) {
+        log.error("Error tailing portal logs:", e);
+      }
+    }
+
+    files.values().forEach(TailedFile::close);
+  }
+
+  private void await(long interval) throws InterruptedException {
+    // Events and commands only serve to wake up early since every file is checked on each pass
+    for (long waited = 0; waited < interval && commands.isEmpty(); waited += minPollInterval) {
+      val key = watcher.poll(Math.min(minPollInterval, interval - waited), MILLISECONDS);
+      if (key == null) continue;
+
+      for (WatchKey next = key; next != null; next = watcher.poll()) {
+        next.pollEvents();
+        next.reset();
+      }
+
+      return;
+    }
+  }
+
+  /**
+   * Callback for lines read from a tailed file.
+   */
+  @FunctionalInterface
+  public interface LineListener {
+
+    /**
+     * @param batch the lines read, only valid for the duration of the call
+     */
+    void handle(PortalLogBatch batch);
+
+  }
+
+  /**
+   * A file being followed by the tailer thread.
+   */
+  class TailedFile {
+
+    final Integer portalId;
+    final Path path;
+    final LineListener listener;
+
+    FileChannel channel;
+    Object fileKey;
+    WatchKey watchKey;
+    long position;
+
+    // Lines not yet delivered, reused across reads
+    final PortalLogBatch batch;
+    long lineOffset;
+
+    // Recently read bytes, up to the end of the last delivered batch
+    final PortalLogRing ring = new PortalLogRing(replaySize);
+    long delivered;
+
+    TailedFile(Integer portalId, Path path, LineListener listener) {
+      this.portalId = portalId;
+      this.path = path;
+      this.listener = listener;
+      this.batch = new PortalLogBatch(portalId);
+    }
+
+    boolean open(boolean fromEnd) {
+      watch();
+
+      try {
+        channel = FileChannel.open(path, READ);
+        fileKey = getFileKey();
+        position = fromEnd ? channel.size() : 0;
+        batch.reset();
+        delivered = position;
+
+        ring.reset(position);
+        if (fromEnd) prefill();
+
+        return true;
+      } catch (NoSuchFileException e) {
+        // Not created yet
+        return false;
+      } catch (IOException e) {
+        log.warn("Could not open log of portal {}: {}", portalId, e.getMessage());
+        return false;
+      }
+    }
+
+    boolean read() throws IOException {
+      if (channel == null && !open(false)) return false;
+
+      boolean read = false;
+      val currentFileKey = getFileKey();
+      if (currentFileKey != null && fileKey != null && !currentFileKey.equals(fileKey)) {
+        log.info("Log of portal {} rotated", portalId);
+        read = drain();
+        flush();
+        flushBatch();
+        closeChannel();
+
+        if (!open(false)) return read;
+
+        return drain() | read;
+      }
+
+      if (channel.size() < position) {
+        log.info("Log of portal {} truncated", portalId);
+        flushBatch();
+        position = 0;
+        batch.reset();
+        delivered = 0;
+      }
+
+      return drain();
+    }
+
+    void replay(LineListener target) {
+      val bytes = ring.read(ring.start, delivered);
+      val from = delivered - bytes.length;
+
+      int start = 0;
+      if (from > 0) {
+        // Skip the leading partial line
+        while (start < bytes.length && bytes[start++] != '\n') {
+        }
+      }
+
+      val lines = new PortalLogBatch(portalId);
+      lines.setOffset(from + start);
+      lines.setNextOffset(delivered);
+      for (int i = start; i < bytes.length; i++) {
+        if (bytes[i] != '\n') continue;
+
+        lines.append(bytes, start, i - start);
+        lines.commit();
+        start = i + 1;
+      }
+      if (start < bytes.length) {
+        lines.append(bytes, start, bytes.length - start);
+        lines.commit();
+      }
+
+      target.handle(lines);
+    }
+
+    void close() {
+      if (watchKey != null) watchKey.cancel();
+      closeChannel();
+    }
+
+    private boolean drain() throws IOException {
+      boolean read = false;
+      buffer.clear();
+      for (int count; (count = channel.read(buffer, position)) > 0; buffer.clear()) {
+        ring.write(buffer, count, position);
+        split(count);
+        position += count;
+        read = true;
+      }
+
+      flushBatch();
+
+      return read;
+    }
+
+    private void split(int count) {
+      int start = 0;
+      for (int i = 0; i < count; i++) {
+        if (buffer.get(i) != '\n') continue;
+
+        append(start, i - start);
+        emit(position + i + 1);
+        start = i + 1;
+      }
+
+      append(start, count - start);
+    }
+
+    private void append(int start, int length) {
+      if (batch.getPendingLength() == 0) lineOffset = position + start;
+
+      boolean full = batch.getPendingLength() == MAX_LINE_LENGTH;
+      while (length > 0) {
+        if (full) {
+          // Split overly long lines rather than buffering without bound
+          emit(position + start);
+          lineOffset = position + start;
+        }
+
+        val room = MAX_LINE_LENGTH - batch.getPendingLength();
+        int count = Math.min(length, room);
+        full = count == room;
+
+        // Fill up to the last whole character so that the split does not fall within one
+        if (full) count = characterEnd(buffer, start, start + count) - start;
+        batch.append(buffer, start, count);
+        start += count;
+        length -= count;
+      }
+    }
+
+    private void emit(long lineEnd) {
+      if (batch.isEmpty()) batch.setOffset(lineOffset);
+      batch.commit();
+      batch.setNextOffset(lineEnd);
+
+      if (batch.size() >= maxBatchLines) {
+        batch.setContinued(true);
+        flushBatch();
+        batch.setContinued(false);
+      }
+    }
+
+    private void flush() {
+      if (batch.getPendingLength() > 0) emit(position);
+    }
+
+    private void flushBatch() {
+      if (batch.isEmpty()) return;
+
+      listener.handle(batch);
+      delivered = batch.getNextOffset();
+      batch.clear();
+    }
+
+    private void prefill() throws IOException {
+      val size = position;
+      for (long offset = Math.max(0, size - replaySize); offset < size;) {
+        buffer.clear();
+        buffer.limit((int) Math.min(buffer.capacity(), size - offset));
+
+        val count = channel.read(buffer, offset);
+        if (count <= 0) break;
+
+        ring.write(buffer, count, offset);
+        offset += count;
+      }
+    }
+
+    private void watch() {
+      if (watchKey != null && watchKey.isValid()) return;
+
+      try {
+        watchKey = path.getParent().register(watcher, ENTRY_CREATE, ENTRY_MODIFY);
+      } catch (IOException e) {
+        // Directory not created yet, rely on polling
+      }
+    }
+
+    private Object getFileKey() throws IOException {
+      try {
+        return Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+      } catch (NoSuchFileException e) {
+        return null;
+      }
+    }
+
+    private void closeChannel() {
+      if (channel == null) return;
+
+      try {
+        channel.close();
+      } catch (IOException e) {
+        log.warn("Could not close log of portal {}: {}", portalId, e.getMessage());
+      }
+
+      channel = null;
+      fileKey = null;
+    }
+
+  }
+
+}
@@ -17,32 +17,56 @@
  */
 package org.icgc.dcc.dev.server.portal.io;
 
+import static com.google.common.collect.Multimaps.synchronizedSetMultimap;
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.util.stream.Collectors.toList;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
 
-import javax.annotation.PreDestroy;
-
-import org.apache.commons.io.input.Tailer;
-import org.apache.commons.io.input.TailerListenerAdapter;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
 import org.icgc.dcc.dev.server.message.MessageService;
 import org.icgc.dcc.dev.server.message.Messages.FirstSubscriberMessage;
 import org.icgc.dcc.dev.server.message.Messages.LastSubscriberMessage;
-import org.icgc.dcc.dev.server.message.Messages.LogLineMessage;
+import org.icgc.dcc.dev.server.message.Messages.LogLinesFrame;
+import org.icgc.dcc.dev.server.message.Messages.LogRecordsMessage;
+import org.icgc.dcc.dev.server.message.Messages.PortalChangeMessage;
+import org.icgc.dcc.dev.server.message.Messages.PortalChangeType;
+import org.icgc.dcc.dev.server.message.Messages.SubscribedMessage;
+import org.icgc.dcc.dev.server.portal.PortalValidationException;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Component;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.google.common.io.Files;
+import com.google.common.collect.SetMultimap;
 
+import lombok.Data;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
 import lombok.SneakyThrows;
-import lombok.Synchronized;
 import lombok.val;
+import lombok.experimental.Accessors;
 import lombok.extern.slf4j.Slf4j;
 
 /**
@@ -53,105 +77,548 @@ import lombok.extern.slf4j.Slf4j;
 @RequiredArgsConstructor
 public class PortalLogs {
 
+  /**
+   * Constants.
+   */
+  static final int MAX_LENGTH = 1024 * 1024;
+  static final int SCAN_BLOCK_SIZE = 8 * 1024;
+  static final int TRANSFER_BUFFER_SIZE = 64 * 1024;
+  static final Pattern LINES_TOPIC = Pattern.compile("/logs/(\\d+)");
+  static final Pattern RECORDS_TOPIC = Pattern.compile("/logs/(\\d+)/records(\\?.*)?");
+  static final Pattern ERRORS_TOPIC = Pattern.compile("/logs/errors(\\?.*)?");
+  static final String ERROR_LEVEL = "ERROR";
+
   /**
    * Dependencies.
    */
   final PortalFileSystem fileSystem;
   final MessageService messages;
+  final PortalLogTailer tailer;
+  final ObjectMapper mapper;
+
+  /**
+   * Configuration.
+   */
+  @Value("${portal.logs.echo}")
+  boolean echo;
+  @Value("${message.topicPrefix}")
+  String topicPrefix;
 
   /**
    * State.
    */
-  final Map<Integer, Tailer> tailers = Maps.newConcurrentMap();
-  final ExecutorService executor = Executors.newCachedThreadPool();
+  // Only used from the tailer thread
+  final ByteArrayBuilder frame = new ByteArrayBuilder(TRANSFER_BUFFER_SIZE);
+
+  // Topics on whose behalf each portal log is tailed
+  final SetMultimap<Integer, String> consumers = synchronizedSetMultimap(HashMultimap.create());
+
+  // Filtered subscriptions by destination relative to the topic prefix
+  final Map<String, RecordRoute> routes = Maps.newConcurrentMap();
+
+  // Record parsing state of each tailed log, only used from the tailer thread
+  final Map<Integer, PortalLogParser> parsers = Maps.newConcurrentMap();
 
+  // Called from the tailer thread with each batch read
+  final List<Consumer<PortalLogBatch>> batchListeners = Lists.newCopyOnWriteArrayList();
+
+  // Called from the tailer thread with the records completed by each batch
+  final List<Consumer<List<PortalLogRecord>>> recordListeners = Lists.newCopyOnWriteArrayList();
+
+  /**
+   * Reads up to {@code length} bytes of the log starting at byte {@code offset}.
+   * <p>
+   * Unless the end of the log is reached, the chunk ends on a line boundary so that its {@code nextOffset} can be used
+   * to resume reading. A line longer than the chunk is split on a character boundary instead.
+   * 
+   * @param file name of a rotated log within the logs directory, or {@code null} for the current log. Offsets of
+   * compressed segments are uncompressed offsets.
+   */
   @SneakyThrows
-  public String cat(@NonNull Integer portalId) {
-    val logFile = fileSystem.getLogFile(portalId);
-    return Files.toString(logFile, UTF_8);
+  public LogChunk read(@NonNull Integer portalId, String file, long offset, int length) {
+    val logFile = getLogFile(portalId, file);
+    if (!logFile.isFile()) return new LogChunk().setContent("");
+
+    try (PortalLogSource source = PortalLogSource.open(logFile)) {
+      val size = source.size();
+      val start = Math.max(0, Math.min(offset, size));
+      val count = (int) Math.min(Math.min(length, MAX_LENGTH), size - start);
+
+      val buffer = ByteBuffer.allocate(count);
+      readFully(source, buffer, start);
+
+      int end = count;
+      if (start + count < size) {
+        val lineEnd = lastIndexOf(buffer, count, (byte) '\n');
+        end = lineEnd >= 0 ? lineEnd + 1 : characterEnd(buffer, 0, count);
+      }
+
+      return new LogChunk()
+          .setOffset(start)
+          .setNextOffset(start + end)
+          .setPreviousOffset(findPreviousOffset(source, start, Math.max(end, Math.min(length, MAX_LENGTH))))
+          .setSize(size)
+          .setContent(new String(buffer.array(), 0, end, UTF_8));
+    }
   }
 
-  @Synchronized
-  public void startTailing(@NonNull Integer portalId) {
-    if (tailers.containsKey(portalId)) return;
+  /**
+   * Reads the last {@code lines} lines of the log by scanning backwards from its end.
+   */
+  @SneakyThrows
+  public LogChunk tail(@NonNull Integer portalId, int lines) {
+    val logFile = fileSystem.getLogFile(portalId);
+    if (!logFile.exists()) return new LogChunk().setContent("");
+
+    long start = 0;
+    try (PortalLogSource source = PortalLogSource.open(logFile)) {
+      val size = source.size();
+      val buffer = ByteBuffer.allocate(SCAN_BLOCK_SIZE);
+
+      int newlines = 0;
+      long position = size;
+      scan: while (position > 0 && size - position < MAX_LENGTH) {
+        val count = (int) Math.min(SCAN_BLOCK_SIZE, position);
+        position -= count;
+
+        buffer.clear().limit(count);
+        readFully(source, buffer, position);
+
+        for (int i = count - 1; i >= 0; i--) {
+          // A trailing newline terminates the last line rather than starting a new one
+          val newline = buffer.get(i) == '\n' && position + i != size - 1;
+          if (newline && ++newlines == lines) {
+            start = position + i + 1;
+            break scan;
+          }
+        }
+
+        start = position;
+      }
+    }
 
+    return read(portalId, null, start, MAX_LENGTH);
+  }
+
+  /**
+   * Streams the whole log to {@code output}, optionally gzipped, without buffering it in memory.
+   * <p>
+   * Only the bytes present when the transfer starts are sent so that the response is consistent with a log that is
+   * still being appended to.
+   */
+  public void download(@NonNull Integer portalId, boolean gzip, @NonNull OutputStream output) throws IOException {
     val logFile = fileSystem.getLogFile(portalId);
-    val tailer = new Tailer(logFile, this.new PortalLogLineListener(portalId));
-    tailers.put(portalId, tailer);
+    if (!logFile.exists()) return;
 
-    log.info("Starting tailing of portal {}: {}...", portalId, logFile);
-    executor.execute(tailer);
+    if (gzip) {
+      val gzipOutput = new GZIPOutputStream(output, TRANSFER_BUFFER_SIZE);
+      transfer(logFile, logFile.length(), Channels.newChannel(gzipOutput));
+      gzipOutput.finish();
+    } else {
+      transfer(logFile, logFile.length(), Channels.newChannel(output));
+    }
   }
 
-  @Synchronized
-  public void stopTailing(@NonNull Integer portalId) {
-    val tailer = tailers.remove(portalId);
-    if (tailer == null) return;
+  /**
+   * Streams all files of the logs directory, including wrapper and rotated logs, to {@code output} as a tar.gz archive
+   * without buffering them in memory.
+   */
+  public void downloadAll(@NonNull Integer portalId, @NonNull OutputStream output) throws IOException {
+    val tar = new TarArchiveOutputStream(new GZIPOutputStream(output, TRANSFER_BUFFER_SIZE));
+    tar.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+    tar.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+
+    val files = fileSystem.getLogsDir(portalId).listFiles(File::isFile);
+    if (files != null) {
+      Arrays.sort(files);
+      for (val file : files) {
+        // Fix the entry size up front since the file may still be growing
+        val size = file.length();
+        val entry = new TarArchiveEntry(file, file.getName());
+        entry.setSize(size);
+
+        tar.putArchiveEntry(entry);
+        val transferred = transfer(file, size, Channels.newChannel(tar));
+        pad(tar, size - transferred);
+        tar.closeArchiveEntry();
+      }
+    }
 
-    log.info("Stopping tailing of portal {}: {}...", portalId, tailer.getFile());
-    tailer.stop();
+    tar.finish();
   }
 
-  @PreDestroy
-  public void shutdown() {
-    tailers.values().forEach(Tailer::stop);
+  /**
+   * Starts tailing the log on behalf of {@code consumer} unless already tailed.
+   */
+  public void startTailing(@NonNull Integer portalId, @NonNull String consumer) {
+    synchronized (consumers) {
+      if (!consumers.put(portalId, consumer) || consumers.get(portalId).size() > 1) return;
+
+      val logFile = fileSystem.getLogFile(portalId);
+      log.info("Starting tailing of portal {}: {}...", portalId, logFile);
+      tailer.tail(portalId, logFile, this::handleLines);
+    }
   }
 
   /**
-   * Tailer implementation for portal instances.
+   * Registers a listener for every batch of lines read from the tailed logs.
+   * <p>
+   * Listeners are called on the tailer thread and must not retain the batch.
    */
-  @RequiredArgsConstructor
-  class PortalLogLineListener extends TailerListenerAdapter {
+  public void addBatchListener(@NonNull Consumer<PortalLogBatch> listener) {
+    batchListeners.add(listener);
+  }
 
-    final Integer portalId;
+  /**
+   * Registers a listener for the records parsed from the tailed logs.
+   * <p>
+   * Records are parsed once per log with the same parser as filtered subscriptions, so a record spanning batches is
+   * only completed once its last line is read. Listeners are called on the tailer thread.
+   */
+  public void addRecordListener(@NonNull Consumer<List<PortalLogRecord>> listener) {
+    recordListeners.add(listener);
+  }
+
+  /**
+   * Sends the recently buffered lines of the log to a new subscriber as a frame flagged {@code replay}.
+   * <p>
+   * The subscription is registered before the replay is taken, so the subscriber may receive live frames on either
+   * side of it. Those ending at or before the replay's {@code nextOffset} are already part of it.
+   */
+  public void replay(@NonNull Integer portalId, @NonNull String sessionId, @NonNull String subscriptionId,
+      @NonNull String topic) {
+    tailer.replay(portalId,
+        batch -> messages.sendSessionMessage(sessionId, subscriptionId, topic, createFrame(batch, true)));
+  }
+
+  /**
+   * Stops tailing the log on behalf of {@code consumer} once no other consumer remains.
+   */
+  public void stopTailing(@NonNull Integer portalId, @NonNull String consumer) {
+    synchronized (consumers) {
+      if (!consumers.remove(portalId, consumer) || consumers.containsKey(portalId)) return;
+
+      log.info("Stopping tailing of portal {}...", portalId);
+      tailer.untail(portalId);
+      parsers.remove(portalId);
+    }
+  }
+
+  private void handleLines(PortalLogBatch batch) {
+    if (echo) {
+      for (int i = 0; i < batch.size(); i++) {
+        log.info("{}: {}", batch.getPortalId(), batch.getLine(i));
+      }
+    }
+
+    if (hasLineSubscribers(batch.getPortalId())) messages.sendMessage(createFrame(batch, false));
+    batchListeners.forEach(listener -> listener.accept(batch));
+
+    val records = parseRecords(batch);
+    if (records == null || records.isEmpty()) return;
+
+    sendRecords(records);
+    recordListeners.forEach(listener -> listener.accept(records));
+  }
+
+  private boolean hasLineSubscribers(Integer portalId) {
+    synchronized (consumers) {
+      // Logs may also be tailed for indexing or filtered subscriptions only
+      return consumers.get(portalId).stream()
+          .anyMatch(consumer -> consumer.startsWith(topicPrefix)
+              && LINES_TOPIC.matcher(consumer.substring(topicPrefix.length())).matches());
+    }
+  }
+
+  private List<PortalLogRecord> parseRecords(PortalLogBatch batch) {
+    val portalId = batch.getPortalId();
+
+    // Only parsed when a listener or filtered subscription needs it
+    val parsed = !recordListeners.isEmpty()
+        || routes.values().stream().anyMatch(route -> route.portalId == null || route.portalId.equals(portalId));
+    if (!parsed) {
+      // A record left open by a batch that nobody parsed cannot be continued correctly
+      parsers.remove(portalId);
+      return null;
+    }
+
+    return parsers.computeIfAbsent(portalId, PortalLogParser::new).parse(batch);
+  }
+
+  private void sendRecords(List<PortalLogRecord> records) {
+    val portalId = records.get(0).getPortalId();
+    for (val entry : routes.entrySet()) {
+      val route = entry.getValue();
+      if (route.portalId != null && !route.portalId.equals(portalId)) continue;
+
+      val matching = records.stream().filter(route.filter::test).collect(toList());
+      if (matching.isEmpty()) continue;
+
+      messages.sendMessage(new LogRecordsMessage().setDestination(entry.getKey()).setRecords(matching));
+    }
+  }
 
-    @Override
-    public void handle(String line) {
-      log.info("{}: {}", portalId, line);
-      val message = new LogLineMessage().setPortalId(portalId).setTimestamp(System.currentTimeMillis()).setLine(line);
-      messages.sendMessage(message);
+  /**
+   * Serializes the batch straight from its bytes, which are already UTF-8 encoded.
+   */
+  @SneakyThrows
+  private LogLinesFrame createFrame(PortalLogBatch batch, boolean replay) {
+    frame.reset();
+    try (JsonGenerator generator = mapper.getFactory().createGenerator(frame)) {
+      generator.writeStartObject();
+      generator.writeNumberField("portalId", batch.getPortalId());
+      generator.writeNumberField("timestamp", System.currentTimeMillis());
+      generator.writeNumberField("offset", batch.getOffset());
+      generator.writeNumberField("nextOffset", batch.getNextOffset());
+      if (replay) generator.writeBooleanField("replay", true);
+      generator.writeArrayFieldStart("lines");
+
+      val bytes = batch.getBytes();
+      for (int i = 0; i < batch.size(); i++) {
+        val start = batch.getStart(i);
+        generator.writeUTF8String(bytes, start, batch.getEnd(i) - start);
+      }
+
+      generator.writeEndArray();
+      generator.writeEndObject();
+    }
+
+    return new LogLinesFrame()
+        .setPortalId(batch.getPortalId())
+        .setOffset(batch.getOffset())
+        .setLineCount(batch.size())
+        .setJson(frame.toByteArray());
+  }
+
+  private static long transfer(File file, long size, WritableByteChannel target) throws IOException {
+    try (FileChannel channel = FileChannel.open(file.toPath(), READ)) {
+      long position = 0;
+      while (position < size) {
+        val transferred = channel.transferTo(position, size - position, target);
+        if (transferred <= 0) break; // Truncated underneath us
+
+        position += transferred;
+      }
+
+      return position;
+    }
+  }
+
+  private static void pad(OutputStream output, long count) throws IOException {
+    val zeros = new byte[(int) Math.min(count, SCAN_BLOCK_SIZE)];
+    for (long remaining = count; remaining > 0; remaining -= zeros.length) {
+      output.write(zeros, 0, (int) Math.min(remaining, zeros.length));
+    }
+  }
+
+  private File getLogFile(Integer portalId, String file) {
+    if (file == null) return fileSystem.getLogFile(portalId);
+
+    val logsDir = fileSystem.getLogsDir(portalId);
+    val logFile = new File(logsDir, file);
+    if (!logsDir.equals(logFile.getParentFile()) || file.endsWith(PortalLogSegment.INDEX_EXTENSION)) {
+      throw new PortalValidationException("Invalid log file '%s'", file);
+    }
+
+    return logFile;
+  }
+
+  private static long findPreviousOffset(PortalLogSource source, long offset, int length) throws IOException {
+    val start = Math.max(0, offset - length);
+    if (start == 0) return 0;
+
+    // Align to the start of the first complete line
+    val buffer = ByteBuffer.allocate((int) (offset - start));
+    readFully(source, buffer, start);
+    val index = indexOf(buffer, buffer.capacity(), (byte) '\n');
+
+    return index < 0 ? start : start + index + 1;
+  }
+
+  private static void readFully(PortalLogSource source, ByteBuffer buffer, long position) throws IOException {
+    while (buffer.hasRemaining()) {
+      val read = source.read(buffer, position + buffer.position());
+      if (read < 0) break;
     }
+  }
+
+  private static int indexOf(ByteBuffer buffer, int count, byte value) {
+    for (int i = 0; i < count; i++) {
+      if (buffer.get(i) == value) return i;
+    }
+
+    return -1;
+  }
+
+  /**
+   * Backs off from {@code end} so that the bytes from {@code start} do not end within a multi-byte UTF-8 character.
+   * Shared with the tailer, which splits overly long lines the same way.
+   */
+  static int characterEnd(ByteBuffer buffer, int start, int end) {
+    int lead = end - 1;
+    while (lead > start && (buffer.get(lead) & 0xC0) == 0x80) {
+      lead--;
+    }
+
+    // A chunk that is a single partial character cannot be split any better
+    val complete = lead + getCharacterWidth(buffer.get(lead)) <= end;
+    return complete || lead == start ? end : lead;
+  }
+
+  private static int getCharacterWidth(byte lead) {
+    if ((lead & 0xE0) == 0xC0) return 2;
+    if ((lead & 0xF0) == 0xE0) return 3;
+    if ((lead & 0xF8) == 0xF0) return 4;
+
+    return 1;
+  }
+
+  private static int lastIndexOf(ByteBuffer buffer, int count, byte value) {
+    for (int i = count - 1; i >= 0; i--) {
+      if (buffer.get(i) == value) return i;
+    }
+
+    return -1;
+  }
+
+  /**
+   * A range of a portal log.
+   */
+  @Data
+  @Accessors(chain = true)
+  public static class LogChunk {
+
+    /**
+     * Byte offset of the first character of {@code content}.
+     */
+    long offset;
+
+    /**
+     * Byte offset to continue reading forward from.
+     */
+    long nextOffset;
+
+    /**
+     * Byte offset to read the preceding chunk of the same length from.
+     */
+    long previousOffset;
+
+    /**
+     * Size of the log when read.
+     */
+    long size;
+
+    String content;
+
+  }
+
+  /**
+   * Records of one or all portals that pass a filter.
+   */
+  @RequiredArgsConstructor
+  static class RecordRoute {
+
+    final String topic;
+    final Integer portalId;
+    final PortalLogFilter filter;
 
   }
 
   /**
    * Listens for events that indicate tailing state transitions.
+   * <p>
+   * The supported topics are:
+   * <ul>
+   * <li>{@code /logs/{portalId}}: batches of raw lines, preceded by a replay of recent lines</li>
+   * <li>{@code /logs/{portalId}/records?level=&logger=&pattern=}: parsed records that pass the filter</li>
+   * <li>{@code /logs/errors?logger=&pattern=}: parsed {@code ERROR} records of all portals that pass the filter</li>
+   * </ul>
    */
   @Component
   class PortalLogTopicListener {
 
-    /**
-     * Configuration.
-     */
-    @Value("${message.topicPrefix}")
-    String topicPrefix;
+    @EventListener
+    void handle(SubscribedMessage message) {
+      val topic = message.getTopic();
+      val matcher = LINES_TOPIC.matcher(getDestination(topic));
+      if (!matcher.matches()) return;
+
+      // Tailing is started here rather than on the first subscriber so that it precedes the replay
+      val portalId = Integer.valueOf(matcher.group(1));
+      startTailing(portalId, topic);
+      replay(portalId, message.getSessionId(), message.getSubscriptionId(), topic);
+    }
 
     @EventListener
     void handle(FirstSubscriberMessage message) {
       val topic = message.getTopic();
-      if (!isLog(topic)) return;
+      val destination = getDestination(topic);
 
-      val portalId = resolvePortalId(topic);
-      startTailing(portalId);
+      val lines = LINES_TOPIC.matcher(destination);
+      val records = RECORDS_TOPIC.matcher(destination);
+      if (lines.matches()) {
+        // Already tailing unless the last subscriber of a previous round was handled after the new subscription
+        startTailing(Integer.valueOf(lines.group(1)), topic);
+      } else if (records.matches()) {
+        val portalId = Integer.valueOf(records.group(1));
+        addRoute(destination, topic, portalId, null);
+        startTailing(portalId, topic);
+      } else if (ERRORS_TOPIC.matcher(destination).matches()) {
+        addRoute(destination, topic, null, ERROR_LEVEL);
+        fileSystem.getPortalIds().forEach(portalId -> startTailing(portalId, topic));
+      }
+    }
+
+    @EventListener
+    void handle(PortalChangeMessage message) {
+      // Routes of all portals follow portals created or removed after they were subscribed to
+      val portalId = message.getPortalId();
+      for (val route : routes.values()) {
+        if (route.portalId != null) continue;
+
+        if (message.getType() == PortalChangeType.CREATED) {
+          startTailing(portalId, route.topic);
+        } else if (message.getType() == PortalChangeType.REMOVED) {
+          stopTailing(portalId, route.topic);
+        }
+      }
     }
 
     @EventListener
     void handle(LastSubscriberMessage message) {
       val topic = message.getTopic();
-      if (!isLog(topic)) return;
+      val destination = getDestination(topic);
 
-      val portalId = resolvePortalId(topic);
-      stopTailing(portalId);
+      val lines = LINES_TOPIC.matcher(destination);
+      val records = RECORDS_TOPIC.matcher(destination);
+      if (lines.matches()) {
+        stopTailing(Integer.valueOf(lines.group(1)), topic);
+      } else if (records.matches()) {
+        routes.remove(destination);
+        stopTailing(Integer.valueOf(records.group(1)), topic);
+      } else if (ERRORS_TOPIC.matcher(destination).matches()) {
+        routes.remove(destination);
+        val portalIds = getTailedPortalIds();
+        portalIds.forEach(portalId -> stopTailing(portalId, topic));
+      }
     }
 
-    private Integer resolvePortalId(String topic) {
-      val parts = topic.split("/");
+    private Set<Integer> getTailedPortalIds() {
+      synchronized (consumers) {
+        return ImmutableSet.copyOf(consumers.keySet());
+      }
+    }
 
-      return Integer.valueOf(parts[parts.length - 1]);
+    private void addRoute(String destination, String topic, Integer portalId, String defaultLevel) {
+      try {
+        routes.put(destination, new RecordRoute(topic, portalId, PortalLogFilter.parse(destination, defaultLevel)));
+      } catch (PortalValidationException e) {
+        log.warn("Ignoring subscription to {}: {}", destination, e.getMessage());
+      }
     }
 
-    private boolean isLog(String topic) {
-      return topic.startsWith(topicPrefix + "/log");
+    private String getDestination(String topic) {
+      return topic.startsWith(topicPrefix) ? topic.substring(topicPrefix.length()) : topic;
     }
 
   }
@@ -0,0 +1,249 @@
+/*
+ * Copyright (c) 2016 The Ontario Institute for Cancer Research. All rights reserved.                             
+ *                                                                                                               
+ * This program and the accompanying materials are made available under the terms of the GNU Public License v3.0.
+ * You should have received a copy of the GNU General Public License along with                                  
+ * this program. If not, see <http://www.gnu.org/licenses/>.                                                     
+ *                                                                                                               
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY                           
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES                          
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT                           
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,                                
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED                          
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;                               
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER                              
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN                         
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.icgc.dcc.dev.server.portal.io;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.icgc.dcc.dev.server.portal.util.Portals.MANAGEMENT_ADDRESS;
+import static org.icgc.dcc.dev.server.portal.util.Portals.getManagementPort;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.icgc.dcc.dev.server.portal.Portal;
+import org.icgc.dcc.dev.server.portal.io.PortalExecutor.State;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.Netty4ClientHttpRequestFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.util.concurrent.ListenableFutureCallback;
+import org.springframework.web.client.AsyncRestTemplate;
+
+import com.google.common.collect.Maps;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.val;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Responsible for determining when started portal instances are ready to serve requests.
+ * <p>
+ * Concurrently polls the actuator health endpoint of each instance with a non-blocking Netty client and watches its
+ * log for the Spring Boot startup marker, moving instances through {@code STARTING}, {@code READY}, {@code DEGRADED}
+ * and {@code FAILED}.
+ */
+@Slf4j
+@Component
+public class PortalReadiness {
+
+  /**
+   * Constants.
+   */
+  static final Pattern STARTED_PATTERN = Pattern.compile("Started \\S+ in ([\\d.]+) seconds");
+  static final int LOG_READ_SIZE = 64 * 1024;
+
+  /**
+   * Configuration.
+   */
+  @Value("${portal.readiness.startTimeout}")
+  long startTimeout;
+  @Value("${portal.readiness.requestTimeout}")
+  int requestTimeout;
+
+  /**
+   * Dependencies.
+   */
+  @Autowired
+  PortalFileSystem fileSystem;
+
+  /**
+   * State.
+   */
+  final Map<Integer, Readiness> monitored = Maps.newConcurrentMap();
+  final Map<Integer, Long> timesToReady = Maps.newConcurrentMap();
+  Netty4ClientHttpRequestFactory requestFactory;
+  AsyncRestTemplate rest;
+
+  @PostConstruct
+  public void init() {
+    requestFactory = new Netty4ClientHttpRequestFactory();
+    requestFactory.setConnectTimeout(requestTimeout);
+    requestFactory.setReadTimeout(requestTimeout);
+
+    this.rest = new AsyncRestTemplate(requestFactory);
+  }
+
+  @PreDestroy
+  public void shutdown() throws InterruptedException {
+    monitored.clear();
+    requestFactory.destroy();
+  }
+
+  /**
+   * Starts monitoring a freshly started instance.
+   * 
+   * @param portal the started portal
+   * @param listener notified of each state transition
+   */
+  public void monitor(@NonNull Portal portal, @NonNull Consumer<State> listener) {
+    val logFile = fileSystem.getLogFile(portal.getId());
+    val healthUrl = "http://" + MANAGEMENT_ADDRESS + ":" + getManagementPort(portal) + "/health";
+
+    val readiness = new Readiness(portal.getId(), healthUrl, logFile, listener);
+    readiness.logOffset = logFile.length();
+
+    timesToReady.remove(portal.getId());
+    monitored.put(portal.getId(), readiness);
+  }
+
+  public void unmonitor(@NonNull Integer portalId) {
+    monitored.remove(portalId);
+  }
+
+  /**
+   * @return the time it took the last start to become ready in ms, or {@code null} if not (yet) ready
+   */
+  public Long getTimeToReady(@NonNull Integer portalId) {
+    return timesToReady.get(portalId);
+  }
+
+  @Scheduled(fixedDelayString = "${portal.readiness.interval}")
+  public void check() {
+    for (val readiness : monitored.values()) {
+      if (readiness.getState() == State.STARTING) readiness.checkLog();
+      readiness.checkHealth();
+    }
+  }
+
+  /**
+   * Readiness state of a single monitored instance.
+   */
+  @RequiredArgsConstructor
+  class Readiness {
+
+    final Integer portalId;
+    final String healthUrl;
+    final File logFile;
+    final Consumer<State> listener;
+    final long started = System.currentTimeMillis();
+
+    @Getter
+    volatile State state = State.STARTING;
+    volatile boolean probing;
+    long logOffset;
+
+    void checkLog() {
+      val length = logFile.length();
+      if (length < logOffset) logOffset = 0; // Truncated
+      if (length == logOffset) return;
+
+      try (FileChannel channel = FileChannel.open(logFile.toPath(), StandardOpenOption.READ)) {
+        val buffer = ByteBuffer.allocate((int) Math.min(LOG_READ_SIZE, length - logOffset));
+        val read = channel.read(buffer, logOffset);
+        if (read <= 0) return;
+
+        // Only consume complete lines so the marker is never split between reads
+        int end = read;
+        while (end > 0 && buffer.get(end - 1) != '\n') {
+          end--;
+        }
+
+        val full = read == buffer.capacity();
+        if (end == 0 && !full) return;
+
+        val consumed = end == 0 ? read : end;
+        logOffset += consumed;
+
+        val matcher = STARTED_PATTERN.matcher(new String(buffer.array(), 0, consumed, UTF_8));
+        if (matcher.find()) {
+          log.info("Portal {} reported started in {} seconds", portalId, matcher.group(1));
+          transition(true);
+        }
+      } catch (Exception e) {
+        log.debug("Could not read log of portal {}: {}", portalId, e.getMessage());
+      }
+    }
+
+    void checkHealth() {
+      if (probing) return;
+
+      probing = true;
+      rest.getForEntity(healthUrl, String.class).addCallback(new ListenableFutureCallback<ResponseEntity<String>>() {
+
+        @Override
+        public void onSuccess(ResponseEntity<String> response) {
+          probing = false;
+          transition(response.getStatusCode().is2xxSuccessful());
+        }
+
+        @Override
+        public void onFailure(Throwable t) {
+          probing = false;
+          transition(false);
+        }
+
+      });
+    }
+
+    synchronized void transition(boolean healthy) {
+      // Ignore late probe results
+      if (monitored.get(portalId) != this) return;
+
+      val next = nextState(healthy);
+      if (next == state) return;
+
+      if (next == State.READY && state != State.DEGRADED) {
+        val timeToReady = System.currentTimeMillis() - started;
+        timesToReady.put(portalId, timeToReady);
+        log.info("Portal {} ready in {} ms", portalId, timeToReady);
+      } else {
+        log.info("Portal {} is now {} (was {})", portalId, next, state);
+      }
+
+      state = next;
+      listener.accept(next);
+    }
+
+    private State nextState(boolean healthy) {
+      if (healthy) return State.READY;
+
+      switch (state) {
+      case STARTING:
+        boolean timedOut = System.currentTimeMillis() - started > startTimeout;
+        return timedOut ? State.FAILED : State.STARTING;
+      case READY:
+        return State.DEGRADED;
+      default:
+        return state;
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright (c) 2016 The Ontario Institute for Cancer Research. All rights reserved.                             
+ *                                                                                                               
+ * This program and the accompanying materials are made available under the terms of the GNU Public License v3.0.
+ * You should have received a copy of the GNU General Public License along with                                  
+ * this program. If not, see <http://www.gnu.org/licenses/>.                                                     
+ *                                                                                                               
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY                           
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES                          
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT                           
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,                                
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED                          
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;                               
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER                              
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN                         
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.icgc.dcc.dev.server.portal.io;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.File;
+import java.util.Map;
+
+import javax.annotation.PostConstruct;
+
+import org.icgc.dcc.dev.server.portal.Portal.Status;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.zeroturnaround.exec.ProcessExecutor;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+import com.google.common.primitives.Ints;
+import com.google.common.primitives.Longs;
+
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+import lombok.Value;
+import lombok.val;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Responsible for tracking the processes of running portal instances in memory.
+ * <p>
+ * PIDs are read from the wrapper pidfiles after the wrapper script starts an instance and are checked for liveness
+ * periodically, so that status can be answered without forking the wrapper script. Each PID is paired with the start
+ * time of its process so that a PID reused by another process after the instance exited is not mistaken for it.
+ */
+@Slf4j
+@Component
+public class PortalSupervisor {
+
+  /**
+   * Constants.
+   */
+  static final String STARTED_STATE = "STARTED";
+  static final String DOWN_STATE = "DOWN";
+  static final File PROC_DIR = new File("/proc");
+  static final boolean PROCFS = PROC_DIR.isDirectory();
+
+  /**
+   * Dependencies.
+   */
+  @Autowired
+  PortalFileSystem fileSystem;
+
+  /**
+   * State.
+   */
+  final Map<Integer, SupervisedProcess> processes = Maps.newConcurrentMap();
+
+  @PostConstruct
+  public void init() {
+    if (!PROCFS) {
+      log.warn("No procfs at {}, checking portal processes by forking 'kill -0' without detecting reused PIDs",
+          PROC_DIR);
+    }
+
+    // Adopt instances that survived a restart of this server
+    fileSystem.getPortalIds().forEach(portalId -> attach(portalId, null));
+  }
+
+  /**
+   * Starts supervising the instance started by the wrapper script.
+   * 
+   * @param portalId the portal to supervise
+   * @param exitCallback called once if the instance exits without being {@link #detach(Integer) detached}
+   */
+  public void attach(@NonNull Integer portalId, Runnable exitCallback) {
+    val pid = readLivePid(fileSystem.getPidFile(portalId));
+    if (pid == null) {
+      log.info("Portal {} has no live process to supervise", portalId);
+      processes.remove(portalId);
+      return;
+    }
+
+    val process = new SupervisedProcess(pid, exitCallback);
+    process.setJavaPid(readLivePid(fileSystem.getJavaPidFile(portalId)));
+    processes.put(portalId, process);
+    log.info("Supervising portal {}: {}", portalId, process);
+  }
+
+  /**
+   * Stops supervising the instance. Must be called before an intentional stop to suppress the exit callback.
+   */
+  public void detach(@NonNull Integer portalId) {
+    processes.remove(portalId);
+  }
+
+  public Status getStatus(@NonNull Integer portalId) {
+    return getStatus(processes.get(portalId));
+  }
+
+  /**
+   * Gets the status of all the supplied portals from a single point in time snapshot.
+   */
+  public Map<Integer, Status> getStatuses(@NonNull Iterable<Integer> portalIds) {
+    val snapshot = ImmutableMap.copyOf(processes);
+
+    val statuses = Maps.<Integer, Status> newLinkedHashMap();
+    for (val portalId : portalIds) {
+      statuses.put(portalId, getStatus(snapshot.get(portalId)));
+    }
+
+    return statuses;
+  }
+
+  @Scheduled(fixedDelayString = "${portal.supervisor.interval}")
+  public void check() {
+    for (val entry : processes.entrySet()) {
+      val portalId = entry.getKey();
+      val process = entry.getValue();
+
+      if (process.getPid().isAlive()) {
+        // The wrapper relaunches the JVM on failure, so refresh the Java PID when it changes
+        val javaPid = process.getJavaPid();
+        if (javaPid == null || !javaPid.isAlive()) {
+          process.setJavaPid(readLivePid(fileSystem.getJavaPidFile(portalId)));
+        }
+
+        continue;
+      }
+
+      // Only fire once, even if detached / reattached concurrently
+      if (!processes.remove(portalId, process)) continue;
+
+      log.warn("Portal {} process {} exited unexpectedly", portalId, process.getPid().getPid());
+      val exitCallback = process.getExitCallback();
+      if (exitCallback != null) {
+        try {
+          exitCallback.run();
+        } catch (Exception e) {
+          log.error("Error handling exit of portal " + portalId + ":", e);
+        }
+      }
+    }
+  }
+
+  private static Status getStatus(SupervisedProcess process) {
+    if (process == null) return new Status().setRunning(false);
+
+    return new Status()
+        .setRunning(true)
+        .setPid(process.getPid().getPid())
+        .setWrapper(STARTED_STATE)
+        .setJava(process.getJavaPid() != null ? STARTED_STATE : DOWN_STATE);
+  }
+
+  private static Pid readLivePid(File pidFile) {
+    val pid = readPid(pidFile);
+    if (pid == null) return null;
+
+    val live = new Pid(pid, readStartTime(pid));
+    return live.isAlive() ? live : null;
+  }
+
+  private static Integer readPid(File pidFile) {
+    if (!pidFile.exists()) return null;
+
+    try {
+      return Ints.tryParse(Files.toString(pidFile, UTF_8).trim());
+    } catch (Exception e) {
+      log.warn("Could not read pid file {}: {}", pidFile, e.getMessage());
+      return null;
+    }
+  }
+
+  /**
+   * Reads the start time of the process in clock ticks since boot, or {@code null} if it is not running or there is no
+   * procfs.
+   */
+  static Long readStartTime(int pid) {
+    if (!PROCFS) return null;
+
+    try {
+      // The fields follow the parenthesized command name, which may contain spaces. The start time is the 22nd field
+      val stat = Files.toString(new File(PROC_DIR, pid + "/stat"), UTF_8);
+      val fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+      return Longs.tryParse(fields[19]);
+    } catch (Exception e) {
+      return null;
+    }
+  }
+
+  /**
+   * A supervised wrapper process and its child JVM.
+   */
+  @Getter
+  @RequiredArgsConstructor
+  @ToString(exclude = "exitCallback")
+  static class SupervisedProcess {
+
+    final Pid pid;
+    final Runnable exitCallback;
+    @Setter
+    volatile Pid javaPid;
+
+  }
+
+  /**
+   * A process id and the start time of the process it was read for.
+   */
+  @Value
+  static class Pid {
+
+    int pid;
+
+    /**
+     * Start time in clock ticks since boot, or {@code null} when it cannot be read.
+     */
+    Long startTime;
+
+    boolean isAlive() {
+      if (PROCFS) {
+        // A different start time means the PID was reused by another process
+        val current = readStartTime(pid);
+        return current != null && (startTime == null || startTime.equals(current));
+      }
+
+      // Platforms without procfs, reported at startup
+      try {
+        return new ProcessExecutor().command("kill", "-0", String.valueOf(pid)).execute().getExitValue() == 0;
+      } catch (Exception e) {
+        return false;
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,385 @@
+/*
+ * Copyright (c) 2016 The Ontario Institute for Cancer Research. All rights reserved.                             
+ *                                                                                                               
+ * This program and the accompanying materials are made available under the terms of the GNU Public License v3.0.
+ * You should have received a copy of the GNU General Public License along with                                  
+ * this program. If not, see <http://www.gnu.org/licenses/>.                                                     
+ *                                                                                                               
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY                           
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES                          
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT                           
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,                                
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED                          
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;                               
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER                              
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN                         
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.icgc.dcc.dev.server.portal.util;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static java.util.concurrent.Executors.newSingleThreadExecutor;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.stream.Collectors.toSet;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.icgc.dcc.dev.server.portal.Portal;
+import org.icgc.dcc.dev.server.portal.PortalEvent;
+import org.icgc.dcc.dev.server.portal.PortalEvent.PortalEventType;
+import org.icgc.dcc.dev.server.portal.PortalEventRepository;
+import org.icgc.dcc.dev.server.portal.PortalSnapshot;
+import org.icgc.dcc.dev.server.portal.PortalSnapshotRepository;
+import org.icgc.dcc.dev.server.portal.io.PortalExecutor.State;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import lombok.Data;
+import lombok.NonNull;
+import lombok.SneakyThrows;
+import lombok.val;
+import lombok.experimental.Accessors;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Append-only journal of portal lifecycle events.
+ * <p>
+ * Events are queued as they happen and written in order by a single writer, off the thread that reported them, then
+ * folded into an in-memory lifecycle per portal. The lifecycles are periodically written as snapshots, so that on
+ * startup they are rebuilt from the last snapshot plus the events appended after it rather than from the whole
+ * journal. The events themselves are kept as the portal history until they are older than both the last snapshot and
+ * the retention period, or than the last {@code maxEvents} of their portal, so that portals flapping between states
+ * cannot grow the journal without bound.
+ */
+@Slf4j
+@Component
+public class PortalJournal {
+
+  /**
+   * Configuration.
+   */
+  @Value("${portal.journal.retention}")
+  long retention;
+  @Value("${portal.journal.maxEvents}")
+  int maxEvents;
+
+  /**
+   * Dependencies.
+   */
+  @Autowired
+  PortalEventRepository events;
+  @Autowired
+  PortalSnapshotRepository snapshots;
+  @Autowired
+  PlatformTransactionManager transactionManager;
+
+  /**
+   * State - guarded by {@code this}.
+   */
+  final Map<Integer, PortalSnapshot> lifecycles = Maps.newHashMap();
+  long sequence;
+  long snapshotSequence;
+
+  final ExecutorService writer =
+      newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat("portal-journal").setDaemon(true).build());
+
+  @PostConstruct
+  public synchronized void init() {
+    for (val snapshot : snapshots.findAll()) {
+      lifecycles.put(snapshot.getPortalId(), snapshot);
+      snapshotSequence = Math.max(snapshotSequence, snapshot.getSequence());
+    }
+
+    val replayed = events.findByIdGreaterThanOrderByIdAsc(snapshotSequence);
+    for (val event : replayed) {
+      apply(event);
+    }
+
+    sequence = Math.max(sequence, snapshotSequence);
+    log.info("Recovered {} portal lifecycles from snapshot {} and {} events", lifecycles.size(), snapshotSequence,
+        replayed.size());
+  }
+
+  @PreDestroy
+  @SneakyThrows
+  public void shutdown() {
+    // Let the queued events be written so that the final snapshot includes them
+    writer.shutdown();
+    writer.awaitTermination(10, SECONDS);
+    writeSnapshot();
+  }
+
+  /**
+   * Gets the lifecycle of the portal as of the last event.
+   */
+  public synchronized Optional<PortalSnapshot> get(@NonNull Integer portalId) {
+    return Optional.ofNullable(lifecycles.get(portalId)).map(PortalJournal::copy);
+  }
+
+  public void created(@NonNull Integer portalId, @NonNull State state) {
+    append(new PortalEvent()
+        .setPortalId(portalId)
+        .setType(PortalEventType.CREATED)
+        .setState(state));
+  }
+
+  public void transitioned(@NonNull Integer portalId, State previous, @NonNull State state) {
+    append(new PortalEvent()
+        .setPortalId(portalId)
+        .setType(PortalEventType.TRANSITION)
+        .setPrevious(previous)
+        .setState(state));
+  }
+
+  /**
+   * Records that the server went down while {@code phase} was in flight.
+   */
+  public void interrupted(@NonNull Integer portalId, @NonNull State phase, @NonNull State state) {
+    append(new PortalEvent()
+        .setPortalId(portalId)
+        .setType(PortalEventType.INTERRUPTED)
+        .setPrevious(phase)
+        .setState(state)
+        .setReason("Server stopped while " + phase));
+  }
+
+  public void deployed(@NonNull Portal portal) {
+    val target = portal.getTarget();
+    val build = target == null ? null : target.getBuild();
+
+    append(new PortalEvent()
+        .setPortalId(portal.getId())
+        .setType(PortalEventType.DEPLOYED)
+        .setBuildNumber(build == null ? null : build.getNumber())
+        .setArtifact(target == null ? null : target.getArtifact()));
+  }
+
+  public void removed(@NonNull Integer portalId, String reason) {
+    append(new PortalEvent()
+        .setPortalId(portalId)
+        .setType(PortalEventType.REMOVED)
+        .setReason(reason));
+  }
+
+  /**
+   * Gets the recorded history of the portal, including portals that have since been removed.
+   * 
+   * @return the history, or empty if nothing was recorded
+   */
+  public Optional<PortalHistory> getHistory(@NonNull Integer portalId) {
+    val portalEvents = events.findByPortalIdOrderByIdAsc(portalId);
+    if (portalEvents.isEmpty()) return Optional.empty();
+
+    // Each state lasts until the next event that changes it
+    List<PortalPhase> phases = newArrayList();
+    PortalPhase current = null;
+    for (val event : portalEvents) {
+      val ended = event.getState() != null || event.getType() == PortalEventType.REMOVED;
+      if (!ended) continue;
+
+      if (current != null) {
+        current.setEnd(event.getCreated()).setDuration(event.getCreated() - current.getStart());
+      }
+
+      current = event.getState() == null ? null : new PortalPhase()
+          .setState(event.getState())
+          .setStart(event.getCreated());
+      if (current != null) phases.add(current);
+    }
+
+    return Optional.of(new PortalHistory()
+        .setPortalId(portalId)
+        .setEvents(portalEvents)
+        .setPhases(phases));
+  }
+
+  /**
+   * Writes a snapshot of the current lifecycles and prunes the events that are no longer needed.
+   */
+  @Scheduled(fixedDelayString = "${portal.journal.snapshotInterval}")
+  public void snapshot() {
+    writeSnapshot();
+    prune();
+  }
+
+  /**
+   * Writes the current lifecycles in a single transaction if events were appended since the last snapshot.
+   */
+  private void writeSnapshot() {
+    long watermark;
+    List<PortalSnapshot> batch;
+    synchronized (this) {
+      if (sequence == snapshotSequence) return;
+
+      watermark = sequence;
+      batch = newArrayList();
+      for (val lifecycle : lifecycles.values()) {
+        batch.add(copy(lifecycle).setSequence(watermark));
+      }
+    }
+
+    log.debug("Writing snapshot {} of {} portal lifecycles...", watermark, batch.size());
+    try {
+      new TransactionTemplate(transactionManager).execute(status -> {
+        write(batch);
+        return null;
+      });
+
+      synchronized (this) {
+        snapshotSequence = watermark;
+      }
+    } catch (RuntimeException e) {
+      log.error("Error writing portal lifecycle snapshot, retrying:", e);
+    }
+  }
+
+  private void write(List<PortalSnapshot> batch) {
+    // Removed portals are dropped from the snapshot
+    val portalIds = batch.stream().map(PortalSnapshot::getPortalId).collect(toSet());
+    for (val previous : snapshots.findAll()) {
+      if (!portalIds.contains(previous.getPortalId())) snapshots.delete(previous);
+    }
+
+    snapshots.save(batch);
+  }
+
+  /**
+   * Deletes the events that are older than the last snapshot, and thus not needed to recover, and that are either
+   * past the retention period or beyond the last {@code maxEvents} of their portal.
+   */
+  private void prune() {
+    long watermark;
+    synchronized (this) {
+      watermark = snapshotSequence;
+    }
+    if (watermark == 0) return;
+
+    try {
+      val expired = events.deleteBefore(watermark, System.currentTimeMillis() - retention);
+
+      int trimmed = 0;
+      for (val portalId : events.findPortalIds()) {
+        // The newest event beyond the last maxEvents of the portal, if any
+        val excess = events.findIdsByPortalId(portalId, new PageRequest(maxEvents, 1));
+        if (excess.isEmpty()) continue;
+
+        trimmed += events.deleteByPortalIdBefore(portalId, Math.min(excess.get(0), watermark));
+      }
+
+      if (expired + trimmed > 0) log.info("Pruned {} expired and {} excess portal events", expired, trimmed);
+    } catch (RuntimeException e) {
+      log.error("Error pruning portal events:", e);
+    }
+  }
+
+  private void append(PortalEvent event) {
+    event.setCreated(System.currentTimeMillis());
+
+    try {
+      // Journal order follows the order of the generated ids since there is a single writer
+      writer.execute(() -> write(event));
+    } catch (RejectedExecutionException e) {
+      log.warn("Dropping portal event {} appended after shutdown", event);
+    }
+  }
+
+  private void write(PortalEvent event) {
+    try {
+      val saved = events.save(event);
+      synchronized (this) {
+        apply(saved);
+      }
+    } catch (RuntimeException e) {
+      // The journal records the lifecycle, it does not gate it
+      log.error("Error appending portal event {}:", event, e);
+    }
+  }
+
+  private void apply(PortalEvent event) {
+    val portalId = event.getPortalId();
+    sequence = Math.max(sequence, event.getId());
+
+    if (event.getType() == PortalEventType.REMOVED) {
+      lifecycles.remove(portalId);
+      return;
+    }
+
+    val lifecycle = lifecycles.computeIfAbsent(portalId, id -> new PortalSnapshot().setPortalId(id));
+    lifecycle.setSequence(event.getId());
+
+    if (event.getType() == PortalEventType.DEPLOYED) {
+      lifecycle.setBuildNumber(event.getBuildNumber()).setArtifact(event.getArtifact());
+    } else if (event.getType() == PortalEventType.INTERRUPTED) {
+      lifecycle.setInterrupted(event.getPrevious());
+    } else {
+      // Any later transition means the interrupted operation was resumed or superseded
+      lifecycle.setInterrupted(null);
+    }
+
+    if (event.getState() != null) {
+      lifecycle.setState(event.getState()).setSince(event.getCreated());
+    }
+  }
+
+  private static PortalSnapshot copy(PortalSnapshot lifecycle) {
+    return new PortalSnapshot()
+        .setPortalId(lifecycle.getPortalId())
+        .setSequence(lifecycle.getSequence())
+        .setState(lifecycle.getState())
+        .setSince(lifecycle.getSince())
+        .setInterrupted(lifecycle.getInterrupted())
+        .setBuildNumber(lifecycle.getBuildNumber())
+        .setArtifact(lifecycle.getArtifact());
+  }
+
+  /**
+   * The recorded history of a portal instance.
+   */
+  @Data
+  @Accessors(chain = true)
+  public static class PortalHistory {
+
+    Integer portalId;
+    List<PortalEvent> events;
+
+    /**
+     * Time spent in each lifecycle state, in order.
+     */
+    List<PortalPhase> phases;
+
+  }
+
+  /**
+   * A period spent in one lifecycle state.
+   */
+  @Data
+  @Accessors(chain = true)
+  public static class PortalPhase {
+
+    State state;
+    long start;
+
+    /**
+     * End time and duration (ms), or {@code null} for the current state.
+     */
+    Long end;
+    Long duration;
+
+  }
+
+}
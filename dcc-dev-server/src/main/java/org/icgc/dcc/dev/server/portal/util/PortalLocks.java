@@ -17,101 +17,245 @@
  */
 package org.icgc.dcc.dev.server.portal.util;
 
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.stream.Collectors.joining;
+import static java.util.stream.Collectors.toList;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.icgc.dcc.dev.server.portal.Portal;
+import org.icgc.dcc.dev.server.portal.PortalLockTimeoutException;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
-import com.google.common.util.concurrent.Striped;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 
+import lombok.Data;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
 import lombok.val;
+import lombok.experimental.Accessors;
 
 /**
  * Provides fine grained locking semantics at the level of read / write per portal instance.
+ * <p>
+ * Only guards the physical environment of an instance (deployment and wrapper script execution). Admission of
+ * conflicting operations is decided up front by {@link PortalStates}.
+ * <p>
+ * Locks are instrumented: acquisition gives up after a configurable timeout, current holders and waiters are tracked
+ * with their operation names and wait / hold times are recorded per portal and operation.
  */
 @Component
 public class PortalLocks {
 
+  /**
+   * Configuration.
+   */
+  @Value("${portal.lock.timeout}")
+  long timeout;
+
   /**
    * State.
    */
-  private final Striped<ReadWriteLock> locks = Striped.lazyWeakReadWriteLock(10); // Suitable count for application
+  private final Map<Integer, PortalLockState> locks = Maps.newConcurrentMap();
 
-  public PortalLock lockWriting(@NonNull Portal portal) {
-    return lockWriting(portal.getId());
+  public PortalLock lockWriting(@NonNull Portal portal, @NonNull String operation) {
+    return lockWriting(portal.getId(), operation);
   }
 
-  public PortalLock lockWriting(@NonNull Integer portalId) {
-    val lock = writeLock(portalId);
-    lock.lock();
+  public PortalLock lockWriting(@NonNull Integer portalId, @NonNull String operation) {
+    return lock(writeLock(portalId, operation));
+  }
 
-    return lock;
+  public PortalLock lockReading(@NonNull Portal portal, @NonNull String operation) {
+    return lockReading(portal.getId(), operation);
   }
 
-  public PortalLock lockReading(@NonNull Portal portal) {
-    return lockReading(portal.getId());
+  public PortalLock lockReading(@NonNull Integer portalId, @NonNull String operation) {
+    return lock(readLock(portalId, operation));
   }
 
-  public PortalLock lockReading(@NonNull Integer portalId) {
-    val lock = readLock(portalId);
-    lock.lock();
+  /**
+   * Discards the lock of a removed portal once nobody holds or waits for it.
+   */
+  public void release(@NonNull Integer portalId) {
+    locks.computeIfPresent(portalId, (id, state) -> {
+      state.released = true;
+      return state.references == 0 ? null : state;
+    });
+  }
 
-    return lock;
+  /**
+   * @return a point in time view of the holders, waiters and timings of every portal lock
+   */
+  public List<LockDiagnostics> getDiagnostics() {
+    return locks.values().stream().map(PortalLockState::getDiagnostics).collect(toList());
   }
 
-  public PortalLock readLock(@NonNull Integer portalId) {
-    return new PortalLock(locks.get(portalId).readLock());
+  private PortalLock readLock(Integer portalId, String operation) {
+    val state = retain(portalId);
+    return new PortalLock(state, state.lock.readLock(), "read", operation);
   }
 
-  public PortalLock readLock(@NonNull Portal portal) {
-    return readLock(portal.getId());
+  private PortalLock writeLock(Integer portalId, String operation) {
+    val state = retain(portalId);
+    return new PortalLock(state, state.lock.writeLock(), "write", operation);
   }
 
-  public PortalLock writeLock(@NonNull Integer portalId) {
-    return new PortalLock(locks.get(portalId).writeLock());
+  private PortalLock lock(PortalLock lock) {
+    try {
+      lock.lock();
+    } catch (RuntimeException e) {
+      unretain(lock.state);
+      throw e;
+    }
+
+    return lock;
+  }
+
+  /**
+   * Counts a holder or waiter so that the lock is not discarded from under it.
+   */
+  private PortalLockState retain(Integer portalId) {
+    return locks.compute(portalId, (id, state) -> {
+      PortalLockState retained = state == null ? new PortalLockState(id) : state;
+      retained.references++;
+
+      return retained;
+    });
+  }
+
+  private void unretain(PortalLockState released) {
+    locks.computeIfPresent(released.portalId, (id, state) -> {
+      if (state != released) return state;
+
+      state.references--;
+      return state.references == 0 && state.released ? null : state;
+    });
   }
 
-  public PortalLock writeLock(@NonNull Portal portal) {
-    return writeLock(portal.getId());
+  /**
+   * The lock and instrumentation of a single portal.
+   */
+  @RequiredArgsConstructor
+  private static class PortalLockState {
+
+    final Integer portalId;
+    final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    final Set<PortalLock> holders = Sets.newConcurrentHashSet();
+    final Set<PortalLock> waiters = Sets.newConcurrentHashSet();
+    final Map<String, OperationTimings> timings = Maps.newConcurrentMap();
+
+    /**
+     * State - guarded by the entry in {@link PortalLocks#locks}.
+     */
+    int references;
+    boolean released;
+
+    OperationTimings getTimings(String operation) {
+      return timings.computeIfAbsent(operation, key -> new OperationTimings());
+    }
+
+    LockDiagnostics getDiagnostics() {
+      val now = System.nanoTime();
+      val operations = ImmutableMap.<String, Map<String, Histogram>> builder();
+      timings.forEach((operation, timing) -> operations.put(operation, ImmutableMap.of(
+          "wait", timing.getWait(),
+          "hold", timing.getHold())));
+
+      return new LockDiagnostics()
+          .setPortalId(portalId)
+          .setHolders(holders.stream().map(lock -> lock.describe(now)).collect(toList()))
+          .setWaiters(waiters.stream().map(lock -> lock.describe(now)).collect(toList()))
+          .setOperations(operations.build());
+    }
+
   }
 
   /**
    * {@link Lock} implementation for use with {@link @Cleanup}.
+   * <p>
+   * Represents a single acquisition by a single thread.
    */
   @RequiredArgsConstructor
-  public static class PortalLock implements Lock, AutoCloseable {
+  public class PortalLock implements Lock, AutoCloseable {
 
+    @NonNull
+    private final PortalLockState state;
     @NonNull
     private final Lock delegate;
+    @NonNull
+    private final String mode;
+    @NonNull
+    private final String operation;
+
+    private String thread;
+    private long since;
 
     @Override
     public void lock() {
-      delegate.lock();
+      try {
+        if (!tryLock(timeout, MILLISECONDS)) {
+          val holders = state.holders.stream().map(Object::toString).collect(joining(", "));
+          throw new PortalLockTimeoutException(state.portalId, operation, holders);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new PortalLockTimeoutException(state.portalId, operation, "interrupted");
+      }
     }
 
     @Override
     public void lockInterruptibly() throws InterruptedException {
-      delegate.lockInterruptibly();
+      waiting();
+      try {
+        delegate.lockInterruptibly();
+      } finally {
+        waited();
+      }
+
+      acquired();
     }
 
     @Override
     public boolean tryLock() {
-      return delegate.tryLock();
+      val locked = delegate.tryLock();
+      if (locked) acquired();
+
+      return locked;
     }
 
     @Override
     public boolean tryLock(long time, TimeUnit unit) throws InterruptedException {
-      return delegate.tryLock(time, unit);
+      waiting();
+      boolean locked = false;
+      try {
+        locked = delegate.tryLock(time, unit);
+      } finally {
+        waited();
+      }
+
+      if (locked) acquired();
+      return locked;
     }
 
     @Override
     public void unlock() {
+      state.holders.remove(this);
+      state.getTimings(operation).getHold().record(System.nanoTime() - since);
       delegate.unlock();
+      unretain(state);
     }
 
     @Override
@@ -124,6 +268,137 @@ public class PortalLocks {
       unlock();
     }
 
+    @Override
+    public String toString() {
+      return thread + " (" + mode + " " + operation + ")";
+    }
+
+    private void waiting() {
+      this.thread = Thread.currentThread().getName();
+      this.since = System.nanoTime();
+      state.waiters.add(this);
+    }
+
+    private void waited() {
+      state.waiters.remove(this);
+      state.getTimings(operation).getWait().record(System.nanoTime() - since);
+    }
+
+    private void acquired() {
+      this.thread = Thread.currentThread().getName();
+      this.since = System.nanoTime();
+      state.holders.add(this);
+    }
+
+    private LockOwner describe(long now) {
+      return new LockOwner()
+          .setThread(thread)
+          .setMode(mode)
+          .setOperation(operation)
+          .setDuration(NANOSECONDS.toMillis(now - since));
+    }
+
+  }
+
+  /**
+   * Wait and hold time histograms of an operation.
+   */
+  @Data
+  private static class OperationTimings {
+
+    final Histogram wait = new Histogram();
+    final Histogram hold = new Histogram();
+
+  }
+
+  /**
+   * Lock free histogram of durations with power of two millisecond buckets.
+   */
+  public static class Histogram {
+
+    /**
+     * Constants.
+     */
+    static final int BUCKET_COUNT = 20; // Up to ~9 minutes
+
+    final LongAdder count = new LongAdder();
+    final LongAdder total = new LongAdder();
+    final LongAdder[] buckets = new LongAdder[BUCKET_COUNT];
+    final AtomicLong max = new AtomicLong();
+
+    Histogram() {
+      for (int i = 0; i < BUCKET_COUNT; i++) {
+        buckets[i] = new LongAdder();
+      }
+    }
+
+    void record(long nanos) {
+      val millis = NANOSECONDS.toMillis(nanos);
+      val bucket = Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(millis));
+
+      count.increment();
+      total.add(millis);
+      buckets[bucket].increment();
+      max.accumulateAndGet(millis, Math::max);
+    }
+
+    public long getCount() {
+      return count.sum();
+    }
+
+    public long getTotal() {
+      return total.sum();
+    }
+
+    public long getMax() {
+      return max.get();
+    }
+
+    /**
+     * @return counts keyed by the exclusive upper bound of each bucket in ms
+     */
+    public Map<Long, Long> getBuckets() {
+      val result = Maps.<Long, Long> newLinkedHashMap();
+      for (int i = 0; i < BUCKET_COUNT; i++) {
+        val value = buckets[i].sum();
+        if (value > 0) result.put(1L << i, value);
+      }
+
+      return result;
+    }
+
+  }
+
+  /**
+   * Current lock holder or waiter.
+   */
+  @Data
+  @Accessors(chain = true)
+  public static class LockOwner {
+
+    String thread;
+    String mode;
+    String operation;
+
+    /**
+     * Time held or waited so far (ms).
+     */
+    long duration;
+
+  }
+
+  /**
+   * Diagnostics of a single portal lock.
+   */
+  @Data
+  @Accessors(chain = true)
+  public static class LockDiagnostics {
+
+    Integer portalId;
+    List<LockOwner> holders;
+    List<LockOwner> waiters;
+    Map<String, Map<String, Histogram>> operations;
+
   }
 
 }
@@ -0,0 +1,308 @@
+/*
+ * Copyright (c) 2016 The Ontario Institute for Cancer Research. All rights reserved.                             
+ *                                                                                                               
+ * This program and the accompanying materials are made available under the terms of the GNU Public License v3.0.
+ * You should have received a copy of the GNU General Public License along with                                  
+ * this program. If not, see <http://www.gnu.org/licenses/>.                                                     
+ *                                                                                                               
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY                           
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES                          
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT                           
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,                                
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED                          
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;                               
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER                              
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN                         
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.icgc.dcc.dev.server.portal.util;
+
+import static java.util.stream.Collectors.toList;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.icgc.dcc.dev.server.portal.Portal;
+import org.icgc.dcc.dev.server.portal.Portal.Candidate;
+import org.icgc.dcc.dev.server.portal.PortalNotFoundException;
+import org.icgc.dcc.dev.server.portal.PortalRepository;
+import org.icgc.dcc.dev.server.portal.PortalSummary;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import lombok.NonNull;
+import lombok.val;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * In-memory registry of portal metadata, indexed by id, slug and PR number.
+ * <p>
+ * Loaded once at startup and authoritative from then on. Reads never touch the database. New portals are saved
+ * immediately to obtain their generated id, while later changes and removals are queued and written behind,
+ * coalesced per portal, in a transaction per portal. A change that keeps failing is dropped after {@code maxAttempts}
+ * so that it cannot hold up the others forever. Portals are copied on the way in and out so that callers can modify
+ * what they read until they save it.
+ */
+@Slf4j
+@Component
+public class PortalRegistry {
+
+  /**
+   * Configuration.
+   */
+  @Value("${portal.registry.maxAttempts}")
+  int maxAttempts;
+
+  /**
+   * Dependencies.
+   */
+  @Autowired
+  PortalRepository repository;
+  @Autowired
+  PlatformTransactionManager transactionManager;
+
+  /**
+   * State.
+   */
+  final Map<Integer, Portal> portals = Maps.newConcurrentMap();
+  final Map<String, Integer> slugs = Maps.newConcurrentMap();
+  final Map<Integer, Set<Integer>> prs = Maps.newConcurrentMap();
+
+  // Latest pending write by portal id in queue order, with an empty value for a removal
+  final Map<Integer, Optional<Portal>> pending = new LinkedHashMap<>();
+
+  // Failed writes of the pending changes by portal id, guarded by pending
+  final Map<Integer, Integer> attempts = Maps.newHashMap();
+
+  // Persisted optimistic locking versions
+  final Map<Integer, Integer> versions = Maps.newConcurrentMap();
+
+  @PostConstruct
+  public void init() {
+    for (val portal : repository.findAllDetails()) {
+      index(portal);
+      versions.put(portal.getId(), portal.getVersion());
+    }
+
+    log.info("Loaded {} portals", portals.size());
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    flush();
+  }
+
+  public Optional<Portal> get(@NonNull Integer portalId) {
+    return Optional.ofNullable(portals.get(portalId)).map(PortalRegistry::copy);
+  }
+
+  public Optional<Portal> getBySlug(@NonNull String slug) {
+    val portalId = slugs.get(slug);
+    return portalId == null ? Optional.empty() : get(portalId);
+  }
+
+  public List<Portal> getByPrNumber(@NonNull Integer prNumber) {
+    return copy(prs.getOrDefault(prNumber, Sets.newHashSet()).stream()
+        .map(portals::get)
+        .filter(portal -> portal != null)
+        .collect(toList()));
+  }
+
+  public List<Portal> list() {
+    return copy(portals.values());
+  }
+
+  /**
+   * Summarizes all portals without copying their descriptions and configuration.
+   */
+  public List<PortalSummary> summarize() {
+    return portals.values().stream().map(PortalSummary::of).collect(toList());
+  }
+
+  /**
+   * Saves the portal, immediately if it is new so that it is assigned an id.
+   * 
+   * @return a copy of the saved portal
+   * @throws PortalNotFoundException if the portal has an id but was deleted
+   */
+  public synchronized Portal save(@NonNull Portal portal) {
+    if (portal.getId() == null) {
+      val saved = repository.save(portal);
+      versions.put(saved.getId(), saved.getVersion());
+      index(saved);
+
+      return copy(saved);
+    }
+
+    // A stale copy must not bring a deleted portal back
+    if (!portals.containsKey(portal.getId())) throw new PortalNotFoundException(portal.getId());
+
+    val snapshot = copy(portal).setUpdated(System.currentTimeMillis());
+    index(snapshot);
+
+    enqueue(snapshot.getId(), Optional.of(snapshot));
+
+    return copy(snapshot);
+  }
+
+  public synchronized void delete(@NonNull Integer portalId) {
+    val portal = portals.remove(portalId);
+    if (portal == null) return;
+
+    unindex(portal);
+    enqueue(portalId, Optional.empty());
+  }
+
+  /**
+   * Writes the pending changes, each portal in its own transaction.
+   */
+  @Scheduled(fixedDelayString = "${portal.registry.flushInterval}")
+  public void flush() {
+    Map<Integer, Optional<Portal>> batch;
+    synchronized (pending) {
+      if (pending.isEmpty()) return;
+
+      batch = new LinkedHashMap<>(pending);
+      pending.clear();
+    }
+
+    log.debug("Writing {} portal changes...", batch.size());
+    val transaction = new TransactionTemplate(transactionManager);
+    batch.forEach((portalId, portal) -> {
+      try {
+        transaction.execute(status -> {
+          write(portalId, portal);
+          return null;
+        });
+
+        synchronized (pending) {
+          attempts.remove(portalId);
+        }
+      } catch (RuntimeException e) {
+        retry(portalId, portal, e);
+      }
+    });
+  }
+
+  private void enqueue(Integer portalId, Optional<Portal> portal) {
+    synchronized (pending) {
+      pending.remove(portalId);
+      pending.put(portalId, portal);
+      attempts.remove(portalId);
+    }
+  }
+
+  private void retry(Integer portalId, Optional<Portal> portal, RuntimeException e) {
+    synchronized (pending) {
+      // Newer changes take precedence and start over
+      if (pending.containsKey(portalId)) return;
+
+      val attempt = attempts.merge(portalId, 1, Integer::sum);
+      if (attempt >= maxAttempts) {
+        log.error("Error writing changes of portal " + portalId + ", dropping them after " + attempt + " attempts:", e);
+        attempts.remove(portalId);
+        return;
+      }
+
+      log.error("Error writing changes of portal " + portalId + ", retrying:", e);
+      pending.put(portalId, portal);
+    }
+  }
+
+  private void write(Integer portalId, Optional<Portal> portal) {
+    if (!portal.isPresent()) {
+      if (repository.exists(portalId)) repository.delete(portalId);
+      versions.remove(portalId);
+      return;
+    }
+
+    // The registry serializes writes, so the entity is written over the last persisted version
+    val entity = copy(portal.get());
+    entity.setVersion(versions.getOrDefault(portalId, entity.getVersion()));
+    versions.put(portalId, repository.save(entity).getVersion());
+  }
+
+  private void index(Portal portal) {
+    val portalId = portal.getId();
+    val previous = portals.put(portalId, copy(portal));
+
+    // Only keys that changed are touched so that lookups by unchanged keys never miss
+    val slug = portal.getSlug();
+    val previousSlug = previous == null ? null : previous.getSlug();
+    if (previous == null || !Objects.equals(slug, previousSlug)) {
+      if (previousSlug != null) slugs.remove(previousSlug, portalId);
+      if (slug != null) slugs.put(slug, portalId);
+    }
+
+    val prNumber = getPrNumber(portal);
+    val previousPrNumber = previous == null ? null : getPrNumber(previous);
+    if (previous == null || !Objects.equals(prNumber, previousPrNumber)) {
+      if (previousPrNumber != null) unindexPr(previousPrNumber, portalId);
+      if (prNumber != null) prs.computeIfAbsent(prNumber, key -> Sets.newConcurrentHashSet()).add(portalId);
+    }
+  }
+
+  private void unindex(Portal portal) {
+    if (portal.getSlug() != null) slugs.remove(portal.getSlug(), portal.getId());
+    val prNumber = getPrNumber(portal);
+    if (prNumber != null) unindexPr(prNumber, portal.getId());
+  }
+
+  private void unindexPr(Integer prNumber, Integer portalId) {
+    prs.computeIfPresent(prNumber, (key, portalIds) -> {
+      portalIds.remove(portalId);
+      return portalIds.isEmpty() ? null : portalIds;
+    });
+  }
+
+  private static Integer getPrNumber(Portal portal) {
+    val target = portal.getTarget();
+    return target == null || target.getPr() == null ? null : target.getPr().getNumber();
+  }
+
+  private static List<Portal> copy(Collection<Portal> portals) {
+    return portals.stream().map(PortalRegistry::copy).collect(toList());
+  }
+
+  private static Portal copy(Portal portal) {
+    val target = portal.getTarget();
+    return new Portal()
+        .setId(portal.getId())
+        .setSlug(portal.getSlug())
+        .setTitle(portal.getTitle())
+        .setDescription(portal.getDescription())
+        .setTicketKey(portal.getTicketKey())
+        .setUsername(portal.getUsername())
+        .setConfig(portal.getConfig() == null ? null : Maps.newHashMap(portal.getConfig()))
+        .setSystemConfig(portal.getSystemConfig() == null ? null : Maps.newHashMap(portal.getSystemConfig()))
+        .setUrl(portal.getUrl())
+        .setAutoDeploy(portal.isAutoDeploy())
+        .setAutoRefresh(portal.isAutoRefresh())
+        .setAutoRemove(portal.isAutoRemove())
+        .setState(portal.getState())
+        .setTarget(target == null ? null : new Candidate()
+            .setPr(target.getPr())
+            .setBuild(target.getBuild())
+            .setArtifact(target.getArtifact())
+            .setTicket(target.getTicket()))
+        .setVersion(portal.getVersion())
+        .setCreated(portal.getCreated())
+        .setUpdated(portal.getUpdated());
+  }
+
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 2016 The Ontario Institute for Cancer Research. All rights reserved.                             
+ *                                                                                                               
+ * This program and the accompanying materials are made available under the terms of the GNU Public License v3.0.
+ * You should have received a copy of the GNU General Public License along with                                  
+ * this program. If not, see <http://www.gnu.org/licenses/>.                                                     
+ *                                                                                                               
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY                           
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES                          
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT                           
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,                                
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED                          
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;                               
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER                              
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN                         
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.icgc.dcc.dev.server.portal.util;
+
+import static org.icgc.dcc.dev.server.portal.io.PortalExecutor.State.FAILED;
+import static org.icgc.dcc.dev.server.portal.io.PortalExecutor.State.PROVISIONING;
+import static org.icgc.dcc.dev.server.portal.io.PortalExecutor.State.REMOVING;
+import static org.icgc.dcc.dev.server.portal.io.PortalExecutor.State.STOPPED;
+import static org.icgc.dcc.dev.server.portal.io.PortalExecutor.State.UPDATING;
+
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Predicate;
+
+import javax.annotation.PostConstruct;
+
+import org.icgc.dcc.dev.server.portal.PortalConflictException;
+import org.icgc.dcc.dev.server.portal.PortalNotFoundException;
+import org.icgc.dcc.dev.server.portal.PortalRepository;
+import org.icgc.dcc.dev.server.portal.io.PortalExecutor.State;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+
+import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.val;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Registry of the lifecycle state of each portal instance.
+ * <p>
+ * Transitions are compare-and-set operations on the in-memory state. Each one bumps a per-portal version and is then
+ * persisted on the portal entity and recorded in the {@link PortalJournal} outside of the compare-and-set, in
+ * version order. Operations that own the instance for their duration ({@code PROVISIONING},
+ * {@code UPDATING} and {@code REMOVING}) fail fast with a {@link PortalConflictException} instead of blocking, and
+ * reads never wait.
+ */
+@Slf4j
+@Component
+public class PortalStates {
+
+  /**
+   * Constants.
+   */
+  static final Set<State> BUSY_STATES = EnumSet.of(PROVISIONING, UPDATING, REMOVING);
+
+  /**
+   * Dependencies.
+   */
+  @Autowired
+  PortalRepository repository;
+  @Autowired
+  PortalRegistry registry;
+  @Autowired
+  PortalJournal journal;
+
+  /**
+   * State.
+   */
+  final ConcurrentMap<Integer, VersionedState> states = Maps.newConcurrentMap();
+  final ConcurrentMap<Integer, StateWriter> writers = Maps.newConcurrentMap();
+
+  @PostConstruct
+  public void init() {
+    for (val portal : registry.list()) {
+      // The journal is replayed up to the last event, the entity covers portals that predate it
+      val lifecycle = journal.get(portal.getId());
+      val state = lifecycle.isPresent() ? lifecycle.get().getState() : portal.getState();
+
+      // Operations in flight when the server went down are failed until they are resumed
+      val interrupted = state != null && BUSY_STATES.contains(state);
+      if (interrupted) {
+        log.warn("Portal {} was interrupted while {}", portal.getId(), state);
+        repository.updateState(portal.getId(), FAILED);
+        journal.interrupted(portal.getId(), state, FAILED);
+      }
+
+      states.put(portal.getId(), new VersionedState(state == null ? STOPPED : interrupted ? FAILED : state, 0));
+    }
+  }
+
+  public State get(@NonNull Integer portalId) {
+    val current = states.get(portalId);
+    return current == null ? null : current.state;
+  }
+
+  public boolean exists(@NonNull Integer portalId) {
+    return states.containsKey(portalId);
+  }
+
+  public Set<Integer> getPortalIds() {
+    return ImmutableSet.copyOf(states.keySet());
+  }
+
+  /**
+   * Registers a newly persisted portal.
+   */
+  public void register(@NonNull Integer portalId, @NonNull State state) {
+    states.put(portalId, new VersionedState(state, 0));
+    journal.created(portalId, state);
+  }
+
+  public void unregister(@NonNull Integer portalId) {
+    states.remove(portalId);
+    writers.remove(portalId);
+  }
+
+  /**
+   * Takes ownership of the portal for the duration of {@code phase}.
+   * 
+   * @return the state before taking ownership
+   * @throws PortalConflictException if another operation owns the portal
+   */
+  public State begin(@NonNull Integer portalId, @NonNull State phase) {
+    val current = new State[1];
+    val updated = transition(portalId, state -> {
+      current[0] = state;
+      return !BUSY_STATES.contains(state);
+    }, phase);
+
+    if (current[0] == null) throw new PortalNotFoundException(portalId);
+    if (!updated) throw new PortalConflictException(portalId, current[0], phase);
+
+    return current[0];
+  }
+
+  /**
+   * Releases ownership of the portal taken by {@link #begin}.
+   */
+  public void end(@NonNull Integer portalId, @NonNull State phase, @NonNull State next) {
+    if (!compareAndSet(portalId, phase, next)) {
+      log.warn("Portal {} was expected to be {} when ending as {}: {}", portalId, phase, next, get(portalId));
+    }
+  }
+
+  public boolean compareAndSet(@NonNull Integer portalId, @NonNull State expected, @NonNull State next) {
+    return transition(portalId, expected::equals, next);
+  }
+
+  /**
+   * Records a runtime state change unless an operation currently owns the portal.
+   */
+  public boolean update(@NonNull Integer portalId, @NonNull State next) {
+    return transition(portalId, state -> !BUSY_STATES.contains(state), next);
+  }
+
+  private boolean transition(Integer portalId, Predicate<State> expected, State next) {
+    // Compare-and-set in memory only, no I/O while holding the entry
+    val updated = new boolean[1];
+    val transition = new StateTransition[1];
+    states.computeIfPresent(portalId, (id, current) -> {
+      if (!expected.test(current.state)) return current;
+
+      updated[0] = true;
+      if (current.state == next) return current;
+
+      transition[0] = new StateTransition(current.version + 1, current.state, next);
+      return new VersionedState(next, transition[0].version);
+    });
+
+    if (transition[0] != null) {
+      writers.computeIfAbsent(portalId, StateWriter::new).write(transition[0]);
+    }
+
+    return updated[0];
+  }
+
+  /**
+   * In-memory state of a portal and the number of transitions that led to it.
+   */
+  @RequiredArgsConstructor
+  private static class VersionedState {
+
+    final State state;
+    final long version;
+
+  }
+
+  @RequiredArgsConstructor
+  private static class StateTransition {
+
+    final long version;
+    final State previous;
+    final State next;
+
+  }
+
+  /**
+   * Persists the transitions of a single portal in version order.
+   * <p>
+   * A transition whose predecessor has not been handed over yet is parked, and written by whichever thread hands
+   * over the predecessor.
+   */
+  @RequiredArgsConstructor
+  private class StateWriter {
+
+    final Integer portalId;
+
+    /**
+     * State - guarded by {@code this}.
+     */
+    final Map<Long, StateTransition> pending = Maps.newHashMap();
+    long written;
+
+    synchronized void write(StateTransition transition) {
+      pending.put(transition.version, transition);
+
+      StateTransition next;
+      while ((next = pending.remove(written + 1)) != null) {
+        written = next.version;
+        try {
+          repository.updateState(portalId, next.next);
+        } catch (RuntimeException e) {
+          // The in-memory state stays authoritative until the next transition is stored
+          log.error("Error persisting state {} of portal {}:", next.next, portalId, e);
+        }
+
+        journal.transitioned(portalId, next.previous, next.next);
+      }
+    }
+
+  }
+
+}
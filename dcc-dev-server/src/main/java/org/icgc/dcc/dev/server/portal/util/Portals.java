@@ -23,6 +23,7 @@ import org.icgc.dcc.dev.server.portal.Portal;
 
 import lombok.NoArgsConstructor;
 import lombok.NonNull;
+import lombok.val;
 
 /**
  * Portal utilities.
@@ -46,8 +47,50 @@ public final class Portals {
    */
   public static final String MANAGEMENT_PORT_PROPERTY = "management.port";
 
+  /**
+   * Admin bind address property name of a running instance. Only reachable from the dev server host.
+   */
+  public static final String MANAGEMENT_ADDRESS_PROPERTY = "management.address";
+
+  /**
+   * Admin bind address of a running instance, also used to reach it. A literal IPv4 address so that it does not depend
+   * on what {@code localhost} resolves to.
+   */
+  public static final String MANAGEMENT_ADDRESS = "127.0.0.1";
+
+  /**
+   * Admin credential property names of a running instance, used to apply configuration at runtime.
+   */
+  public static final String MANAGEMENT_USER_PROPERTY = "security.user.name";
+  public static final String MANAGEMENT_PASSWORD_PROPERTY = "security.user.password";
+
+  /**
+   * Admin security property name that older deployments disabled. No longer set.
+   */
+  public static final String MANAGEMENT_SECURITY_PROPERTY = "management.security.enabled";
+
   public static String getServerPort(@NonNull Portal portal) {
     return portal.getSystemConfig().get(Portals.SERVER_PORT_PROPERTY);
   }
 
+  public static String getManagementPort(@NonNull Portal portal) {
+    return portal.getSystemConfig().get(Portals.MANAGEMENT_PORT_PROPERTY);
+  }
+
+  public static String getManagementUser(@NonNull Portal portal) {
+    return getEffectiveProperty(portal, MANAGEMENT_USER_PROPERTY);
+  }
+
+  public static String getManagementPassword(@NonNull Portal portal) {
+    return getEffectiveProperty(portal, MANAGEMENT_PASSWORD_PROPERTY);
+  }
+
+  private static String getEffectiveProperty(Portal portal, String name) {
+    // User supplied credentials are left in place, so they are the ones the instance runs with
+    val config = portal.getConfig();
+    if (config != null && config.containsKey(MANAGEMENT_PASSWORD_PROPERTY)) return config.get(name);
+
+    return portal.getSystemConfig().get(name);
+  }
+
 }
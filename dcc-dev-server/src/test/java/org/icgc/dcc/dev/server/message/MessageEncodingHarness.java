@@ -0,0 +1,409 @@
+/*
+ * Copyright (c) 2016 The Ontario Institute for Cancer Research. All rights reserved.                             
+ *                                                                                                               
+ * This program and the accompanying materials are made available under the terms of the GNU Public License v3.0.
+ * You should have received a copy of the GNU General Public License along with                                  
+ * this program. If not, see <http://www.gnu.org/licenses/>.                                                     
+ *                                                                                                               
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY                           
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES                          
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT                           
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,                                
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED                          
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;                               
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER                              
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN                         
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.icgc.dcc.dev.server.message;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.slf4j.Logger.ROOT_LOGGER_NAME;
+import static org.springframework.util.MimeTypeUtils.APPLICATION_JSON;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Type;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.websocket.TomcatWebSocketContainerCustomizer;
+import org.springframework.boot.context.embedded.AnnotationConfigEmbeddedWebApplicationContext;
+import org.springframework.boot.context.embedded.tomcat.TomcatEmbeddedServletContainerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.converter.SimpleMessageConverter;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.config.ChannelRegistration;
+import org.springframework.messaging.simp.config.MessageBrokerRegistry;
+import org.springframework.messaging.simp.stomp.StompCommand;
+import org.springframework.messaging.simp.stomp.StompFrameHandler;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.web.servlet.DispatcherServlet;
+import org.springframework.web.socket.WebSocketExtension;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.config.annotation.AbstractWebSocketMessageBrokerConfigurer;
+import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
+import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import lombok.Cleanup;
+import lombok.RequiredArgsConstructor;
+import lombok.SneakyThrows;
+import lombok.val;
+
+/**
+ * Measures what a chatty log stream costs on the wire over {@code /messages-binary} as JSON and CBOR, with and without
+ * permessage-deflate.
+ * <p>
+ * Starts an embedded server with the {@link MessageEncoder} configured as in {@code MessageConfig} and a STOMP client
+ * that subscribes to a log topic through a proxy counting the bytes sent by the server. Log frames are built as
+ * {@code PortalLogs} builds them and published with the headers {@code MessageService} adds. Run {@link #main} with
+ * the test classpath.
+ */
+public class MessageEncodingHarness {
+
+  /**
+   * Constants.
+   */
+  static final String TOPIC = "/topic/logs/1";
+  static final String PROBE_HEADER = "probe";
+  static final int FRAMES = 10000;
+  static final int MAX_FRAME_LINES = 8;
+  static final int WINDOW = 64;
+  static final String[] THREADS = { "http-nio-8080-exec-3", "http-nio-8080-exec-7", "pool-2-thread-1", "main" };
+  static final String[] LOGGERS = { "o.i.d.p.s.r.ProjectResource", "o.i.d.p.s.r.DonorResource",
+      "o.i.d.p.s.s.DonorService", "o.i.d.p.s.r.es.DonorRepository" };
+
+  @SneakyThrows
+  public static void main(String... args) {
+    ((Logger) LoggerFactory.getLogger(ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+
+    val frames = createFrames();
+    long lines = 0;
+    long jsonBytes = 0;
+    for (val frame : frames) {
+      lines += frame.lines;
+      jsonBytes += frame.json.length;
+    }
+    System.out.printf("%d frames, %d lines, %d bytes of JSON payload%n%n", frames.size(), lines, jsonBytes);
+
+    @Cleanup("close")
+    val context = new AnnotationConfigEmbeddedWebApplicationContext(HarnessConfig.class);
+    val port = context.getEmbeddedServletContainer().getPort();
+    val template = context.getBean(SimpMessagingTemplate.class);
+
+    // Warm up both encodings before measuring
+    run(template, port, frames, false, false);
+    run(template, port, frames, true, false);
+
+    System.out.printf("%-14s %12s %12s %10s %10s%n", "encoding", "wire bytes", "bytes/line", "frames/s", "vs json");
+    long baseline = 0;
+    for (val deflate : new boolean[] { false, true }) {
+      for (val cbor : new boolean[] { false, true }) {
+        val result = run(template, port, frames, cbor, deflate);
+        if (baseline == 0) baseline = result.wireBytes;
+
+        System.out.printf("%-14s %12d %12.1f %10.0f %9.0f%%%n",
+            (cbor ? "cbor" : "json") + (deflate ? "+deflate" : ""),
+            result.wireBytes,
+            (double) result.wireBytes / lines,
+            frames.size() * 1e9 / result.elapsed,
+            100.0 * result.wireBytes / baseline);
+      }
+    }
+
+    val stats = context.getBean(MessageEncoder.class).getStats();
+    System.out.printf("%nCBOR encoding: %d payloads, %.1f%% of JSON size, %d us mean%n",
+        stats.getEncodings(), 100.0 * stats.getCborBytes() / stats.getJsonBytes(), stats.getMeanEncodingTime());
+  }
+
+  private static Result run(SimpMessagingTemplate template, int port, List<Frame> frames, boolean cbor,
+      boolean deflate) throws Exception {
+    @Cleanup
+    val proxy = new CountingProxy(port);
+
+    val client = new WebSocketStompClient(new StandardWebSocketClient());
+    client.setMessageConverter(new SimpleMessageConverter());
+    client.start();
+
+    val headers = new WebSocketHttpHeaders();
+    if (deflate) headers.setSecWebSocketExtensions(ImmutableList.of(new WebSocketExtension("permessage-deflate")));
+
+    val url = "ws://localhost:" + proxy.getPort() + "/messages-binary";
+    val session = client.connect(url, headers, new StompSessionHandlerAdapter() {
+
+      @Override
+      public void handleException(StompSession session, StompCommand command, StompHeaders headers, byte[] payload,
+          Throwable exception) {
+        exception.printStackTrace();
+      }
+
+      @Override
+      public void handleTransportError(StompSession session, Throwable exception) {
+        exception.printStackTrace();
+      }
+
+    }).get(10, SECONDS);
+
+    val window = new Semaphore(WINDOW);
+    val received = new CountDownLatch(frames.size());
+    val subscribeHeaders = new StompHeaders();
+    subscribeHeaders.setDestination(TOPIC);
+    if (cbor) subscribeHeaders.add(MessageEncoder.ACCEPT_HEADER, MessageEncoder.CBOR);
+
+    val subscribed = new CountDownLatch(1);
+    session.subscribe(subscribeHeaders, new StompFrameHandler() {
+
+      @Override
+      public Type getPayloadType(StompHeaders headers) {
+        return byte[].class;
+      }
+
+      @Override
+      public void handleFrame(StompHeaders headers, Object payload) {
+        if (headers.containsKey(PROBE_HEADER)) {
+          subscribed.countDown();
+          return;
+        }
+
+        window.release();
+        received.countDown();
+      }
+
+    });
+
+    // The subscription is registered asynchronously, so probe until a message arrives
+    while (!subscribed.await(10, MILLISECONDS)) {
+      template.send(TOPIC, createMessage(frames.get(0), true));
+    }
+    Thread.sleep(100);
+
+    val start = System.nanoTime();
+    val startBytes = proxy.getDownstream();
+    for (val frame : frames) {
+      window.acquire();
+      template.send(TOPIC, createMessage(frame, false));
+    }
+
+    if (!received.await(60, SECONDS)) throw new IllegalStateException("Timed out receiving frames");
+    val result = new Result(proxy.getDownstream() - startBytes, System.nanoTime() - start);
+
+    session.disconnect();
+    client.stop();
+
+    return result;
+  }
+
+  private static Message<byte[]> createMessage(Frame frame, boolean probe) {
+    val headers = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+    if (probe) headers.setNativeHeader(PROBE_HEADER, "true");
+    headers.setNativeHeader("log-offset", String.valueOf(frame.offset));
+    headers.setNativeHeader("log-lines", String.valueOf(frame.lines));
+    headers.setContentType(APPLICATION_JSON);
+
+    return MessageBuilder.createMessage(frame.json, headers.getMessageHeaders());
+  }
+
+  /**
+   * Bursts of short request log lines, as logged by a portal serving the UI.
+   */
+  @SneakyThrows
+  private static List<Frame> createFrames() {
+    val random = new Random(1);
+    val factory = new JsonFactory();
+    val frames = Lists.<Frame> newArrayList();
+
+    long time = 1474452942123L;
+    long offset = 0;
+    for (int i = 0; i < FRAMES; i++) {
+      val lines = Lists.<byte[]> newArrayList();
+      long nextOffset = offset;
+      for (int j = 1 + random.nextInt(MAX_FRAME_LINES); j > 0; j--) {
+        time += random.nextInt(50);
+        val line = String.format("%tF %<tT,%<tL [%s] INFO  %s - Request: GET /api/v1/donors/DO%d?include=facets "
+            + "size=%d took %d ms", time, THREADS[random.nextInt(THREADS.length)],
+            LOGGERS[random.nextInt(LOGGERS.length)], 10000 + random.nextInt(90000), 10 + random.nextInt(90),
+            random.nextInt(500)).getBytes(UTF_8);
+        lines.add(line);
+        nextOffset += line.length + 1;
+      }
+
+      val output = new ByteArrayBuilder();
+      try (JsonGenerator generator = factory.createGenerator(output)) {
+        generator.writeStartObject();
+        generator.writeNumberField("portalId", 1);
+        generator.writeNumberField("timestamp", time);
+        generator.writeNumberField("offset", offset);
+        generator.writeNumberField("nextOffset", nextOffset);
+        generator.writeArrayFieldStart("lines");
+        for (val line : lines) {
+          generator.writeUTF8String(line, 0, line.length);
+        }
+        generator.writeEndArray();
+        generator.writeEndObject();
+      }
+
+      frames.add(new Frame(output.toByteArray(), offset, lines.size()));
+      offset = nextOffset;
+    }
+
+    return frames;
+  }
+
+  @Configuration
+  @EnableWebSocketMessageBroker
+  static class HarnessConfig extends AbstractWebSocketMessageBrokerConfigurer {
+
+    @Bean
+    public TomcatEmbeddedServletContainerFactory containerFactory() {
+      val factory = new TomcatEmbeddedServletContainerFactory(0);
+      new TomcatWebSocketContainerCustomizer().customize(factory);
+
+      return factory;
+    }
+
+    @Bean
+    public DispatcherServlet dispatcherServlet() {
+      return new DispatcherServlet();
+    }
+
+    @Bean
+    public MessageEncoder encoder() {
+      return new MessageEncoder();
+    }
+
+    @Override
+    public void configureMessageBroker(MessageBrokerRegistry config) {
+      config.enableSimpleBroker("/topic");
+    }
+
+    @Override
+    public void registerStompEndpoints(StompEndpointRegistry registry) {
+      registry.addEndpoint("/messages-binary").setAllowedOrigins("*").addInterceptors(encoder());
+    }
+
+    @Override
+    public void configureClientInboundChannel(ChannelRegistration registration) {
+      registration.setInterceptors(encoder());
+    }
+
+    @Override
+    public void configureClientOutboundChannel(ChannelRegistration registration) {
+      registration.setInterceptors(encoder());
+    }
+
+  }
+
+  /**
+   * Forwards one connection to the server and counts the bytes the server sends.
+   */
+  static class CountingProxy implements AutoCloseable {
+
+    final ServerSocket serverSocket;
+    final AtomicLong downstream = new AtomicLong();
+    final List<Socket> sockets = Lists.newCopyOnWriteArrayList();
+
+    CountingProxy(int port) throws IOException {
+      this.serverSocket = new ServerSocket(0);
+
+      val thread = new Thread(() -> accept(port), "counting-proxy");
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+    int getPort() {
+      return serverSocket.getLocalPort();
+    }
+
+    long getDownstream() {
+      return downstream.get();
+    }
+
+    @Override
+    public void close() throws Exception {
+      serverSocket.close();
+      for (val socket : sockets) {
+        socket.close();
+      }
+    }
+
+    @SneakyThrows
+    private void accept(int port) {
+      while (!serverSocket.isClosed()) {
+        Socket client;
+        try {
+          client = serverSocket.accept();
+        } catch (Exception e) {
+          return;
+        }
+
+        Socket server = new Socket("localhost", port);
+        sockets.add(client);
+        sockets.add(server);
+        pipe(client.getInputStream(), server.getOutputStream(), null);
+        pipe(server.getInputStream(), client.getOutputStream(), downstream);
+      }
+    }
+
+    private static void pipe(InputStream input, OutputStream output, AtomicLong counter) {
+      val thread = new Thread(() -> {
+        byte[] buffer = new byte[64 * 1024];
+        try {
+          for (int count; (count = input.read(buffer)) > 0;) {
+            output.write(buffer, 0, count);
+            output.flush();
+            if (counter != null) counter.addAndGet(count);
+          }
+        } catch (Exception e) {
+          // Closed
+        }
+      }, "counting-proxy-pipe");
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+  }
+
+  @RequiredArgsConstructor
+  static class Frame {
+
+    final byte[] json;
+    final long offset;
+    final int lines;
+
+  }
+
+  @RequiredArgsConstructor
+  static class Result {
+
+    final long wireBytes;
+    final long elapsed;
+
+  }
+
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2016 The Ontario Institute for Cancer Research. All rights reserved.                             
+ *                                                                                                               
+ * This program and the accompanying materials are made available under the terms of the GNU Public License v3.0.
+ * You should have received a copy of the GNU General Public License along with                                  
+ * this program. If not, see <http://www.gnu.org/licenses/>.                                                     
+ *                                                                                                               
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY                           
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES                          
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT                           
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,                                
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED                          
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;                               
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER                              
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN                         
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.icgc.dcc.dev.server.message;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.messaging.support.MessageHandlingRunnable;
+
+import com.google.common.collect.Lists;
+
+import lombok.RequiredArgsConstructor;
+import lombok.SneakyThrows;
+import lombok.val;
+
+public class MessageSessionExecutorTest {
+
+  MessageSessionExecutor executor = new MessageSessionExecutor();
+
+  @Before
+  public void setUp() {
+    executor.setCorePoolSize(4);
+    executor.initialize();
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdown();
+  }
+
+  @Test
+  public void testSessionOrder() throws InterruptedException {
+    List<Integer> delivered = Lists.newCopyOnWriteArrayList();
+    val done = new CountDownLatch(1000);
+    for (int i = 0; i < 1000; i++) {
+      int sequence = i;
+      executor.execute(new Task("session", () -> {
+        delivered.add(sequence);
+        done.countDown();
+      }));
+    }
+
+    assertThat(done.await(10, SECONDS)).isTrue();
+    for (int i = 0; i < 1000; i++) {
+      assertThat(delivered.get(i)).isEqualTo(i);
+    }
+    assertThat(executor.lanes).isEmpty();
+  }
+
+  @Test
+  public void testBlockedSessionDoesNotBlockOthers() throws InterruptedException {
+    val blocked = new CountDownLatch(1);
+    val delivered = new CountDownLatch(1);
+    executor.execute(new Task("slow", () -> await(blocked)));
+    executor.execute(new Task("slow", () -> {}));
+    executor.execute(new Task("fast", delivered::countDown));
+
+    assertThat(delivered.await(10, SECONDS)).isTrue();
+    assertThat(executor.lanes.get("slow")).hasSize(1);
+    blocked.countDown();
+  }
+
+  @SneakyThrows
+  private static void await(CountDownLatch latch) {
+    latch.await();
+  }
+
+  @RequiredArgsConstructor
+  private static class Task implements MessageHandlingRunnable {
+
+    final String sessionId;
+    final Runnable delivery;
+
+    @Override
+    public Message<?> getMessage() {
+      val accessor = SimpMessageHeaderAccessor.create();
+      accessor.setSessionId(sessionId);
+      return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+    }
+
+    @Override
+    public MessageHandler getMessageHandler() {
+      return null;
+    }
+
+    @Override
+    public void run() {
+      delivery.run();
+    }
+
+  }
+
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2016 The Ontario Institute for Cancer Research. All rights reserved.                             
+ *                                                                                                               
+ * This program and the accompanying materials are made available under the terms of the GNU Public License v3.0.
+ * You should have received a copy of the GNU General Public License along with                                  
+ * this program. If not, see <http://www.gnu.org/licenses/>.                                                     
+ *                                                                                                               
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY                           
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES                          
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT                           
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,                                
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED                          
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;                               
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER                              
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN                         
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.icgc.dcc.dev.server.portal;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Optional;
+
+import org.icgc.dcc.dev.server.message.MessageService;
+import org.icgc.dcc.dev.server.message.Messages.PortalChangeMessage;
+import org.icgc.dcc.dev.server.message.Messages.PortalChangeType;
+import org.icgc.dcc.dev.server.message.Messages.PortalDeltaMessage;
+import org.icgc.dcc.dev.server.portal.io.PortalExecutor.State;
+import org.icgc.dcc.dev.server.portal.util.PortalRegistry;
+import org.icgc.dcc.dev.server.portal.util.PortalStates;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+
+import lombok.val;
+
+public class PortalDeltasTest {
+
+  PortalDeltas deltas = new PortalDeltas();
+  Portal portal = new Portal().setId(1).setSlug("portal").setTitle("Portal");
+
+  @Before
+  public void setUp() {
+    deltas.history = 2;
+    deltas.registry = mock(PortalRegistry.class);
+    deltas.states = mock(PortalStates.class);
+    deltas.messages = mock(MessageService.class);
+    deltas.mapper = new ObjectMapper();
+
+    when(deltas.registry.list()).thenReturn(ImmutableList.of(portal));
+    when(deltas.registry.get(1)).thenAnswer(invocation -> Optional.of(copy(portal)));
+    when(deltas.states.get(1)).thenReturn(State.STOPPED);
+    deltas.init();
+  }
+
+  @Test
+  public void testDiff() {
+    portal.setTitle("Renamed").setDescription("Described");
+    update(PortalChangeType.UPDATED);
+
+    val changes = deltas.getChanges(deltas.epoch, 0L);
+    assertThat(changes.getPortals()).isNull();
+    assertThat(changes.getSequence()).isEqualTo(1);
+    assertThat(changes.getDeltas()).hasSize(1);
+
+    val delta = changes.getDeltas().get(0);
+    assertThat(delta.getSequence()).isEqualTo(1);
+    assertThat(delta.getPortalId()).isEqualTo(1);
+    assertThat(delta.getChanges().get("title").asText()).isEqualTo("Renamed");
+    assertThat(delta.getChanges().get("description").asText()).isEqualTo("Described");
+    assertThat(delta.getChanges().has("slug")).isFalse();
+
+    verify(deltas.messages).sendMessage(any(PortalDeltaMessage.class));
+  }
+
+  @Test
+  public void testUnchanged() {
+    update(PortalChangeType.UPDATED);
+
+    assertThat(deltas.getChanges(deltas.epoch, 0L).getDeltas()).isEmpty();
+    verify(deltas.messages, times(0)).sendMessage(any());
+  }
+
+  @Test
+  public void testResume() {
+    portal.setTitle("First");
+    update(PortalChangeType.UPDATED);
+    portal.setTitle("Second");
+    update(PortalChangeType.UPDATED);
+
+    val changes = deltas.getChanges(deltas.epoch, 1L);
+    assertThat(changes.getPortals()).isNull();
+    assertThat(changes.getDeltas()).extracting(PortalDeltaMessage::getSequence).containsExactly(2L);
+
+    // Up to date
+    assertThat(deltas.getChanges(deltas.epoch, 2L).getDeltas()).isEmpty();
+  }
+
+  @Test
+  public void testSnapshotWhenTooFarBehind() {
+    for (val title : ImmutableList.of("First", "Second", "Third")) {
+      portal.setTitle(title);
+      update(PortalChangeType.UPDATED);
+    }
+
+    // Only the last two deltas are kept
+    assertThat(deltas.getChanges(deltas.epoch, 1L).getDeltas()).hasSize(2);
+    assertSnapshot(deltas.getChanges(deltas.epoch, 0L), "Third");
+  }
+
+  @Test
+  public void testSnapshotForOtherEpoch() {
+    portal.setTitle("Renamed");
+    update(PortalChangeType.UPDATED);
+
+    assertSnapshot(deltas.getChanges("previous", 1L), "Renamed");
+    assertSnapshot(deltas.getChanges(null, null), "Renamed");
+    assertSnapshot(deltas.getChanges(deltas.epoch, 5L), "Renamed");
+  }
+
+  @Test
+  public void testRemoved() {
+    update(PortalChangeType.REMOVED);
+
+    val changes = deltas.getChanges(deltas.epoch, 0L);
+    assertThat(changes.getDeltas()).hasSize(1);
+    assertThat(changes.getDeltas().get(0).getType()).isEqualTo(PortalChangeType.REMOVED);
+    assertThat(changes.getDeltas().get(0).getChanges()).isNull();
+    assertThat(deltas.getChanges(null, null).getPortals()).isEmpty();
+  }
+
+  private void update(PortalChangeType type) {
+    deltas.handle(new PortalChangeMessage().setPortalId(1).setType(type));
+  }
+
+  private void assertSnapshot(PortalDeltas.PortalChanges changes, String title) {
+    assertThat(changes.getDeltas()).isNull();
+    assertThat(changes.getSequence()).isEqualTo(deltas.sequence);
+    assertThat(changes.getPortals()).hasSize(1);
+    assertThat(changes.getPortals().get(0).get("title").asText()).isEqualTo(title);
+  }
+
+  private Portal copy(Portal portal) {
+    return deltas.mapper.convertValue(portal, Portal.class);
+  }
+
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2016 The Ontario Institute for Cancer Research. All rights reserved.                             
+ *                                                                                                               
+ * This program and the accompanying materials are made available under the terms of the GNU Public License v3.0.
+ * You should have received a copy of the GNU General Public License along with                                  
+ * this program. If not, see <http://www.gnu.org/licenses/>.                                                     
+ *                                                                                                               
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY                           
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES                          
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT                           
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,                                
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED                          
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;                               
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER                              
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN                         
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.icgc.dcc.dev.server.portal.io;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Properties;
+
+import org.icgc.dcc.dev.server.message.MessageService;
+import org.icgc.dcc.dev.server.portal.Portal;
+import org.icgc.dcc.dev.server.portal.io.PortalExecutor.State;
+import org.icgc.dcc.dev.server.portal.util.PortalLocks;
+import org.icgc.dcc.dev.server.portal.util.PortalStates;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import lombok.val;
+
+public class PortalExecutorTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  PortalExecutor executor = new PortalExecutor();
+  Portal portal = new Portal().setId(1);
+
+  @Before
+  public void setUp() {
+    executor.config = new Properties();
+    executor.fileSystem = mock(PortalFileSystem.class);
+    executor.locks = mock(PortalLocks.class);
+    executor.states = mock(PortalStates.class);
+    executor.supervisor = mock(PortalSupervisor.class);
+    executor.readiness = mock(PortalReadiness.class);
+    executor.commands = mock(PortalCommandExecutor.class);
+    executor.messages = mock(MessageService.class);
+
+    // The wrapper script was never deployed
+    when(executor.fileSystem.getScriptFile(1)).thenReturn(new File(tmp.getRoot(), "missing"));
+  }
+
+  @Test(expected = IOException.class)
+  public void testStartFailure() {
+    try {
+      executor.start(portal);
+    } finally {
+      val order = inOrder(executor.states);
+      order.verify(executor.states).update(1, State.STARTING);
+      order.verify(executor.states).update(1, State.FAILED);
+      verify(executor.supervisor, never()).attach(any(), any());
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void testRestartFailure() {
+    try {
+      executor.restart(portal);
+    } finally {
+      val order = inOrder(executor.states);
+      order.verify(executor.states).update(1, State.RESTARTING);
+      order.verify(executor.states).update(1, State.FAILED);
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void testStopFailure() {
+    try {
+      executor.stop(portal);
+    } finally {
+      val order = inOrder(executor.states);
+      order.verify(executor.states).update(1, State.STOPPING);
+      order.verify(executor.states).update(1, State.FAILED);
+      verify(executor.states, never()).update(1, State.STOPPED);
+    }
+  }
+
+}
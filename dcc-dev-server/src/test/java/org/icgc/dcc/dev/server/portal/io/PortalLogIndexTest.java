@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2016 The Ontario Institute for Cancer Research. All rights reserved.                             
+ *                                                                                                               
+ * This program and the accompanying materials are made available under the terms of the GNU Public License v3.0.
+ * You should have received a copy of the GNU General Public License along with                                  
+ * this program. If not, see <http://www.gnu.org/licenses/>.                                                     
+ *                                                                                                               
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY                           
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES                          
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT                           
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,                                
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED                          
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;                               
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER                              
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN                         
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.icgc.dcc.dev.server.portal.io;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.List;
+
+import org.icgc.dcc.dev.server.portal.io.PortalLogIndex.BlockRange;
+import org.junit.Test;
+
+import lombok.val;
+
+public class PortalLogIndexTest {
+
+  /**
+   * Constants.
+   */
+  static final LocalDateTime START = LocalDateTime.of(2016, 9, 21, 10, 0);
+
+  PortalLogIndex index = new PortalLogIndex(new File("portal.log"), "key");
+  long offset;
+
+  @Test
+  public void testTermPruning() {
+    addBlock("alpha", 0);
+    addBlock("beta", 1);
+    addBlock("gamma", 2);
+
+    assertThat(getStarts(index.findRanges(PortalLogIndex.getTerms("beta"), null, null)))
+        .containsExactly(index.blocks.get(1).offset);
+    assertThat(getStarts(index.findRanges(PortalLogIndex.getTerms("Gamma line"), null, null)))
+        .containsExactly(index.blocks.get(2).offset);
+    assertThat(index.findRanges(PortalLogIndex.getTerms("alpha beta"), null, null)).isEmpty();
+    assertThat(index.findRanges(PortalLogIndex.getTerms("delta"), null, null)).isEmpty();
+    assertThat(index.findRanges(PortalLogIndex.getTerms("line"), null, null)).hasSize(3);
+  }
+
+  @Test
+  public void testTimePruning() {
+    addBlock("alpha", 0);
+    addBlock("beta", 1);
+    addBlock("gamma", 2);
+
+    val from = toMillis(START.plusHours(1));
+    val to = toMillis(START.plusHours(2));
+    val ranges = index.findRanges(new long[0], from, to);
+
+    assertThat(getStarts(ranges)).containsExactly(index.blocks.get(1).offset);
+    assertThat(ranges.get(0).getEnd()).isEqualTo(index.blocks.get(2).offset);
+  }
+
+  @Test
+  public void testRangeTimestamp() {
+    addBlock("alpha", 0);
+
+    // A block that starts with the stack trace of a record of the previous block
+    addLine("\tat org.icgc.Test.run(Test.java:1)");
+    while (offset - index.blocks.get(0).offset < PortalLogIndex.BLOCK_SIZE) {
+      addLine("\tat org.icgc.Test.run(Test.java:1)");
+    }
+    addLine("\tat org.icgc.Bootstrap.start(Bootstrap.java:2)");
+
+    val ranges = index.findRanges(PortalLogIndex.getTerms("bootstrap"), null, null);
+
+    assertThat(ranges).hasSize(1);
+    assertThat(ranges.get(0).getTimestamp()).isEqualTo(index.blocks.get(0).maxTimestamp);
+  }
+
+  @Test
+  public void testFalsePositiveRate() {
+    for (int block = 0; block < 3; block++) {
+      addBlock("block" + block, block);
+    }
+
+    // Completed blocks hold bloom filters
+    int falsePositives = 0;
+    for (int i = 0; i < 1000; i++) {
+      falsePositives += index.findRanges(PortalLogIndex.getTerms("missing" + i), null, null).size();
+    }
+
+    assertThat(falsePositives).isLessThan(2 * 1000 * 5 / 100);
+  }
+
+  private void addBlock(String term, int hour) {
+    val start = offset;
+    for (int i = 0; offset - start < PortalLogIndex.BLOCK_SIZE; i++) {
+      val time = START.plusHours(hour).plusSeconds(i);
+      addLine(String.format("%tF %<tT,000 [main] INFO  org.icgc.Test - %s line %d", time, term, i));
+    }
+  }
+
+  private void addLine(String line) {
+    val bytes = line.getBytes(UTF_8);
+    index.addLine(bytes, 0, bytes.length, offset);
+    offset += bytes.length + 1;
+  }
+
+  private static long[] getStarts(List<BlockRange> ranges) {
+    return ranges.stream().mapToLong(BlockRange::getStart).toArray();
+  }
+
+  private static long toMillis(LocalDateTime time) {
+    return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+  }
+
+}
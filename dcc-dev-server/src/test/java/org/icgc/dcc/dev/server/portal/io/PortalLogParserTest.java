@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2016 The Ontario Institute for Cancer Research. All rights reserved.                             
+ *                                                                                                               
+ * This program and the accompanying materials are made available under the terms of the GNU Public License v3.0.
+ * You should have received a copy of the GNU General Public License along with                                  
+ * this program. If not, see <http://www.gnu.org/licenses/>.                                                     
+ *                                                                                                               
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY                           
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES                          
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT                           
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,                                
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED                          
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;                               
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER                              
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN                         
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.icgc.dcc.dev.server.portal.io;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Test;
+
+import lombok.val;
+
+public class PortalLogParserTest {
+
+  PortalLogParser parser = new PortalLogParser(1);
+
+  @Test
+  public void testMultiLineRecords() {
+    val records = parser.parse(createBatch(0, false,
+        "2016-09-21 10:15:42,123 [main] ERROR org.icgc.Test - Failed",
+        "java.lang.IllegalStateException: Broken",
+        "\tat org.icgc.Test.run(Test.java:1)",
+        "2016-09-21 10:15:43,000 [main] INFO  org.icgc.Test - Recovered"));
+
+    assertThat(records).hasSize(2);
+
+    val error = records.get(0);
+    assertThat(error.getPortalId()).isEqualTo(1);
+    assertThat(error.getOffset()).isEqualTo(0);
+    assertThat(error.getLevel()).isEqualTo("ERROR");
+    assertThat(error.getThread()).isEqualTo("main");
+    assertThat(error.getLogger()).isEqualTo("org.icgc.Test");
+    assertThat(error.getMessage()).isEqualTo("Failed");
+    assertThat(error.getTimestamp()).isNotNull();
+    assertThat(error.getStackTrace()).containsExactly(
+        "java.lang.IllegalStateException: Broken",
+        "\tat org.icgc.Test.run(Test.java:1)");
+
+    val info = records.get(1);
+    assertThat(info.getLevel()).isEqualTo("INFO");
+    assertThat(info.getMessage()).isEqualTo("Recovered");
+    assertThat(info.getStackTrace()).isEmpty();
+    assertThat(info.getOffset()).isEqualTo(getLength(
+        "2016-09-21 10:15:42,123 [main] ERROR org.icgc.Test - Failed",
+        "java.lang.IllegalStateException: Broken",
+        "\tat org.icgc.Test.run(Test.java:1)"));
+  }
+
+  @Test
+  public void testContinuedBatch() {
+    val first = parser.parse(createBatch(0, true,
+        "2016-09-21 10:15:42,123 [main] ERROR org.icgc.Test - Failed",
+        "java.lang.IllegalStateException: Broken"));
+    assertThat(first).isEmpty();
+
+    val second = parser.parse(createBatch(100, false,
+        "\tat org.icgc.Test.run(Test.java:1)",
+        "2016-09-21 10:15:43,000 [main] INFO  org.icgc.Test - Recovered"));
+
+    assertThat(second).hasSize(2);
+    assertThat(second.get(0).getMessage()).isEqualTo("Failed");
+    assertThat(second.get(0).getStackTrace()).containsExactly(
+        "java.lang.IllegalStateException: Broken",
+        "\tat org.icgc.Test.run(Test.java:1)");
+    assertThat(second.get(1).getOffset()).isEqualTo(100 + getLength("\tat org.icgc.Test.run(Test.java:1)"));
+    assertThat(parser.close().isPresent()).isFalse();
+  }
+
+  @Test
+  public void testUnstructuredLines() {
+    val records = parser.parse(createBatch(0, false, "Starting wrapper", "  with options"));
+
+    assertThat(records).hasSize(1);
+    assertThat(records.get(0).getMessage()).isEqualTo("Starting wrapper");
+    assertThat(records.get(0).getLevel()).isNull();
+    assertThat(records.get(0).getStackTrace()).containsExactly("  with options");
+  }
+
+  @Test
+  public void testClose() {
+    parser.parse(createBatch(0, true, "2016-09-21 10:15:42,123 [main] WARN  org.icgc.Test - Slow"));
+
+    val record = parser.close();
+    assertThat(record.isPresent()).isTrue();
+    assertThat(record.get().getMessage()).isEqualTo("Slow");
+    assertThat(parser.close().isPresent()).isFalse();
+  }
+
+  private static PortalLogBatch createBatch(long offset, boolean continued, String... lines) {
+    val batch = new PortalLogBatch(1);
+    batch.setOffset(offset);
+    batch.setNextOffset(offset + getLength(lines));
+    batch.setContinued(continued);
+    for (val line : lines) {
+      val bytes = line.getBytes(UTF_8);
+      batch.append(bytes, 0, bytes.length);
+      batch.commit();
+    }
+
+    return batch;
+  }
+
+  private static int getLength(String... lines) {
+    int length = 0;
+    for (val line : lines) {
+      length += line.getBytes(UTF_8).length + 1;
+    }
+
+    return length;
+  }
+
+}
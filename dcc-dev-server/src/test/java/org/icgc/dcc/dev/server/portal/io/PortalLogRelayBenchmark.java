@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2016 The Ontario Institute for Cancer Research. All rights reserved.                             
+ *                                                                                                               
+ * This program and the accompanying materials are made available under the terms of the GNU Public License v3.0.
+ * You should have received a copy of the GNU General Public License along with                                  
+ * this program. If not, see <http://www.gnu.org/licenses/>.                                                     
+ *                                                                                                               
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY                           
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES                          
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT                           
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,                                
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED                          
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;                               
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER                              
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN                         
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.icgc.dcc.dev.server.portal.io;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import lombok.Data;
+import lombok.SneakyThrows;
+import lombok.val;
+import lombok.experimental.Accessors;
+
+/**
+ * Compares the allocations per relayed log line of the previous line path with the current one.
+ * <p>
+ * {@code legacy} splits a read buffer into a {@code String} per line and serializes a message object per batch, as the
+ * tailer and {@code PortalLogs} did before. {@code relay} collects the lines in a reused {@link PortalLogBatch} and
+ * writes the frame straight from its bytes, as they do now. Neither echoes the lines to the server log. Run
+ * {@link #main} with the test classpath and compare {@code gc.alloc.rate.norm}, which is in bytes per line.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PortalLogRelayBenchmark {
+
+  /**
+   * Constants.
+   */
+  static final int LINES = 64;
+  static final String LINE = "2016-09-21 10:15:42,123 [http-nio-8080-exec-7] INFO  o.i.d.p.s.r.ProjectResource - "
+      + "Request: GET /api/v1/projects?filters={} size=25 took 12 ms";
+
+  /**
+   * State.
+   */
+  final ObjectMapper mapper = new ObjectMapper();
+  ByteBuffer buffer;
+
+  // Legacy
+  byte[] line = new byte[256];
+  int lineLength;
+
+  // Relay
+  final PortalLogBatch batch = new PortalLogBatch(1);
+  final ByteArrayBuilder frame = new ByteArrayBuilder(16 * 1024);
+
+  @Setup
+  public void setUp() {
+    val text = new StringBuilder();
+    for (int i = 0; i < LINES; i++) {
+      text.append(LINE).append(" #").append(i).append('\n');
+    }
+
+    buffer = ByteBuffer.allocateDirect(64 * 1024);
+    buffer.put(text.toString().getBytes(UTF_8)).flip();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(LINES)
+  public byte[] legacy() throws Exception {
+    List<String> lines = Lists.newArrayList();
+    val count = buffer.limit();
+    int start = 0;
+    for (int i = 0; i < count; i++) {
+      if (buffer.get(i) != '\n') continue;
+
+      appendLine(start, i - start);
+      lines.add(new String(line, 0, lineLength, UTF_8));
+      lineLength = 0;
+      start = i + 1;
+    }
+
+    val message = new LegacyLogLinesMessage()
+        .setPortalId(1)
+        .setTimestamp(System.currentTimeMillis())
+        .setOffset(0L)
+        .setNextOffset((long) count)
+        .setLines(ImmutableList.copyOf(lines));
+
+    return mapper.writeValueAsBytes(message);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(LINES)
+  public byte[] relay() throws Exception {
+    val count = buffer.limit();
+    int start = 0;
+    for (int i = 0; i < count; i++) {
+      if (buffer.get(i) != '\n') continue;
+
+      batch.append(buffer, start, i - start);
+      batch.commit();
+      start = i + 1;
+    }
+    batch.setNextOffset(count);
+
+    frame.reset();
+    try (JsonGenerator generator = mapper.getFactory().createGenerator(frame)) {
+      generator.writeStartObject();
+      generator.writeNumberField("portalId", batch.getPortalId());
+      generator.writeNumberField("timestamp", System.currentTimeMillis());
+      generator.writeNumberField("offset", batch.getOffset());
+      generator.writeNumberField("nextOffset", batch.getNextOffset());
+      generator.writeArrayFieldStart("lines");
+
+      val bytes = batch.getBytes();
+      for (int i = 0; i < batch.size(); i++) {
+        val lineStart = batch.getStart(i);
+        generator.writeUTF8String(bytes, lineStart, batch.getEnd(i) - lineStart);
+      }
+
+      generator.writeEndArray();
+      generator.writeEndObject();
+    }
+    batch.clear();
+
+    return frame.toByteArray();
+  }
+
+  private void appendLine(int start, int length) {
+    if (lineLength + length > line.length) line = Arrays.copyOf(line, Math.max(line.length * 2, lineLength + length));
+    buffer.position(start);
+    buffer.get(line, lineLength, length);
+    lineLength += length;
+  }
+
+  @SneakyThrows
+  public static void main(String... args) {
+    new Runner(new OptionsBuilder()
+        .include(PortalLogRelayBenchmark.class.getSimpleName())
+        .addProfiler(GCProfiler.class)
+        .build())
+        .run();
+  }
+
+  /**
+   * The message that was serialized per batch before frames were written from bytes.
+   */
+  @Data
+  @Accessors(chain = true)
+  public static class LegacyLogLinesMessage {
+
+    Integer portalId;
+    Long timestamp;
+    Long offset;
+    Long nextOffset;
+    List<String> lines;
+
+  }
+
+}
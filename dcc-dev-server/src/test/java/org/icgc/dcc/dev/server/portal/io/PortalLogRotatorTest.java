@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2016 The Ontario Institute for Cancer Research. All rights reserved.                             
+ *                                                                                                               
+ * This program and the accompanying materials are made available under the terms of the GNU Public License v3.0.
+ * You should have received a copy of the GNU General Public License along with                                  
+ * this program. If not, see <http://www.gnu.org/licenses/>.                                                     
+ *                                                                                                               
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY                           
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES                          
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT                           
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,                                
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED                          
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;                               
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER                              
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN                         
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.icgc.dcc.dev.server.portal.io;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import lombok.val;
+
+public class PortalLogRotatorTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  PortalLogRotator rotator = new PortalLogRotator();
+  PortalLogIndexer indexer = new PortalLogIndexer();
+  File logFile;
+
+  @Before
+  public void setUp() throws Exception {
+    val logsDir = tmp.newFolder("logs");
+    logFile = new File(logsDir, "portal.log");
+
+    val fileSystem = mock(PortalFileSystem.class);
+    when(fileSystem.getLogFile(1)).thenReturn(logFile);
+    when(fileSystem.getLogsDir(1)).thenReturn(logsDir);
+    when(fileSystem.getBaseName()).thenReturn("portal");
+
+    indexer.fileSystem = fileSystem;
+    indexer.logs = mock(PortalLogs.class);
+    rotator.fileSystem = fileSystem;
+    rotator.indexer = indexer;
+  }
+
+  @After
+  public void tearDown() {
+    indexer.shutdown();
+    rotator.shutdown();
+  }
+
+  @Test
+  public void testRotateResetsIndex() throws Exception {
+    write("before", 100);
+    indexer.update(1);
+    awaitIndexer();
+    assertThat(indexer.search(1, "before", null, null, 1000)).hasSize(100);
+
+    rotator.rotate(1);
+
+    // More than before, so that the truncation cannot be told from the log length
+    write("after", 200);
+    indexer.update(1);
+    awaitIndexer();
+
+    val index = indexer.indexes.get(1);
+    assertThat(index.findRanges(PortalLogIndex.getTerms("before"), null, null)).isEmpty();
+    assertThat(indexer.search(1, "after", null, null, 1000)).hasSize(200)
+        .extracting("file").containsOnly(logFile.getName());
+    assertThat(indexer.search(1, "before", null, null, 1000)).hasSize(100)
+        .extracting("file").doesNotContain(logFile.getName());
+  }
+
+  private void write(String term, int lines) throws Exception {
+    val text = new StringBuilder();
+    for (int i = 0; i < lines; i++) {
+      text.append(String.format("2016-09-21 10:00:%02d,000 [main] INFO  org.icgc.Test - %s line %d%n", i % 60, term,
+          i));
+    }
+
+    if (!logFile.exists()) logFile.createNewFile();
+    Files.write(logFile.toPath(), text.toString().getBytes(UTF_8), APPEND);
+  }
+
+  private void awaitIndexer() throws Exception {
+    // Tasks run in order on the single indexer thread
+    indexer.executor.submit(() -> {}).get();
+  }
+
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2016 The Ontario Institute for Cancer Research. All rights reserved.                             
+ *                                                                                                               
+ * This program and the accompanying materials are made available under the terms of the GNU Public License v3.0.
+ * You should have received a copy of the GNU General Public License along with                                  
+ * this program. If not, see <http://www.gnu.org/licenses/>.                                                     
+ *                                                                                                               
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY                           
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES                          
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT                           
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,                                
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED                          
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;                               
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER                              
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN                         
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.icgc.dcc.dev.server.portal.io;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.READ;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import lombok.Cleanup;
+import lombok.val;
+
+public class PortalLogSegmentTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  byte[] content;
+  File segmentFile;
+
+  @Before
+  public void setUp() throws Exception {
+    // Spans three compressed blocks
+    val text = new StringBuilder();
+    for (int i = 0; text.length() < 2 * PortalLogSegment.BLOCK_SIZE + 1000; i++) {
+      text.append("2016-09-21 10:15:42,123 [main] INFO  org.icgc.Test - Line ").append(i).append('\n');
+    }
+    content = text.toString().getBytes(UTF_8);
+
+    val logFile = tmp.newFile("portal.log");
+    Files.write(logFile.toPath(), content);
+
+    segmentFile = new File(tmp.getRoot(), "portal.20160921-101542123" + PortalLogSegment.EXTENSION);
+    @Cleanup
+    val channel = FileChannel.open(logFile.toPath(), READ);
+    try (PortalLogSegment.Writer writer = PortalLogSegment.create(segmentFile)) {
+      // In two writes, as when catching up during rotation
+      writer.write(channel, 0, 1000);
+      writer.write(channel, 1000, content.length);
+    }
+  }
+
+  @Test
+  public void testIndexRoundTrip() throws Exception {
+    assertThat(PortalLogSegment.isSegment(segmentFile)).isTrue();
+
+    @Cleanup
+    val segment = PortalLogSegment.open(segmentFile);
+    assertThat(segment.size()).isEqualTo(content.length);
+    assertThat(segment.offsets).containsExactly(0, 1000, 1000 + PortalLogSegment.BLOCK_SIZE,
+        1000 + 2 * PortalLogSegment.BLOCK_SIZE);
+    assertThat(segment.positions).isSorted();
+  }
+
+  @Test
+  public void testReadAcrossBlocks() throws Exception {
+    @Cleanup
+    val segment = PortalLogSegment.open(segmentFile);
+
+    val position = 1000 + PortalLogSegment.BLOCK_SIZE - 10;
+    val buffer = ByteBuffer.allocate(PortalLogSegment.BLOCK_SIZE + 20);
+    val count = segment.read(buffer, position);
+
+    assertThat(count).isEqualTo(buffer.capacity());
+    assertThat(buffer.array()).isEqualTo(Arrays.copyOfRange(content, position, position + count));
+  }
+
+  @Test
+  public void testReadPastEnd() throws Exception {
+    @Cleanup
+    val segment = PortalLogSegment.open(segmentFile);
+
+    val buffer = ByteBuffer.allocate(100);
+    assertThat(segment.read(buffer, content.length - 10)).isEqualTo(10);
+    assertThat(segment.read(buffer, content.length)).isEqualTo(-1);
+  }
+
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2016 The Ontario Institute for Cancer Research. All rights reserved.                             
+ *                                                                                                               
+ * This program and the accompanying materials are made available under the terms of the GNU Public License v3.0.
+ * You should have received a copy of the GNU General Public License along with                                  
+ * this program. If not, see <http://www.gnu.org/licenses/>.                                                     
+ *                                                                                                               
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY                           
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES                          
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT                           
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,                                
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED                          
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;                               
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER                              
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN                         
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.icgc.dcc.dev.server.portal.io;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+
+import lombok.val;
+
+public class PortalLogTailerTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  PortalLogTailer tailer = new PortalLogTailer();
+  File logFile;
+
+  @Before
+  public void setUp() throws Exception {
+    tailer.minPollInterval = 10;
+    tailer.maxPollInterval = 50;
+    tailer.maxBatchLines = 1000;
+    tailer.replaySize = 64 * 1024;
+    tailer.init();
+
+    logFile = tmp.newFile("portal.log");
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    tailer.shutdown();
+  }
+
+  @Test
+  public void testLongLineSplitOnCharacters() throws Exception {
+    List<String> lines = Lists.newCopyOnWriteArrayList();
+    val done = new CountDownLatch(1);
+    tailer.tail(1, logFile, batch -> {
+      lines.addAll(batch.getLines());
+      if (batch.getNextOffset() == logFile.length()) done.countDown();
+    });
+    awaitCommands();
+
+    // Three byte characters after an odd prefix cannot all be aligned with the line limit
+    val line = "x" + Strings.repeat("€", PortalLogTailer.MAX_LINE_LENGTH);
+    Files.write(logFile.toPath(), (line + "\n").getBytes(UTF_8), StandardOpenOption.APPEND);
+
+    assertThat(done.await(10, SECONDS)).isTrue();
+    assertThat(lines.size()).isGreaterThan(1);
+    for (val part : lines) {
+      assertThat(part).doesNotContain("�");
+      assertThat(part.getBytes(UTF_8).length).isLessThanOrEqualTo(PortalLogTailer.MAX_LINE_LENGTH);
+    }
+    assertThat(Joiner.on("").join(lines)).isEqualTo(line);
+  }
+
+  private void awaitCommands() throws InterruptedException {
+    // Commands run in order, so the replay completes after the tail started
+    val replayed = new CountDownLatch(1);
+    tailer.replay(1, batch -> replayed.countDown());
+    assertThat(replayed.await(10, SECONDS)).isTrue();
+  }
+
+}
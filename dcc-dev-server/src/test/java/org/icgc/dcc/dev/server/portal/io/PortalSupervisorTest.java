@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2016 The Ontario Institute for Cancer Research. All rights reserved.                             
+ *                                                                                                               
+ * This program and the accompanying materials are made available under the terms of the GNU Public License v3.0.
+ * You should have received a copy of the GNU General Public License along with                                  
+ * this program. If not, see <http://www.gnu.org/licenses/>.                                                     
+ *                                                                                                               
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY                           
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES                          
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT                           
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,                                
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED                          
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;                               
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER                              
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN                         
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.icgc.dcc.dev.server.portal.io;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assume.assumeTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.icgc.dcc.dev.server.portal.io.PortalSupervisor.Pid;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import lombok.val;
+
+public class PortalSupervisorTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  PortalSupervisor supervisor = new PortalSupervisor();
+  Process process;
+  int pid;
+
+  @Before
+  public void setUp() throws Exception {
+    assumeTrue(PortalSupervisor.PROCFS);
+
+    // Prints its own PID, which Java 8 does not expose
+    process = new ProcessBuilder("sh", "-c", "echo $$; exec sleep 60").start();
+    pid = Integer.parseInt(new BufferedReader(new InputStreamReader(process.getInputStream(), UTF_8)).readLine());
+
+    val pidFile = tmp.newFile("portal.pid");
+    Files.write(pidFile.toPath(), String.valueOf(pid).getBytes(UTF_8));
+
+    supervisor.fileSystem = mock(PortalFileSystem.class);
+    when(supervisor.fileSystem.getPidFile(1)).thenReturn(pidFile);
+    when(supervisor.fileSystem.getJavaPidFile(1)).thenReturn(new File(tmp.getRoot(), "java.pid"));
+  }
+
+  @After
+  public void tearDown() {
+    if (process != null) process.destroyForcibly();
+  }
+
+  @Test
+  public void testExit() throws Exception {
+    val exits = new AtomicInteger();
+    supervisor.attach(1, exits::incrementAndGet);
+
+    supervisor.check();
+    assertThat(exits.get()).isEqualTo(0);
+    assertThat(supervisor.getStatus(1).isRunning()).isTrue();
+
+    process.destroyForcibly().waitFor();
+    supervisor.check();
+    assertThat(exits.get()).isEqualTo(1);
+    assertThat(supervisor.getStatus(1).isRunning()).isFalse();
+  }
+
+  @Test
+  public void testReusedPid() {
+    val startTime = PortalSupervisor.readStartTime(pid);
+
+    assertThat(startTime).isNotNull();
+    assertThat(new Pid(pid, startTime).isAlive()).isTrue();
+    assertThat(new Pid(pid, startTime - 1).isAlive()).isFalse();
+  }
+
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2016 The Ontario Institute for Cancer Research. All rights reserved.                             
+ *                                                                                                               
+ * This program and the accompanying materials are made available under the terms of the GNU Public License v3.0.
+ * You should have received a copy of the GNU General Public License along with                                  
+ * this program. If not, see <http://www.gnu.org/licenses/>.                                                     
+ *                                                                                                               
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY                           
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES                          
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT                           
+ * SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,                                
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED                          
+ * TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;                               
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER                              
+ * IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN                         
+ * ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.icgc.dcc.dev.server.portal.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.icgc.dcc.dev.server.github.GithubPr;
+import org.icgc.dcc.dev.server.portal.Portal;
+import org.icgc.dcc.dev.server.portal.PortalNotFoundException;
+import org.icgc.dcc.dev.server.portal.PortalRepository;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import com.google.common.collect.ImmutableList;
+
+import lombok.val;
+
+public class PortalRegistryTest {
+
+  PortalRegistry registry = new PortalRegistry();
+
+  @Before
+  public void setUp() {
+    registry.maxAttempts = 2;
+    registry.repository = mock(PortalRepository.class);
+    registry.transactionManager = mock(PlatformTransactionManager.class);
+
+    when(registry.repository.findAllDetails()).thenReturn(ImmutableList.of(portal(1, "portal", 10)));
+    registry.init();
+  }
+
+  @Test
+  public void testSaveKeepsUnchangedKeys() {
+    registry.save(portal(1, "portal", 10).setTitle("Changed"));
+
+    assertThat(registry.getBySlug("portal").isPresent()).isTrue();
+    assertThat(registry.getByPrNumber(10)).hasSize(1);
+  }
+
+  @Test
+  public void testSaveMovesChangedKeys() {
+    registry.save(portal(1, "renamed", 11));
+
+    assertThat(registry.getBySlug("portal").isPresent()).isFalse();
+    assertThat(registry.getBySlug("renamed").isPresent()).isTrue();
+    assertThat(registry.getByPrNumber(10)).isEmpty();
+    assertThat(registry.getByPrNumber(11)).hasSize(1);
+  }
+
+  @Test
+  public void testSaveAfterDelete() {
+    val stale = registry.get(1).get();
+    registry.delete(1);
+
+    assertThatThrownBy(() -> registry.save(stale)).isInstanceOf(PortalNotFoundException.class);
+    assertThat(registry.get(1).isPresent()).isFalse();
+    assertThat(registry.getBySlug("portal").isPresent()).isFalse();
+    assertThat(registry.pending.get(1).isPresent()).isFalse();
+  }
+
+  @Test
+  public void testFlushDropsAfterMaxAttempts() {
+    when(registry.repository.save(any(Portal.class))).thenThrow(new IllegalStateException());
+    registry.save(portal(1, "portal", 10));
+
+    registry.flush();
+    assertThat(registry.pending).containsKey(1);
+
+    registry.flush();
+    assertThat(registry.pending).isEmpty();
+    assertThat(registry.attempts).isEmpty();
+    verify(registry.repository, times(2)).save(any(Portal.class));
+  }
+
+  @Test
+  public void testFlushIsolatesFailures() {
+    when(registry.repository.findAllDetails()).thenReturn(ImmutableList.of(portal(2, "other", null)));
+    registry.init();
+    when(registry.repository.save(any(Portal.class))).thenAnswer(invocation -> {
+      Portal portal = (Portal) invocation.getArguments()[0];
+      if (portal.getId() == 1) throw new IllegalStateException();
+
+      return portal;
+    });
+    registry.save(portal(1, "portal", 10));
+    registry.save(portal(2, "other", null));
+
+    registry.flush();
+
+    assertThat(registry.pending).containsOnlyKeys(1);
+  }
+
+  private static Portal portal(Integer id, String slug, Integer prNumber) {
+    return new Portal()
+        .setId(id)
+        .setSlug(slug)
+        .setTarget(prNumber == null ? null : new Portal.Candidate().setPr(new GithubPr().setNumber(prNumber)));
+  }
+
+}
@@ -28,6 +28,9 @@ export class PortalControls {
   @Input()
   ticket: any;
 
+  @Input()
+  status: any;
+
   isProcessing: Boolean;
   portalOptions: any = {};
   shouldShowConfig = false;
@@ -35,6 +38,9 @@ export class PortalControls {
   // TODO: rename..
   logsFromRestEndpoint: any = {};
   logsFromWebsocket = [];
+  logsNextOffset = 0;
+  logsReplayed = false;
+  logsPending = [];
 
   get logsFromWebsocketAfterLogsFromRestEndpoint() {
     const demarcation = this.logsFromRestEndpoint.timestamp || 0;
@@ -59,14 +65,60 @@ export class PortalControls {
   }
 
   requestLogs = () => {
-    this.portalService.fetchPortalLog(this.portal.id)
-      .subscribe( data => this.logsFromRestEndpoint = data );
+    this.logsNextOffset = 0;
+    this.logsReplayed = false;
+    this.logsPending = [];
 
+    // Recent lines are replayed on subscription. Live frames can arrive on either side of the replay, so they are
+    // held until it arrives and then trimmed to what follows it
     this.portalService.subscribePortalLog(this.portal.id, (message) => {
-      this.logsFromWebsocket.push(JSON.parse(message.body));
+      const frame = JSON.parse(message.body);
+      if (frame.replay) {
+        this.logsReplayed = true;
+        this.appendLogs(frame, message.headers);
+        this.logsPending.forEach(pending => this.appendLogs(pending.frame, pending.headers));
+        this.logsPending = [];
+      } else if (this.logsReplayed) {
+        this.appendLogs(frame, message.headers);
+      } else {
+        this.logsPending.push({ frame, headers: message.headers });
+      }
     });
   };
 
+  appendLogs = (frame, headers) => {
+    const {timestamp, offset, nextOffset} = frame;
+    let {lines} = frame;
+
+    // A log that starts over from 0 was rotated
+    if (offset > 0) {
+      if (nextOffset <= this.logsNextOffset) {
+        // Already received
+        return;
+      }
+
+      // Trim the lines that were already received
+      let lineOffset = offset;
+      while (lines.length && lineOffset < this.logsNextOffset) {
+        lineOffset += utf8Length(lines[0]) + 1;
+        lines = lines.slice(1);
+      }
+    }
+    this.logsNextOffset = nextOffset;
+
+    const droppedLines = headers['dropped-lines'];
+    if (droppedLines) {
+      // Lines were dropped while this client was falling behind, fetch them by offset
+      const gap = { timestamp, line: `... ${droppedLines} lines dropped ...` };
+      const droppedOffset = Number(headers['dropped-offset']);
+      this.logsFromWebsocket.push(gap);
+      this.portalService.fetchPortalLogRange(this.portal.id, droppedOffset, offset - droppedOffset)
+        .subscribe( content => gap.line = content.replace(/\n$/, '') );
+    }
+
+    lines.forEach(line => this.logsFromWebsocket.push({ timestamp, line }));
+  };
+
   handlePortalOptionsChange = (options) => {
     this.portalOptions = options;
   }
@@ -75,3 +127,7 @@ export class PortalControls {
     return this.portal && moment(this.portal.updated, 'x').fromNow();
   }
 }
+
+function utf8Length(line: string) {
+  return unescape(encodeURIComponent(line)).length;
+}
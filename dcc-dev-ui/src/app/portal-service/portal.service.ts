@@ -3,7 +3,7 @@ import { Http, Headers, URLSearchParams } from '@angular/http';
 import { PullRequest, Candidate, Portal }  from '../interfaces';
 import * as SockJS from 'sockjs-client';
 import { Stomp } from 'stompjs/lib/stomp.js';
-import { map } from 'lodash';
+import { map, findIndex } from 'lodash';
 
 import { REST_ROOT, WEBSOCKET_ROOT } from '../config';
 
@@ -18,12 +18,22 @@ function encodeFormValues(values) {
 
 const formHeaders = new Headers({ 'Content-Type': 'application/x-www-form-urlencoded' });
 
+// Delay before retrying a failed portal sync (ms)
+const SYNC_RETRY_DELAY = 5000;
+
 @Injectable()
 export class PortalService {
   candidates: Array<Candidate> = [];
   portals: Array<Portal> = [];
+  statuses: any = {};
   logsMap: any = {};
 
+  // Position in the server's portal delta stream
+  private epoch: string = null;
+  private sequence: number = 0;
+  private syncing = false;
+  private pendingDeltas = [];
+
   constructor(
     public http: Http,
     private ref: ApplicationRef,
@@ -31,7 +41,8 @@ export class PortalService {
   ) {
 
     this.updateCandidates();
-    this.updatePortals();
+    this.syncPortals();
+    this.updateStatuses();
 
     stompClient.connect({}, (frame) => {
       console.log('Connected: ' + frame);
@@ -41,11 +52,14 @@ export class PortalService {
       // stompClient.subscribe('/topic/portal/execute', onState.bind(null, '/execute'));
       // stompClient.subscribe('/topic/logs/1', onState.bind(null, '/logs'));
       // stompClient.subscribe('/topic/builds', onState.bind(null, '/builds'));
-      stompClient.subscribe('/topic/portal', this.handlePortalStateMessage);
+      stompClient.subscribe('/topic/portal', this.handlePortalDeltaMessage);
       // stompClient.subscribe('/topic/portal/state', onState);
       // stompClient.subscribe('/topic/portal/execute', onState);
       // stompClient.subscribe('/topic/logs/1', this.handlePortalLogMessage);
       // stompClient.subscribe('/topic/builds', onState);
+
+      // Catch up with deltas published before the subscription
+      this.syncPortals();
     });
   }
 
@@ -74,6 +88,14 @@ export class PortalService {
       }));
   };
 
+  fetchPortalLogRange = (portalId, offset, length) => {
+    const params = new URLSearchParams();
+    params.set('offset', offset);
+    params.set('length', length);
+    return this.http.get(`${REST_ROOT}/portals/${portalId}/log`, { search: params })
+      .map(res => res.text());
+  };
+
   // TODO: make this an observable
   subscribePortalLog = (portalId, cb) => {
     stompClient.subscribe(`/topic/logs/${portalId}`, (message) => {
@@ -81,14 +103,90 @@ export class PortalService {
     });
   };
 
-  private handlePortalStateMessage = (message) => {
-    const {portalId, type} = JSON.parse(message.body);
-    if (type !== 'EXECUTION') {
-      this._ngZone.run(() => {
-        this.updatePortals();
-        this.updateCandidates();
-      });
+  // Filter is any of level, logger (prefix) and pattern (regex), applied by the server
+  subscribePortalLogRecords = (portalId, filter, cb) => {
+    const query = encodeFormValues(filter);
+    stompClient.subscribe(`/topic/logs/${portalId}/records${query ? '?' + query : ''}`, (message) => {
+      this._ngZone.run(() => cb(JSON.parse(message.body).records));
+    });
+  };
+
+  subscribeErrorLogs = (cb) => {
+    stompClient.subscribe('/topic/logs/errors', (message) => {
+      this._ngZone.run(() => cb(JSON.parse(message.body).records));
+    });
+  };
+
+  private handlePortalDeltaMessage = (message) => {
+    const delta = JSON.parse(message.body);
+    this._ngZone.run(() => {
+      if (this.syncing) {
+        this.pendingDeltas.push(delta);
+      } else {
+        this.applyDelta(delta);
+      }
+    });
+  };
+
+  private applyDelta = (delta) => {
+    if (delta.epoch !== this.epoch || delta.sequence > this.sequence + 1) {
+      // Missed deltas or the server restarted
+      this.syncPortals();
+      return;
+    }
+    if (delta.sequence <= this.sequence) return;
+
+    this.sequence = delta.sequence;
+    const {portalId, type, changes} = delta;
+    if (type === 'REMOVED') {
+      this.portals = this.portals.filter(portal => portal.id !== portalId);
+      delete this.statuses[portalId];
+    } else {
+      const index = findIndex(this.portals, {id: portalId});
+      if (index < 0) {
+        this.portals = this.portals.concat(changes);
+      } else {
+        this.portals = this.portals.map((portal, i) => i === index ? Object.assign({}, portal, changes) : portal);
+      }
+
+      if (changes.state) {
+        // Show the new state right away, the rest of the status follows from the server
+        this.statuses[portalId] = Object.assign({}, this.statuses[portalId], { state: changes.state });
+        this.updateStatus(portalId);
+      }
     }
+
+    if (type === 'CREATED' || type === 'REMOVED') {
+      this.updateCandidates();
+      this.updateStatuses();
+    }
+  };
+
+  private syncPortals = () => {
+    if (this.syncing) return;
+
+    this.syncing = true;
+    this.fetchPortalChanges(this.epoch, this.epoch ? this.sequence : null).subscribe(
+      (changes) => {
+        if (changes.portals) {
+          this.portals = changes.portals;
+        } else {
+          changes.deltas.forEach(delta => this.applyDelta(delta));
+        }
+        this.epoch = changes.epoch;
+        this.sequence = changes.sequence;
+        this.syncing = false;
+
+        const pendingDeltas = this.pendingDeltas;
+        this.pendingDeltas = [];
+        pendingDeltas.forEach(delta => this.applyDelta(delta));
+      },
+      () => {
+        // The retry fetches everything after the current sequence, including the queued deltas
+        this.syncing = false;
+        this.pendingDeltas = [];
+        setTimeout(this.syncPortals, SYNC_RETRY_DELAY);
+      });
   };
 
   private fetchCandidates = () => {
@@ -96,13 +194,35 @@ export class PortalService {
       .map(res => res.json());
   }
 
-  private fetchPortals = () => {
-    return this.http.get(`${REST_ROOT}/portals`)
+  private fetchPortalChanges = (epoch, since) => {
+    const params = new URLSearchParams();
+    if (epoch) {
+      params.set('epoch', epoch);
+      params.set('since', since);
+    }
+    return this.http.get(`${REST_ROOT}/portals/changes`, { search: params })
       .map(res => res.json());
   }
 
-  private updatePortals = () => {
-    return this.fetchPortals().subscribe( data => this.portals = data );
+  private fetchStatuses = () => {
+    return this.http.get(`${REST_ROOT}/portals/status`)
+      .map(res => res.json());
+  }
+
+  private fetchStatus = (portalId) => {
+    return this.http.get(`${REST_ROOT}/portals/${portalId}/status`)
+      .map(res => res.json());
+  }
+
+  private updateStatuses = () => {
+    return this.fetchStatuses().subscribe( data => this.statuses = data );
+  }
+
+  private updateStatus = (portalId) => {
+    return this.fetchStatus(portalId).subscribe( status => {
+      if (findIndex(this.portals, {id: portalId}) < 0) return;
+      this.statuses = Object.assign({}, this.statuses, { [portalId]: status });
+    });
   }
 
   private updateCandidates = () => {